@@ -0,0 +1,98 @@
+package com.lantian.base.mongl;
+
+import android.os.SystemClock;
+import android.text.Editable;
+import android.text.SpannableStringBuilder;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Times random inserts and deletes on a 1 MB document in MongolPieceTable,
+ * SpannableStringBuilder and StringBuilder. It runs on a device because
+ * SpannableStringBuilder is only a stub in local tests. The timings are
+ * logged with the tag "PieceTableBenchmark".
+ */
+@RunWith(AndroidJUnit4.class)
+public class MongolPieceTableBenchmark {
+
+    private static final String TAG = "PieceTableBenchmark";
+    private static final int DOCUMENT_SIZE = 1024 * 1024;
+    private static final int EDIT_COUNT = 20000;
+    private static final int ROUNDS = 3;
+    // 16 chars, the longest insert
+    private static final String INSERT_TEXT = "ᠮᠣᠩᠭᠣᠯ ᠪᠢᠴᠢᠭ abc";
+
+    @Test
+    public void randomEdits_onOneMegabyteDocument() {
+        final String original = randomText(new Random(1), DOCUMENT_SIZE);
+        final int[] edits = randomEdits(new Random(2), DOCUMENT_SIZE);
+
+        // the first round warms up the JIT and is not logged
+        for (int round = 0; round <= ROUNDS; round++) {
+            MongolPieceTable table = new MongolPieceTable(original);
+            long pieceTable = timeEdits(table, edits);
+            SpannableStringBuilder ssb = new SpannableStringBuilder(original);
+            long spannable = timeEdits(ssb, edits);
+            StringBuilder sb = new StringBuilder(original);
+            long stringBuilder = timeEdits(sb, edits);
+
+            assertEquals(sb.toString(), table.toString());
+            assertEquals(sb.toString(), ssb.toString());
+            if (round > 0) {
+                Log.i(TAG, "round " + round + ", " + EDIT_COUNT + " edits: MongolPieceTable "
+                        + pieceTable + " ms, SpannableStringBuilder " + spannable
+                        + " ms, StringBuilder " + stringBuilder + " ms");
+            }
+        }
+    }
+
+    // each edit is {position, deleteLength, insertLength}, clamped to the current length
+    private static int[] randomEdits(Random random, int documentSize) {
+        int[] edits = new int[EDIT_COUNT * 3];
+        for (int i = 0; i < edits.length; i += 3) {
+            edits[i] = random.nextInt(documentSize);
+            boolean insert = random.nextBoolean();
+            edits[i + 1] = insert ? 0 : 1 + random.nextInt(16);
+            edits[i + 2] = insert ? 1 + random.nextInt(16) : 0;
+        }
+        return edits;
+    }
+
+    private static long timeEdits(Editable text, int[] edits) {
+        final long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < edits.length; i += 3) {
+            int length = text.length();
+            int st = Math.min(edits[i], length);
+            int en = Math.min(st + edits[i + 1], length);
+            text.replace(st, en, INSERT_TEXT, 0, edits[i + 2]);
+        }
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    private static long timeEdits(StringBuilder text, int[] edits) {
+        final long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < edits.length; i += 3) {
+            int length = text.length();
+            int st = Math.min(edits[i], length);
+            int en = Math.min(st + edits[i + 1], length);
+            text.delete(st, en).insert(st, INSERT_TEXT, 0, edits[i + 2]);
+        }
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    private static String randomText(Random random, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (random.nextInt(8) == 0) ? ' ' : (char) (0x1820 + random.nextInt(0x42));
+        }
+        return new String(chars);
+    }
+}
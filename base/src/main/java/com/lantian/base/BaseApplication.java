@@ -1,8 +1,11 @@
 package com.lantian.base;
 
 import android.app.Application;
+import android.content.Context;
 import androidx.multidex.MultiDex;
 
+import com.lantian.base.mongl.MongolFont;
+import com.lantian.base.utils.ConnectivityMonitor;
 import com.lantian.base.utils.GetApplicationContext;
 
 /**
@@ -10,10 +13,20 @@ import com.lantian.base.utils.GetApplicationContext;
  */
 public class BaseApplication extends Application {
 
+    @Override
+    protected void attachBaseContext(Context base) {
+        super.attachBaseContext(base);
+        // 必须在加载其它dex里的类之前
+        MultiDex.install(this);
+    }
+
     @Override
     public void onCreate() {
         super.onCreate();
         GetApplicationContext.init(this);
-        MultiDex.install(this);
+        // 开始监听网络状态
+        ConnectivityMonitor.getInstance();
+        // 后台预加载蒙古文字体
+        MongolFont.preload(this, MongolFont.QAGAN);
     }
 }
@@ -38,6 +38,8 @@ public class GetBook implements Serializable {
         private String author;
         private String content;
         private String addDate;
+        // 本地保存时已经转换好的字形文本，接口不返回，Gson不解析
+        private transient String glyphContent;
 
         public String getName() {
             return name;
@@ -70,5 +72,16 @@ public class GetBook implements Serializable {
         public void setAddDate(String addDate) {
             this.addDate = addDate;
         }
+
+        /**
+         * @return 和content对应的字形文本，没有时是null，需要自己转换
+         */
+        public String getGlyphContent() {
+            return glyphContent;
+        }
+
+        public void setGlyphContent(String glyphContent) {
+            this.glyphContent = glyphContent;
+        }
     }
 }
@@ -0,0 +1,114 @@
+package com.lantian.base.db;
+
+import org.greenrobot.greendao.annotation.Entity;
+import org.greenrobot.greendao.annotation.Id;
+import org.greenrobot.greendao.annotation.Index;
+import org.greenrobot.greendao.annotation.Keep;
+import org.greenrobot.greendao.annotation.NotNull;
+
+/**
+ * 书架上的一本书
+ * 只有书的信息，章节内容在ChapterEntity里，列出书架时不会读到内容
+ */
+@Entity(nameInDb = "BOOK", indexes = {
+        @Index(value = "bookId", unique = true),
+        @Index(value = "updateTime DESC")
+})
+public class BookEntity {
+
+    @Id(autoincrement = true)
+    private Long id;
+    // 服务器上的书名（ebookName）
+    @NotNull
+    private String bookId;
+    private String name;
+    private String author;
+    // 已保存的章节数
+    private int chapterCount;
+    // 全书Unicode文本的长度
+    private long length;
+    // 所有章节都已保存，可以离线阅读
+    private boolean downloaded;
+    private long updateTime;
+
+    @Keep
+    public BookEntity(Long id, @NotNull String bookId, String name, String author,
+                      int chapterCount, long length, boolean downloaded, long updateTime) {
+        this.id = id;
+        this.bookId = bookId;
+        this.name = name;
+        this.author = author;
+        this.chapterCount = chapterCount;
+        this.length = length;
+        this.downloaded = downloaded;
+        this.updateTime = updateTime;
+    }
+
+    @Keep
+    public BookEntity() {
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getBookId() {
+        return bookId;
+    }
+
+    public void setBookId(String bookId) {
+        this.bookId = bookId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public void setAuthor(String author) {
+        this.author = author;
+    }
+
+    public int getChapterCount() {
+        return chapterCount;
+    }
+
+    public void setChapterCount(int chapterCount) {
+        this.chapterCount = chapterCount;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public void setLength(long length) {
+        this.length = length;
+    }
+
+    public boolean getDownloaded() {
+        return downloaded;
+    }
+
+    public void setDownloaded(boolean downloaded) {
+        this.downloaded = downloaded;
+    }
+
+    public long getUpdateTime() {
+        return updateTime;
+    }
+
+    public void setUpdateTime(long updateTime) {
+        this.updateTime = updateTime;
+    }
+}
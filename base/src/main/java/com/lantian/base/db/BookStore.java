@@ -0,0 +1,222 @@
+package com.lantian.base.db;
+
+import android.content.Context;
+
+import com.lantian.base.common.bean.GetBook;
+import com.lantian.base.db.dao.BookEntityDao;
+import com.lantian.base.db.dao.ChapterEntityDao;
+import com.lantian.base.db.dao.DaoMaster;
+import com.lantian.base.db.dao.DaoSession;
+import com.lantian.base.mongl.MongolPaginator;
+import com.lantian.base.utils.GetApplicationContext;
+
+import org.greenrobot.greendao.database.Database;
+import org.greenrobot.greendao.identityscope.IdentityScopeType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 本地保存的书和章节
+ * 书和章节分表保存，按书的id和章节序号建了索引；
+ * 写入按批次放在事务里，读取都是分页的，不会一次读出整本书
+ * 读写数据库比较慢，不要在主线程调用
+ */
+public class BookStore {
+
+    private static final String DB_NAME = "books.db";
+    // 每个事务写入的章节数
+    private static final int BATCH_SIZE = 32;
+
+    private static volatile BookStore sInstance;
+
+    private final DaoSession mDaoSession;
+    private final BookEntityDao mBookDao;
+    private final ChapterEntityDao mChapterDao;
+
+    public static BookStore getInstance() {
+        if (sInstance == null) {
+            synchronized (BookStore.class) {
+                if (sInstance == null) {
+                    Context context = GetApplicationContext.getContext();
+                    sInstance = new BookStore(new OpenHelper(context, DB_NAME).getWritableDb());
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param db 测试时可以传入内存数据库
+     */
+    public BookStore(Database db) {
+        // 不用identity scope，读过的章节内容不会一直留在内存里
+        mDaoSession = new DaoMaster(db).newSession(IdentityScopeType.None);
+        mBookDao = mDaoSession.getBookEntityDao();
+        mChapterDao = mDaoSession.getChapterEntityDao();
+    }
+
+    /**
+     * 保存书的信息，已有同一个bookId的书时替换它
+     */
+    public void saveBook(final BookEntity book) {
+        mDaoSession.runInTx(() -> {
+            BookEntity old = getBook(book.getBookId());
+            book.setId(old != null ? old.getId() : null);
+            book.setUpdateTime(System.currentTimeMillis());
+            mBookDao.insertOrReplace(book);
+        });
+    }
+
+    /**
+     * 按批次保存章节，同一本书同一序号的章节会被替换
+     */
+    public void saveChapters(List<ChapterEntity> chapters) {
+        for (int start = 0; start < chapters.size(); start += BATCH_SIZE) {
+            final int end = Math.min(start + BATCH_SIZE, chapters.size());
+            mChapterDao.insertOrReplaceInTx(chapters.subList(start, end));
+        }
+    }
+
+    /**
+     * 保存接口返回的章节，同时保存转换好的字形文本
+     * 转换字形比较耗CPU，可以先在计算线程上调用toChapters()，再用saveChapters(List)写入
+     *
+     * @param data getBook接口的data，key是章节序号
+     */
+    public void saveChapters(String bookId, Map<String, GetBook._$5Bean> data) {
+        saveChapters(toChapters(bookId, data));
+    }
+
+    /**
+     * 把接口返回的章节转换成ChapterEntity并转换字形，不读写数据库
+     *
+     * @param data getBook接口的data，key是章节序号，不是数字的跳过
+     */
+    public static List<ChapterEntity> toChapters(String bookId, Map<String, GetBook._$5Bean> data) {
+        List<ChapterEntity> chapters = new ArrayList<>(data.size());
+        for (Map.Entry<String, GetBook._$5Bean> entry : data.entrySet()) {
+            GetBook._$5Bean bean = entry.getValue();
+            if (bean == null) {
+                continue;
+            }
+            final int ordinal;
+            try {
+                ordinal = Integer.parseInt(entry.getKey());
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            final String content = bean.getContent() != null ? bean.getContent() : "";
+            chapters.add(new ChapterEntity(null, bookId, ordinal, bean.getName(), bean.getAddDate(),
+                    content, MongolPaginator.shape(content)));
+        }
+        return chapters;
+    }
+
+    /**
+     * 所有章节都保存后调用，之后打开这本书不需要网络
+     */
+    public void setDownloaded(final String bookId, final boolean downloaded) {
+        mDaoSession.runInTx(() -> {
+            BookEntity book = getBook(bookId);
+            if (book == null) {
+                return;
+            }
+            book.setChapterCount((int) getChapterCount(bookId));
+            book.setDownloaded(downloaded);
+            book.setUpdateTime(System.currentTimeMillis());
+            mBookDao.update(book);
+        });
+    }
+
+    public BookEntity getBook(String bookId) {
+        return mBookDao.queryBuilder()
+                .where(BookEntityDao.Properties.BookId.eq(bookId))
+                .unique();
+    }
+
+    /**
+     * 分页列出书架，最近更新的在前
+     */
+    public List<BookEntity> getBooks(int offset, int limit) {
+        return mBookDao.queryBuilder()
+                .orderDesc(BookEntityDao.Properties.UpdateTime)
+                .offset(offset)
+                .limit(limit)
+                .list();
+    }
+
+    public long getBookCount() {
+        return mBookDao.count();
+    }
+
+    public boolean isDownloaded(String bookId) {
+        BookEntity book = getBook(bookId);
+        return book != null && book.getDownloaded();
+    }
+
+    public ChapterEntity getChapter(String bookId, int ordinal) {
+        return mChapterDao.queryBuilder()
+                .where(ChapterEntityDao.Properties.BookId.eq(bookId),
+                        ChapterEntityDao.Properties.Ordinal.eq(ordinal))
+                .unique();
+    }
+
+    /**
+     * 分页读取章节，按序号排列
+     *
+     * @param fromOrdinal 第一章的序号
+     * @param limit       最多读取的章数
+     */
+    public List<ChapterEntity> getChapters(String bookId, int fromOrdinal, int limit) {
+        if (limit <= 0) {
+            return Collections.emptyList();
+        }
+        return mChapterDao.queryBuilder()
+                .where(ChapterEntityDao.Properties.BookId.eq(bookId),
+                        ChapterEntityDao.Properties.Ordinal.ge(fromOrdinal))
+                .orderAsc(ChapterEntityDao.Properties.Ordinal)
+                .limit(limit)
+                .list();
+    }
+
+    public long getChapterCount(String bookId) {
+        return mChapterDao.queryBuilder()
+                .where(ChapterEntityDao.Properties.BookId.eq(bookId))
+                .count();
+    }
+
+    /**
+     * 删除书和它的所有章节
+     */
+    public void deleteBook(final String bookId) {
+        mDaoSession.runInTx(() -> {
+            mChapterDao.queryBuilder()
+                    .where(ChapterEntityDao.Properties.BookId.eq(bookId))
+                    .buildDelete()
+                    .executeDeleteWithoutDetachingEntities();
+            mBookDao.queryBuilder()
+                    .where(BookEntityDao.Properties.BookId.eq(bookId))
+                    .buildDelete()
+                    .executeDeleteWithoutDetachingEntities();
+        });
+    }
+
+    /**
+     * 数据库里只是下载过的书，升级时重建表，书可以重新下载
+     */
+    private static class OpenHelper extends DaoMaster.OpenHelper {
+
+        OpenHelper(Context context, String name) {
+            super(context, name);
+        }
+
+        @Override
+        public void onUpgrade(Database db, int oldVersion, int newVersion) {
+            DaoMaster.dropAllTables(db, true);
+            onCreate(db);
+        }
+    }
+}
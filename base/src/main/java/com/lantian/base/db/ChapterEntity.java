@@ -0,0 +1,100 @@
+package com.lantian.base.db;
+
+import org.greenrobot.greendao.annotation.Entity;
+import org.greenrobot.greendao.annotation.Id;
+import org.greenrobot.greendao.annotation.Index;
+import org.greenrobot.greendao.annotation.Keep;
+import org.greenrobot.greendao.annotation.NotNull;
+
+/**
+ * 一章的内容
+ * glyphContent是用MongolCode转换好的字形文本，打开时不用再转换
+ */
+@Entity(nameInDb = "CHAPTER", indexes = {
+        @Index(value = "bookId, ordinal", unique = true)
+})
+public class ChapterEntity {
+
+    @Id(autoincrement = true)
+    private Long id;
+    @NotNull
+    private String bookId;
+    // 章节序号，即接口data的key
+    private int ordinal;
+    private String name;
+    private String addDate;
+    private String content;
+    private String glyphContent;
+
+    @Keep
+    public ChapterEntity(Long id, @NotNull String bookId, int ordinal, String name,
+                         String addDate, String content, String glyphContent) {
+        this.id = id;
+        this.bookId = bookId;
+        this.ordinal = ordinal;
+        this.name = name;
+        this.addDate = addDate;
+        this.content = content;
+        this.glyphContent = glyphContent;
+    }
+
+    @Keep
+    public ChapterEntity() {
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getBookId() {
+        return bookId;
+    }
+
+    public void setBookId(String bookId) {
+        this.bookId = bookId;
+    }
+
+    public int getOrdinal() {
+        return ordinal;
+    }
+
+    public void setOrdinal(int ordinal) {
+        this.ordinal = ordinal;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getAddDate() {
+        return addDate;
+    }
+
+    public void setAddDate(String addDate) {
+        this.addDate = addDate;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public void setContent(String content) {
+        this.content = content;
+    }
+
+    public String getGlyphContent() {
+        return glyphContent;
+    }
+
+    public void setGlyphContent(String glyphContent) {
+        this.glyphContent = glyphContent;
+    }
+}
@@ -1,5 +1,6 @@
 package com.lantian.base.dialog;
 
+import com.lantian.base.utils.AppSchedulers;
 import com.trello.rxlifecycle2.android.ActivityEvent;
 import com.trello.rxlifecycle2.android.FragmentEvent;
 import com.trello.rxlifecycle2.components.support.RxAppCompatActivity;
@@ -9,7 +10,7 @@ import com.trello.rxlifecycle2.components.support.RxFragmentActivity;
 import io.reactivex.Observable;
 import io.reactivex.ObservableTransformer;
 import io.reactivex.android.schedulers.AndroidSchedulers;
-import io.reactivex.schedulers.Schedulers;
+import io.reactivex.functions.Function;
 
 /**
  * Created by Sherlock·Holmes on 2020/5/27
@@ -25,7 +26,7 @@ public class RxUtil {
             return rxSchedulerHelper();
         }
         return observable -> {
-            Observable<T> compose = observable.subscribeOn(Schedulers.io())
+            Observable<T> compose = observable.subscribeOn(AppSchedulers.io())
                     .observeOn(AndroidSchedulers.mainThread())
                     .compose(activity.bindUntilEvent(ActivityEvent.DESTROY));
             if (showLoading) {
@@ -47,7 +48,7 @@ public class RxUtil {
             return rxSchedulerHelper();
         }
         return observable -> {
-            Observable<T> compose = observable.subscribeOn(Schedulers.io())
+            Observable<T> compose = observable.subscribeOn(AppSchedulers.io())
                     .observeOn(AndroidSchedulers.mainThread())
                     .compose(fragment.bindUntilEvent(FragmentEvent.DESTROY));
             if (showLoading) {
@@ -64,7 +65,43 @@ public class RxUtil {
      * @return 转换后的ObservableTransformer
      */
     public static <T> ObservableTransformer<T, T> rxSchedulerHelper() {
-        return observable -> observable.subscribeOn(Schedulers.io())
+        return observable -> observable.subscribeOn(AppSchedulers.io())
+                .observeOn(AndroidSchedulers.mainThread());
+    }
+
+    /**
+     * 在io线程上订阅，用于网络和磁盘请求
+     * @return 转换后的ObservableTransformer
+     */
+    public static <T> ObservableTransformer<T, T> subscribeOnIo() {
+        return observable -> observable.subscribeOn(AppSchedulers.io());
+    }
+
+    /**
+     * 之后的操作在计算线程上执行，用于整形、解析和排版
+     * @return 转换后的ObservableTransformer
+     */
+    public static <T> ObservableTransformer<T, T> observeOnCpu() {
+        return observable -> observable.observeOn(AppSchedulers.cpu());
+    }
+
+    /**
+     * 之后的操作在主线程上执行
+     * @return 转换后的ObservableTransformer
+     */
+    public static <T> ObservableTransformer<T, T> observeOnMain() {
+        return observable -> observable.observeOn(AndroidSchedulers.mainThread());
+    }
+
+    /**
+     * 在io线程上请求，在计算线程上转换结果，在主线程上接收
+     * @param mapper 耗时的转换，比如蒙文整形
+     * @return 转换后的ObservableTransformer
+     */
+    public static <T, R> ObservableTransformer<T, R> ioThenCpuToMain(final Function<? super T, ? extends R> mapper) {
+        return observable -> observable.subscribeOn(AppSchedulers.io())
+                .observeOn(AppSchedulers.cpu())
+                .<R>map(mapper)
                 .observeOn(AndroidSchedulers.mainThread());
     }
 
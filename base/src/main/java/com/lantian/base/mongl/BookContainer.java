@@ -0,0 +1,415 @@
+package com.lantian.base.mongl;
+
+// A book stored in one binary file that is read through a memory map. The text,
+// the shaped glyph text and the chapter titles are UTF-16 and the chapters are
+// CharBuffer views of the mapping, so opening a book copies nothing to the heap
+// and the pages of the file are only read when they are drawn. This also works
+// for books that would not fit on the heap as Strings.
+//
+// File layout (little endian, which is the byte order of ARM and x86 devices so
+// the chars can be read without swapping):
+//
+//     header           HEADER_SIZE bytes, see the offsets below
+//     chapter table    chapterCount * (textStart, textLength, titleStart, titleLength)
+//     titles           titlesLength chars
+//     text             textLength chars
+//     glyph text       textLength chars, optional (MongolCode keeps the same indexes)
+//     page indexes     count, then (length, MongolPageIndex bytes) for each, optional
+//
+// Usage:
+//
+//     new BookContainer.Builder()
+//             .addChapter(title, content)
+//             .setShapeGlyphs(true)
+//             .addPageIndex(index)
+//             .writeTo(file);
+//
+//     BookContainer book = BookContainer.open(file);
+//     mongolTextView.setText(book.getChapter(i));
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+public final class BookContainer implements Closeable {
+
+    private static final int FILE_MAGIC = 0x4C54424B; // LTBK
+    private static final int FILE_VERSION = 1;
+
+    private static final int FLAG_GLYPHS = 1;
+    private static final int FLAG_PAGE_INDEXES = 2;
+
+    // header offsets
+    private static final int MAGIC = 0;
+    private static final int VERSION = 4;
+    private static final int FLAGS = 8;
+    private static final int CHAPTER_COUNT = 12;
+    private static final int TEXT_LENGTH = 16;
+    private static final int TITLES_LENGTH = 20;
+    private static final int TITLES_OFFSET = 24;
+    private static final int TEXT_OFFSET = 28;
+    private static final int GLYPHS_OFFSET = 32;
+    private static final int PAGE_INDEXES_OFFSET = 36;
+    private static final int HEADER_SIZE = 40;
+    private static final int CHAPTER_ENTRY_SIZE = 16;
+
+    private final FileChannel mChannel;
+    private final int mChapterCount;
+    private final int[] mChapterTable; // 4 ints per chapter
+    private final CharBuffer mTitles;
+    private final CharBuffer mText;
+    private final CharBuffer mGlyphs; // null if the book was not shaped
+    private final ByteBuffer mPageIndexes; // null if there are none
+
+    private BookContainer(FileChannel channel, MappedByteBuffer map) throws IOException {
+        mChannel = channel;
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        if (map.limit() < HEADER_SIZE || map.getInt(MAGIC) != FILE_MAGIC) {
+            throw new IOException("Not a book container");
+        }
+        if (map.getInt(VERSION) != FILE_VERSION) {
+            throw new IOException("Unsupported book container version " + map.getInt(VERSION));
+        }
+        final int flags = map.getInt(FLAGS);
+        mChapterCount = map.getInt(CHAPTER_COUNT);
+        final int textLength = map.getInt(TEXT_LENGTH);
+        final int titlesLength = map.getInt(TITLES_LENGTH);
+        if (mChapterCount < 0 || textLength < 0 || titlesLength < 0
+                || HEADER_SIZE + (long) mChapterCount * CHAPTER_ENTRY_SIZE > map.limit()) {
+            throw new IOException("Corrupt book container header");
+        }
+
+        mChapterTable = new int[mChapterCount * 4];
+        for (int i = 0; i < mChapterTable.length; i++) {
+            mChapterTable[i] = map.getInt(HEADER_SIZE + i * 4);
+        }
+        mTitles = charView(map, map.getInt(TITLES_OFFSET), titlesLength);
+        mText = charView(map, map.getInt(TEXT_OFFSET), textLength);
+        mGlyphs = (flags & FLAG_GLYPHS) != 0
+                ? charView(map, map.getInt(GLYPHS_OFFSET), textLength) : null;
+        if ((flags & FLAG_PAGE_INDEXES) != 0) {
+            final int offset = map.getInt(PAGE_INDEXES_OFFSET);
+            if (offset < 0 || offset > map.limit()) throw new IOException("Corrupt page indexes");
+            ByteBuffer duplicate = map.duplicate();
+            duplicate.position(offset);
+            mPageIndexes = duplicate.slice();
+        } else {
+            mPageIndexes = null;
+        }
+
+        for (int i = 0; i < mChapterCount; i++) {
+            checkRange(mChapterTable[i * 4], mChapterTable[i * 4 + 1], textLength);
+            checkRange(mChapterTable[i * 4 + 2], mChapterTable[i * 4 + 3], titlesLength);
+        }
+    }
+
+    /**
+     * Maps a book container. Only the header and the chapter table are read here.
+     */
+    public static BookContainer open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        FileChannel channel = raf.getChannel();
+        try {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new BookContainer(channel, map);
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    // A CharBuffer made by asCharBuffer() shares the mapping, and so do its
+    // subSequence()s.
+    private static CharBuffer charView(ByteBuffer map, int offset, int length) throws IOException {
+        if (offset < 0 || (offset & 1) != 0 || offset + (long) length * 2 > map.limit()) {
+            throw new IOException("Corrupt book container offsets");
+        }
+        ByteBuffer duplicate = map.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        duplicate.position(offset);
+        duplicate.limit(offset + length * 2);
+        return duplicate.slice().order(ByteOrder.LITTLE_ENDIAN).asCharBuffer();
+    }
+
+    private static void checkRange(int start, int length, int total) throws IOException {
+        if (start < 0 || length < 0 || start + (long) length > total) {
+            throw new IOException("Corrupt chapter table");
+        }
+    }
+
+    /**
+     * Closes the file. The mapping stays valid until it is garbage collected, so the
+     * CharSequences that were handed out can still be read.
+     */
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+
+    public int getChapterCount() {
+        return mChapterCount;
+    }
+
+    // the whole book
+    public CharSequence getText() {
+        return mText.duplicate();
+    }
+
+    public boolean hasGlyphText() {
+        return mGlyphs != null;
+    }
+
+    // the whole shaped book or null if it was not shaped when it was written
+    public CharSequence getGlyphText() {
+        return (mGlyphs != null) ? mGlyphs.duplicate() : null;
+    }
+
+    // the offset of the chapter in getText()
+    public int getChapterStart(int chapter) {
+        return mChapterTable[checkChapter(chapter) * 4];
+    }
+
+    public int getChapterEnd(int chapter) {
+        return getChapterStart(chapter) + mChapterTable[chapter * 4 + 1];
+    }
+
+    public CharSequence getChapter(int chapter) {
+        return mText.subSequence(getChapterStart(chapter), getChapterEnd(chapter));
+    }
+
+    // the shaped chapter or null if the book was not shaped
+    public CharSequence getChapterGlyphs(int chapter) {
+        if (mGlyphs == null) return null;
+        return mGlyphs.subSequence(getChapterStart(chapter), getChapterEnd(chapter));
+    }
+
+    public CharSequence getChapterTitle(int chapter) {
+        final int start = mChapterTable[checkChapter(chapter) * 4 + 2];
+        return mTitles.subSequence(start, start + mChapterTable[chapter * 4 + 3]);
+    }
+
+    // the chapter that contains the offset in getText()
+    public int getChapterForOffset(int offset) {
+        int low = 0;
+        int high = mChapterCount - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (mChapterTable[mid * 4] <= offset) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return Math.max(high, 0);
+    }
+
+    /**
+     * @return the stored page index for the key or null if there is none
+     */
+    public MongolPageIndex getPageIndex(MongolPageIndex.Key key) throws IOException {
+        if (mPageIndexes == null) return null;
+        ByteBuffer buffer = mPageIndexes.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        final int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            final int length = buffer.getInt();
+            ByteBuffer data = buffer.slice();
+            data.limit(length);
+            MongolPageIndex index;
+            try {
+                index = MongolPageIndex.readFrom(
+                        new DataInputStream(new ByteBufferInputStream(data)), key, mText.limit());
+            } catch (IOException e) {
+                index = null; // a truncated index, the others may still be fine
+            }
+            if (index != null) return index;
+            buffer.position(buffer.position() + length);
+        }
+        return null;
+    }
+
+    private int checkChapter(int chapter) {
+        if (chapter < 0 || chapter >= mChapterCount) {
+            throw new IndexOutOfBoundsException("chapter " + chapter + " of " + mChapterCount);
+        }
+        return chapter;
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer mBuffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return mBuffer.hasRemaining() ? (mBuffer.get() & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!mBuffer.hasRemaining()) return -1;
+            len = Math.min(len, mBuffer.remaining());
+            mBuffer.get(b, off, len);
+            return len;
+        }
+    }
+
+    /**
+     * Writes a book container. The text is written in blocks so a big book is never
+     * copied to a byte array as a whole.
+     */
+    public static final class Builder {
+
+        private static final int BLOCK_CHARS = 32 * 1024;
+
+        private final List<CharSequence> mChapters = new ArrayList<>();
+        private final List<CharSequence> mTitles = new ArrayList<>();
+        private final List<MongolPageIndex> mPageIndexes = new ArrayList<>();
+        private boolean mShapeGlyphs;
+
+        public Builder addChapter(CharSequence title, CharSequence text) {
+            mTitles.add(title != null ? title : "");
+            mChapters.add(text);
+            return this;
+        }
+
+        // stores the text shaped by MongolCode too so it is not shaped when opened
+        public Builder setShapeGlyphs(boolean shapeGlyphs) {
+            mShapeGlyphs = shapeGlyphs;
+            return this;
+        }
+
+        // the index has to be for the whole text, that is all chapters in order
+        public Builder addPageIndex(MongolPageIndex index) {
+            mPageIndexes.add(index);
+            return this;
+        }
+
+        /**
+         * Writes to a temporary file first and then replaces the file.
+         */
+        public void writeTo(File file) throws IOException {
+            final int chapterCount = mChapters.size();
+            int[] table = new int[chapterCount * 4];
+            long textLength = 0;
+            long titlesLength = 0;
+            for (int i = 0; i < chapterCount; i++) {
+                table[i * 4] = (int) textLength;
+                table[i * 4 + 1] = mChapters.get(i).length();
+                table[i * 4 + 2] = (int) titlesLength;
+                table[i * 4 + 3] = mTitles.get(i).length();
+                textLength += mChapters.get(i).length();
+                titlesLength += mTitles.get(i).length();
+            }
+            final long titlesOffset = HEADER_SIZE + (long) chapterCount * CHAPTER_ENTRY_SIZE;
+            final long textOffset = titlesOffset + titlesLength * 2;
+            final long glyphsOffset = textOffset + textLength * 2;
+            final long pageIndexesOffset = glyphsOffset + (mShapeGlyphs ? textLength * 2 : 0);
+            if (pageIndexesOffset > Integer.MAX_VALUE) {
+                throw new IOException("The book is too big");
+            }
+
+            File tempFile = new File(file.getPath() + ".tmp");
+            FileOutputStream out = new FileOutputStream(tempFile);
+            try {
+                FileChannel channel = out.getChannel();
+                ByteBuffer header = newBuffer(HEADER_SIZE + chapterCount * CHAPTER_ENTRY_SIZE);
+                header.putInt(FILE_MAGIC)
+                        .putInt(FILE_VERSION)
+                        .putInt((mShapeGlyphs ? FLAG_GLYPHS : 0)
+                                | (mPageIndexes.isEmpty() ? 0 : FLAG_PAGE_INDEXES))
+                        .putInt(chapterCount)
+                        .putInt((int) textLength)
+                        .putInt((int) titlesLength)
+                        .putInt((int) titlesOffset)
+                        .putInt((int) textOffset)
+                        .putInt(mShapeGlyphs ? (int) glyphsOffset : 0)
+                        .putInt(mPageIndexes.isEmpty() ? 0 : (int) pageIndexesOffset);
+                for (int value : table) {
+                    header.putInt(value);
+                }
+                writeFully(channel, header);
+
+                ByteBuffer block = newBuffer(BLOCK_CHARS * 2);
+                for (CharSequence title : mTitles) {
+                    writeChars(channel, block, title);
+                }
+                for (CharSequence chapter : mChapters) {
+                    writeChars(channel, block, chapter);
+                }
+                if (mShapeGlyphs) {
+                    // chapters are shaped one at a time, MongolCode doesn't join
+                    // words across a chapter break anyway
+                    for (CharSequence chapter : mChapters) {
+                        writeChars(channel, block, MongolPaginator.shape(chapter));
+                    }
+                }
+                if (!mPageIndexes.isEmpty()) {
+                    writePageIndexes(channel);
+                }
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            // renameTo doesn't replace the old file on every platform
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            if (!tempFile.renameTo(file)) {
+                //noinspection ResultOfMethodCallIgnored
+                tempFile.delete();
+                throw new IOException("Can't write " + file);
+            }
+        }
+
+        private void writePageIndexes(FileChannel channel) throws IOException {
+            ByteBuffer count = newBuffer(4).putInt(mPageIndexes.size());
+            writeFully(channel, count);
+            for (MongolPageIndex index : mPageIndexes) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                index.writeTo(new DataOutputStream(bytes));
+                writeFully(channel, newBuffer(4 + bytes.size())
+                        .putInt(bytes.size())
+                        .put(bytes.toByteArray()));
+            }
+        }
+
+        private static void writeChars(FileChannel channel, ByteBuffer block, CharSequence text)
+                throws IOException {
+            final int length = text.length();
+            for (int i = 0; i < length; i++) {
+                if (!block.hasRemaining()) {
+                    writeFully(channel, block);
+                }
+                block.putChar(text.charAt(i));
+            }
+            writeFully(channel, block);
+        }
+
+        private static ByteBuffer newBuffer(int size) {
+            return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        // writes the buffer from 0 to its position and clears it
+        private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -87,6 +87,14 @@ public final class MongolCode {
     }
 
     String unicodeToMenksoftSameIndex(CharSequence inputString) {
+        final long metricsStart = MongolMetrics.start(MongolMetrics.SHAPE);
+        final String result = renderSameIndex(inputString);
+        MongolMetrics.end(MongolMetrics.SHAPE, metricsStart);
+        MongolMetrics.count(MongolMetrics.CHARS_SHAPED, result.length());
+        return result;
+    }
+
+    private String renderSameIndex(CharSequence inputString) {
 
         if (inputString == null || inputString.length() == 0) return "";
 
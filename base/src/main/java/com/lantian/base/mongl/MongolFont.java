@@ -2,9 +2,13 @@ package com.lantian.base.mongl;
 
 
 import android.content.Context;
+import android.graphics.Paint;
 import android.graphics.Typeface;
+import android.os.Process;
 
-import java.util.Hashtable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 // This class is used to cache fonts to avoid memory leaks.
 // It is also a central place to organize the included fonts.
@@ -26,24 +30,118 @@ public class MongolFont {
     //public static final String SVLBIYA = "fonts/MBJ8102.ttf";               // Double stem
     //public static final String JCLGQ = "fonts/MenksoftJclgq.ttf";           // Computer
 
-    private static Hashtable<String, Typeface> fontCache = new Hashtable<>();
+    // A font is parsed only once even if it is requested on two threads at the same
+    // time. Reading a font that is already loaded doesn't lock.
+    private static final ConcurrentHashMap<String, FutureTask<Typeface>> fontCache = new ConcurrentHashMap<>();
+
+    // FontMetrics per (typeface, text size), see TextPaintPlus.getCachedFontMetrics()
+    private static final int MAX_CACHED_METRICS = 256;
+    private static final ConcurrentHashMap<MetricsKey, Metrics> metricsCache = new ConcurrentHashMap<>();
 
     public static Typeface get(String name, Context context) {
         if (name == null) return null;
-        Typeface tf = fontCache.get(name);
-        if (tf == null) {
+        FutureTask<Typeface> task = fontCache.get(name);
+        if (task == null) {
+            final Context appContext = context.getApplicationContext();
+            FutureTask<Typeface> newTask = new FutureTask<>(() -> load(name, appContext));
+            task = fontCache.putIfAbsent(name, newTask);
+            if (task == null) {
+                task = newTask;
+                task.run();
+            }
+        }
+        try {
+            // waits if the font is still being loaded on another thread
+            Typeface typeface = task.get();
+            if (typeface == null) {
+                // don't remember the failure, the next call tries again
+                fontCache.remove(name, task);
+            }
+            return typeface;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            fontCache.remove(name, task);
+            return null;
+        }
+    }
+
+    private static Typeface load(String name, Context context) {
+        try {
+            return Typeface.createFromAsset(context.getAssets(), name);
+        } catch (Exception e) {
             try {
-                tf = Typeface.createFromAsset(context.getAssets(), name);
+                return Typeface.createFromAsset(context.getAssets(), QAGAN);
+            } catch (Exception err) {
+                return null;
             }
-            catch (Exception e) {
-                try {
-                    tf = Typeface.createFromAsset(context.getAssets(), QAGAN);
-                } catch (Exception err) {
-                    return null;
-                }
+        }
+    }
+
+    /**
+     * Loads the fonts on a background thread so that the first MongolTextView
+     * doesn't have to wait for the font file to be parsed. Call it early, for
+     * example in Application.onCreate().
+     *
+     * @param names the fonts to load (QAGAN if none)
+     */
+    public static void preload(Context context, final String... names) {
+        final Context appContext = context.getApplicationContext();
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            if (names.length == 0) {
+                get(QAGAN, appContext);
             }
-            fontCache.put(name, tf);
+            for (String name : names) {
+                get(name, appContext);
+            }
+        }, "MongolFontPreloader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    static final class Metrics {
+        final Paint.FontMetrics fontMetrics;
+        final Paint.FontMetricsInt fontMetricsInt;
+
+        Metrics(Paint paint) {
+            fontMetrics = paint.getFontMetrics();
+            fontMetricsInt = paint.getFontMetricsInt();
+        }
+    }
+
+    private static final class MetricsKey {
+        final Typeface typeface;
+        final float textSize;
+
+        MetricsKey(Typeface typeface, float textSize) {
+            this.typeface = typeface;
+            this.textSize = textSize;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof MetricsKey)) return false;
+            MetricsKey other = (MetricsKey) o;
+            return textSize == other.textSize && typeface == other.typeface;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * ((typeface == null) ? 0 : typeface.hashCode()) + Float.floatToIntBits(textSize);
+        }
+    }
+
+    // the metrics only depend on the typeface and the text size
+    static Metrics getMetrics(Paint paint) {
+        MetricsKey key = new MetricsKey(paint.getTypeface(), paint.getTextSize());
+        Metrics metrics = metricsCache.get(key);
+        if (metrics == null) {
+            if (metricsCache.size() >= MAX_CACHED_METRICS) metricsCache.clear();
+            metrics = new Metrics(paint);
+            metricsCache.putIfAbsent(key, metrics);
         }
-        return tf;
+        return metrics;
     }
-}
\ No newline at end of file
+}
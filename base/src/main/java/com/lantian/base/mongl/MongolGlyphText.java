@@ -0,0 +1,253 @@
+package com.lantian.base.mongl;
+
+// This is the glyph text of a MongolTextStorage in lazy shaping mode. Instead of
+// rendering the whole Unicode text up front, words are shaped the first time one
+// of their chars is read, a chunk at a time. The shaped ranges are remembered in
+// a sorted range map and the words around an edit are dropped from it so they
+// get shaped again.
+//
+// The spans are not stored here. MongolGlyphView adds them from the span
+// index of the storage.
+//
+// This class is not thread safe.
+
+import android.text.GetChars;
+
+import java.util.Arrays;
+
+import androidx.annotation.NonNull;
+
+final class MongolGlyphText implements CharSequence, GetChars {
+
+    // Shaping a few hundred chars at a time keeps the overhead per call low
+    // while still only shaping what is read.
+    private static final int CHUNK_SIZE = 512;
+
+    private final MongolCode mRenderer = MongolCode.INSTANCE;
+    private CharSequence mUnicodeText;
+    private char[] mGlyphs;         // only valid in the shaped ranges
+    private int[] mShaped;          // sorted [start, end) pairs of shaped ranges
+    private int mShapedCount;       // number of ints used in mShaped
+
+    // the shaped range of the last lookup, for fast sequential reads
+    private int mHitStart;
+    private int mHitEnd;
+
+    private long mShapedCharCount;  // for statistics
+
+    MongolGlyphText(CharSequence unicodeText) {
+        setUnicodeText(unicodeText);
+    }
+
+    void setUnicodeText(CharSequence unicodeText) {
+        mUnicodeText = (unicodeText == null) ? "" : unicodeText;
+        mGlyphs = new char[Math.max(mUnicodeText.length(), 16)];
+        mShaped = new int[8];
+        mShapedCount = 0;
+        mHitStart = 0;
+        mHitEnd = 0;
+    }
+
+    CharSequence getUnicodeText() {
+        return mUnicodeText;
+    }
+
+    /**
+     * @return the number of chars that have been shaped so far, including chars
+     * that were shaped again after an edit
+     */
+    long getShapedCharCount() {
+        return mShapedCharCount;
+    }
+
+    /**
+     * Call after the Unicode range [st, en) was replaced with insertLength chars.
+     */
+    void onTextReplaced(int st, int en, int insertLength) {
+        final int delta = insertLength - (en - st);
+        final int newLength = mUnicodeText.length();
+        final int oldLength = newLength - delta;
+
+        // move the glyphs after the edit
+        if (newLength > mGlyphs.length) {
+            mGlyphs = Arrays.copyOf(mGlyphs, Math.max(newLength, mGlyphs.length * 2));
+        }
+        if (delta != 0 && en < oldLength) {
+            System.arraycopy(mGlyphs, en, mGlyphs, en + delta, oldLength - en);
+        }
+
+        // shift the shaped ranges and forget the words touched by the edit
+        final int invalidStart = MongolTextStorage.getMongolWordStart(st, mUnicodeText);
+        final int invalidEnd = MongolTextStorage.getMongolWordEnd(st + insertLength, mUnicodeText);
+        int[] ranges = new int[mShapedCount + 4];
+        int count = 0;
+        for (int i = 0; i < mShapedCount; i += 2) {
+            int start = mShaped[i];
+            int end = mShaped[i + 1];
+            // to new indexes, collapsing the replaced range
+            start = (start <= st) ? start : (start >= en) ? start + delta : st + insertLength;
+            end = (end <= st) ? end : (end >= en) ? end + delta : st;
+            if (end <= start) continue;
+            if (end <= invalidStart || start >= invalidEnd) {
+                ranges[count++] = start;
+                ranges[count++] = end;
+                continue;
+            }
+            if (start < invalidStart) {
+                ranges[count++] = start;
+                ranges[count++] = invalidStart;
+            }
+            if (end > invalidEnd) {
+                ranges[count++] = invalidEnd;
+                ranges[count++] = end;
+            }
+        }
+        mShaped = ranges;
+        mShapedCount = count;
+        mHitStart = 0;
+        mHitEnd = 0;
+    }
+
+    /**
+     * Makes sure that the glyphs in [start, end) are shaped.
+     *
+     * @throws IndexOutOfBoundsException if the range is not inside the text
+     */
+    void ensureShaped(int start, int end) {
+        if (start >= mHitStart && end <= mHitEnd) return;
+        checkRange("ensureShaped", start, end);
+        int position = start;
+        while (position < end) {
+            final int range = findRange(position);
+            if (range >= 0 && mShaped[range] <= position) {
+                // already shaped up to the end of this range
+                if (mShaped[range + 1] >= end) {
+                    mHitStart = mShaped[range];
+                    mHitEnd = mShaped[range + 1];
+                    return;
+                }
+                position = mShaped[range + 1];
+                continue;
+            }
+            // shape the gap up to the next shaped range
+            final int gapEnd = (range >= 0) ? mShaped[range] : mUnicodeText.length();
+            final int shapeEnd = Math.min(gapEnd, Math.max(end, position + CHUNK_SIZE));
+            if (shapeEnd <= position) {
+                // nothing left to shape, don't spin
+                throw new IllegalStateException("Can't shape at " + position + " of " + length());
+            }
+            shape(position, shapeEnd);
+        }
+    }
+
+    private void checkRange(final String operation, int start, int end) {
+        if (end < start) {
+            throw new IndexOutOfBoundsException(operation + " " + start + " ... " + end
+                    + " has end before start");
+        }
+        final int length = length();
+        if (start < 0 || end > length) {
+            throw new IndexOutOfBoundsException(operation + " " + start + " ... " + end
+                    + " is out of bounds for length " + length);
+        }
+    }
+
+    // index of the first range with end > position, or -1
+    private int findRange(int position) {
+        int low = 0;
+        int high = mShapedCount / 2;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (mShaped[mid * 2 + 1] <= position) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return (low < mShapedCount / 2) ? low * 2 : -1;
+    }
+
+    private void shape(int start, int end) {
+        // only shape whole words
+        final int wordStart = MongolTextStorage.getMongolWordStart(start, mUnicodeText);
+        final int wordEnd = MongolTextStorage.getMongolWordEnd(end, mUnicodeText);
+        final String glyphs = mRenderer.unicodeToMenksoftSameIndex(
+                mUnicodeText.subSequence(wordStart, wordEnd));
+        glyphs.getChars(0, glyphs.length(), mGlyphs, wordStart);
+        mShapedCharCount += wordEnd - wordStart;
+        markShaped(wordStart, wordEnd);
+    }
+
+    private void markShaped(int start, int end) {
+        int[] ranges = new int[mShapedCount + 2];
+        int count = 0;
+        boolean added = false;
+        for (int i = 0; i < mShapedCount; i += 2) {
+            final int rangeStart = mShaped[i];
+            final int rangeEnd = mShaped[i + 1];
+            if (rangeEnd < start) {
+                ranges[count++] = rangeStart;
+                ranges[count++] = rangeEnd;
+            } else if (rangeStart > end) {
+                if (!added) {
+                    ranges[count++] = start;
+                    ranges[count++] = end;
+                    added = true;
+                }
+                ranges[count++] = rangeStart;
+                ranges[count++] = rangeEnd;
+            } else {
+                start = Math.min(start, rangeStart);
+                end = Math.max(end, rangeEnd);
+            }
+        }
+        if (!added) {
+            ranges[count++] = start;
+            ranges[count++] = end;
+        }
+        mShaped = ranges;
+        mShapedCount = count;
+        mHitStart = start;
+        mHitEnd = end;
+    }
+
+    ////////////////////////////// CharSequence ///////////////////////////
+
+    @Override
+    public int length() {
+        return mUnicodeText.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < mHitStart || index >= mHitEnd) {
+            if (index < 0 || index >= length()) {
+                throw new IndexOutOfBoundsException("charAt: " + index + " of " + length());
+            }
+            ensureShaped(index, index + 1);
+        }
+        return mGlyphs[index];
+    }
+
+    @Override
+    public void getChars(int start, int end, char[] dest, int destoff) {
+        checkRange("getChars", start, end);
+        ensureShaped(start, end);
+        System.arraycopy(mGlyphs, start, dest, destoff, end - start);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        checkRange("subSequence", start, end);
+        ensureShaped(start, end);
+        return new String(mGlyphs, start, end - start);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        final int length = length();
+        ensureShaped(0, length);
+        return new String(mGlyphs, 0, length);
+    }
+}
@@ -0,0 +1,85 @@
+package com.lantian.base.mongl;
+
+// This is the glyph text of a MongolTextStorage as it is given to MongolLayout.
+// The chars come from the glyph text and the spans come from the span index of
+// the storage. Since the glyph indexes are the same as the Unicode indexes, the
+// Unicode and glyph views share one index and spans are never copied between them.
+
+import android.text.GetChars;
+import android.text.Spanned;
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+
+final class MongolGlyphView implements CharSequence, GetChars, Spanned {
+
+    private final MongolSpanTree mSpanIndex;
+    private CharSequence mGlyphText = "";
+
+    MongolGlyphView(MongolSpanTree spanIndex) {
+        mSpanIndex = spanIndex;
+    }
+
+    void setGlyphText(CharSequence glyphText) {
+        mGlyphText = glyphText;
+    }
+
+    CharSequence getGlyphText() {
+        return mGlyphText;
+    }
+
+    ////////////////////////////// CharSequence ///////////////////////////
+
+    @Override
+    public int length() {
+        return mGlyphText.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return mGlyphText.charAt(index);
+    }
+
+    @Override
+    public void getChars(int start, int end, char[] dest, int destoff) {
+        TextUtils.getChars(mGlyphText, start, end, dest, destoff);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return mGlyphText.subSequence(start, end);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return mGlyphText.toString();
+    }
+
+    ////////////////////////////// Spanned ///////////////////////////
+
+    @Override
+    public <T> T[] getSpans(int start, int end, Class<T> type) {
+        return mSpanIndex.getSpans(start, end, type);
+    }
+
+    @Override
+    public int getSpanStart(Object tag) {
+        return mSpanIndex.getSpanStart(tag);
+    }
+
+    @Override
+    public int getSpanEnd(Object tag) {
+        return mSpanIndex.getSpanEnd(tag);
+    }
+
+    @Override
+    public int getSpanFlags(Object tag) {
+        return mSpanIndex.getSpanFlags(tag);
+    }
+
+    @Override
+    public int nextSpanTransition(int start, int limit, Class type) {
+        return mSpanIndex.nextSpanTransition(start, limit, type);
+    }
+}
@@ -2,12 +2,12 @@ package com.lantian.base.mongl;
 
 import android.graphics.Canvas;
 import android.graphics.Rect;
-import android.graphics.RectF;
 import android.text.TextPaint;
 import android.text.TextUtils;
 import android.view.Gravity;
 
 import java.text.BreakIterator;
+import java.text.CharacterIterator;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -18,16 +18,26 @@ import java.util.List;
 public class MongolLayout {
 
     private CharSequence mText;
-    private TextPaintPlus mTextPaint;
+    private TextPaintPlus mTextPaint; // null if the layout was made with a TextMeasurer
+    private final TextMeasurer mMeasurer;
     private int mHeight;
     private int mAlignment; // Use Gravity for now
     private float mSpacingMult;
     private float mSpacingAdd;
     private List<LineInfo> mLinesInfo; // = new ArrayList<>();
     private boolean needsLineUpdate;
+    private LineBreaker mLineBreaker; // not null while some lines are not broken yet
+    private Rect mTempRect;
     private static final double EXTRA_ROUNDING = 0.5;
 
     private static final char CHAR_SPACE = ' ';
+    // how many break opportunities are measured between cancellation checks
+    private static final int SEGMENTS_PER_CANCELLATION_CHECK = 64;
+
+    // lets a layout that is made on a background thread stop early
+    interface CancellationCheck {
+        boolean isCancelled();
+    }
 
     /**
      * 默认行距
@@ -53,12 +63,35 @@ public class MongolLayout {
 
         mText = text;
         mTextPaint = paint;
+        mMeasurer = new PaintTextMeasurer(paint);
         mHeight = height;
         mAlignment = align;
         mSpacingMult = spacingMult;
         mSpacingAdd = spacingAdd;
 
-        needsLineUpdate = true;
+        invalidateLines();
+    }
+
+    /**
+     * Makes a layout that measures with the measurer instead of a paint, for
+     * example with the advances from a font file (see TtfMetrics). Spans are
+     * ignored. The lines can be broken and queried without Android, but the
+     * layout can't be drawn and getPaint() returns null.
+     */
+    public MongolLayout(CharSequence text, TextMeasurer measurer, int height,
+                        float spacingMult, float spacingAdd) {
+
+        if (height < 0)
+            throw new IllegalArgumentException("Layout: " + height + " < 0");
+
+        mText = text;
+        mMeasurer = measurer;
+        mHeight = height;
+        mAlignment = Gravity.TOP;
+        mSpacingMult = spacingMult;
+        mSpacingAdd = spacingAdd;
+
+        invalidateLines();
     }
 
 
@@ -87,9 +120,9 @@ public class MongolLayout {
                 next = end;
 
             tl.set(paint, source, i, next);
-            RectF size = tl.measure();
-            float width = size.width(); // horizontal line orientation
-            heightSum += size.height(); // horizontal line orientation
+            tl.measure();
+            float width = tl.getMeasuredWidth(); // horizontal line orientation
+            heightSum += tl.getMeasuredHeight(); // horizontal line orientation
 
             if (width > longestWidth)
                 longestWidth = width;
@@ -100,7 +133,7 @@ public class MongolLayout {
         MongolTextLine.recycle(tl);
 
         if (heightSum == 0) {
-            heightSum = paint.getFontMetrics().bottom - paint.getFontMetrics().top;
+            heightSum = paint.getCachedFontMetrics().bottom - paint.getCachedFontMetrics().top;
         }
 
         // returning the size as a vertical line orientation (swapping width and height)
@@ -111,43 +144,49 @@ public class MongolLayout {
      * @param canvas the canvas to draw the layout on
      */
     public void draw(Canvas canvas) {
-        if (mHeight <= 0) return;
-
-        if (needsLineUpdate) updateLines();
-
-        // TODO for now draw all the lines. Should we only draw the visible lines?
-        // (see Layout source code)
-        int lastLine = mLinesInfo.size() - 1;
-        if (lastLine < 0) return;
+        if (mHeight <= 0 || mTextPaint == null) return;
 
+        // only the visible lines are drawn (see drawText)
         drawText(canvas);
     }
 
-    @SuppressWarnings("SuspiciousNameCombination")
     public void drawText(Canvas canvas) {
+        final long metricsStart = MongolMetrics.start(MongolMetrics.DRAW_TEXT);
+        drawVisibleLines(canvas);
+        MongolMetrics.end(MongolMetrics.DRAW_TEXT, metricsStart);
+    }
 
-        if (mHeight <= 0) return;
+    @SuppressWarnings("SuspiciousNameCombination")
+    private void drawVisibleLines(Canvas canvas) {
 
-        if (needsLineUpdate) updateLines();
+        if (mHeight <= 0 || mTextPaint == null) return;
 
-        int metricsBottom = mTextPaint.getFontMetricsInt().bottom;
+        // Lines to the right of the clip bounds are not drawn, so they don't
+        // have to be broken (or shaped) yet.
+        if (mTempRect == null) mTempRect = new Rect();
+        if (!canvas.getClipBounds(mTempRect)) return;
+        final int clipLeft = mTempRect.left;
+        final int clipRight = mTempRect.right;
+        ensureLines(clipRight);
 
-        int x = metricsBottom; // start position of each vertical line
+        int lastLine = mLinesInfo.size() - 1;
+        if (lastLine < 0) return;
+        int firstLine = findLineForHorizontal(clipLeft);
+
+        int metricsBottom = mTextPaint.getCachedFontMetricsInt().bottom;
+
+        // start position of each vertical line
+        int x = metricsBottom + ((firstLine > 0) ? mLinesInfo.get(firstLine - 1).top : 0);
         int y = 0; // baseline
         MongolTextLine tl = MongolTextLine.obtain();
 
         boolean needMultiply = (mSpacingMult != 1 || mSpacingAdd != 0);
 
         // draw the lines one at a time
-        int lastLine = mLinesInfo.size() - 1;
-        for (int i = 0; i <= lastLine; i++) {
+        for (int i = firstLine; i <= lastLine; i++) {
+            if (i > firstLine && mLinesInfo.get(i - 1).top > clipRight) break;
             int start = mLinesInfo.get(i).startOffset;
-            int end;
-            if (i < lastLine) {
-                end = mLinesInfo.get(i + 1).startOffset;
-            } else {
-                end = mText.length();
-            }
+            int end = getKnownLineEnd(i);
 
             float gravityOffset = 0;
             if (mAlignment != Gravity.TOP) {
@@ -178,132 +217,306 @@ public class MongolLayout {
         MongolTextLine.recycle(tl);
     }
 
-    // TODO refactor this method. It's messy and hard to read.
-    @SuppressWarnings("SuspiciousNameCombination")
-    private void updateLines() {
+    // Makes sure that the lines are broken at least up to the horizontal position.
+    private void ensureLines(int horizontal) {
+        if (needsLineUpdate) startLineUpdate();
+        if (mLineBreaker != null) mLineBreaker.breakLines(horizontal, null);
+    }
+
+    /**
+     * Breaks all the lines like getWidth() does, but stops when the check says
+     * that the layout isn't needed anymore. The check is called every few dozen
+     * words. A stopped layout can still be used, it goes on from where it was.
+     *
+     * @return false if it was cancelled before all the lines were broken
+     */
+    boolean breakAllLines(CancellationCheck check) {
+        if (needsLineUpdate) startLineUpdate();
+        if (mLineBreaker != null) mLineBreaker.breakLines(Integer.MAX_VALUE, check);
+        return mLineBreaker == null;
+    }
+
+    // Breaks the rest of the lines if drawing only broke some of them.
+    private void finishLines() {
+        ensureLines(Integer.MAX_VALUE);
+    }
+
+    private void invalidateLines() {
+        needsLineUpdate = true;
+        mLineBreaker = null;
+    }
+
+    private void startLineUpdate() {
 
         needsLineUpdate = false;
+        mLineBreaker = null;
 
         if (mLinesInfo == null || mLinesInfo.size() > 0)
             mLinesInfo = new ArrayList<>();
 
         if (mText.length() == 0) {
-            int defaultHeight = mTextPaint.getFontMetricsInt().bottom - mTextPaint.getFontMetricsInt().top;
-            mLinesInfo.add(new LineInfo(0, defaultHeight, 0, 0));
+            mLinesInfo.add(new LineInfo(0, getDefaultLineHeightInt(), 0, 0));
             return;
         }
 
-        // XXX can we just use a char sequence? BreakIterator is the only thing that needs a String.
+        mLineBreaker = new LineBreaker();
+    }
 
-        BreakIterator boundary = BreakIterator.getLineInstance();
-        boundary.setText(mText.toString());
-        float extraSpacing;
-        int start = boundary.first();
-        int lineStart = start;
-        float measuredSum = 0;
-        RectF measuredSize;
-        int top = 0; // cumulative sum of line heights
-        float lineHeightMax = 0;
-        boolean hadToSplitWord = false;
-        MongolTextLine tl = MongolTextLine.obtain();
-        for (int end = boundary.next(); end != BreakIterator.DONE; ) {
+    private float getDefaultLineHeight() {
+        return mMeasurer.getBottom() - mMeasurer.getTop();
+    }
+
+    // the same rounding as Paint.FontMetricsInt
+    private int getDefaultLineHeightInt() {
+        if (mTextPaint != null) {
+            return mTextPaint.getCachedFontMetricsInt().bottom - mTextPaint.getCachedFontMetricsInt().top;
+        }
+        return (int) Math.ceil(mMeasurer.getBottom()) - (int) Math.floor(mMeasurer.getTop());
+    }
 
-            boolean forceNewLine = false;
-            if (mText.charAt(end - 1) == '\n') {
-                forceNewLine = true;
-                tl.set(mTextPaint, mText, start, end - 1);
+    private void setLine(MongolTextLine tl, int start, int end) {
+        if (mTextPaint != null) {
+            tl.set(mTextPaint, mText, start, end);
+        } else {
+            tl.set(mMeasurer, mText, start, end);
+        }
+    }
+
+    // the end of a line that has been broken, even if the following ones haven't been
+    private int getKnownLineEnd(int line) {
+        if (line < mLinesInfo.size() - 1) {
+            return mLinesInfo.get(line + 1).startOffset;
+        }
+        return (mLineBreaker != null) ? mLineBreaker.lineStart : mText.length();
+    }
+
+    // TODO refactor this class. It's messy and hard to read.
+    // The state of the line breaking is kept between calls so that the lines
+    // can be broken a few at a time.
+    private class LineBreaker {
+
+        private final BreakIterator boundary = BreakIterator.getLineInstance();
+        private int start;
+        private int end;
+        private int lineStart;
+        private float measuredSum = 0;
+        private int top = 0; // cumulative sum of line heights
+        private float lineHeightMax = 0;
+
+        LineBreaker() {
+            if (mText instanceof String) {
+                boundary.setText((String) mText);
             } else {
-                tl.set(mTextPaint, mText, start, end);
+                // Don't copy (or in lazy mode shape) the whole text just to find
+                // the line break opportunities.
+                boundary.setText(new CharSequenceIterator(mText));
             }
-            measuredSize = tl.measure();
+            start = boundary.first();
+            lineStart = start;
+            end = boundary.next();
+        }
 
-            if (Math.floor(measuredSize.width()) > mHeight) {
+        // breaks lines until the top of the last line is past the horizontal position
+        // or the check (if there is one) cancels it
+        void breakLines(int horizontal, CancellationCheck check) {
+            final long metricsStart = MongolMetrics.start(MongolMetrics.BREAK_LINES);
+            final int oldLineCount = mLinesInfo.size();
+            breakLinesUntil(horizontal, check);
+            MongolMetrics.count(MongolMetrics.LINES_BROKEN, mLinesInfo.size() - oldLineCount);
+            MongolMetrics.end(MongolMetrics.BREAK_LINES, metricsStart);
+        }
 
-                // add previously measured text as a new line
-                if (measuredSum > 0) {
-                    extraSpacing = getExtraSpacing(lineHeightMax);
-                    top += lineHeightMax + extraSpacing;
-                    mLinesInfo.add(new LineInfo(lineStart, top, measuredSum, extraSpacing));
-                    lineHeightMax = 0;
-                    measuredSum = 0;
+        @SuppressWarnings("SuspiciousNameCombination")
+        private void breakLinesUntil(int horizontal, CancellationCheck check) {
+
+            float extraSpacing;
+            float measuredWidth;
+            float measuredHeight;
+            boolean hadToSplitWord = false;
+            MongolTextLine tl = MongolTextLine.obtain();
+            int segments = 0;
+            while (end != BreakIterator.DONE && top <= horizontal) {
+                if (check != null && ++segments % SEGMENTS_PER_CANCELLATION_CHECK == 0
+                        && check.isCancelled()) {
+                    break;
                 }
 
-                // There were no natural line wrap boundaries shorter than the wrap height
-                // so we have to split the word unnaturally across lines.
-                lineStart = start;
-                float[] measuredWidth = new float[1];
-                // FIXME this doesn't handle spanned text, does it? Should add a breakText method to TextLine.
-                int charactersMeasured = mTextPaint.breakText(mText, lineStart, end, true, mHeight, measuredWidth);
-                if (charactersMeasured > 0) {
-                    extraSpacing = getExtraSpacing(measuredSize.height());
-                    top += measuredSize.height() + extraSpacing;
-                    mLinesInfo.add(new LineInfo(lineStart, top, measuredWidth[0], extraSpacing));
-                    lineStart += charactersMeasured;
+                boolean forceNewLine = false;
+                if (mText.charAt(end - 1) == '\n') {
+                    forceNewLine = true;
+                    setLine(tl, start, end - 1);
                 } else {
-                    // if mHeight is shorter than a single character then just add that char to the line
-                    extraSpacing = getExtraSpacing(measuredSize.height());
-                    mLinesInfo.add(new LineInfo(lineStart, mHeight, measuredSize.height(), extraSpacing));
-                    lineStart++;
+                    setLine(tl, start, end);
                 }
-                hadToSplitWord = true;
-
-            } else if (Math.floor(measuredSum + measuredSize.width()) > mHeight) {
-
-                extraSpacing = getExtraSpacing(lineHeightMax);
-                top += lineHeightMax + extraSpacing;
-                mLinesInfo.add(new LineInfo(lineStart, top, measuredSum, extraSpacing));
-                lineHeightMax = measuredSize.height();
-                lineStart = start;
-                measuredSum = measuredSize.width();
+                tl.measure();
+                measuredWidth = tl.getMeasuredWidth();
+                measuredHeight = tl.getMeasuredHeight();
+
+                if (Math.floor(measuredWidth) > mHeight) {
+
+                    // add previously measured text as a new line
+                    if (measuredSum > 0) {
+                        extraSpacing = getExtraSpacing(lineHeightMax);
+                        top += lineHeightMax + extraSpacing;
+                        mLinesInfo.add(new LineInfo(lineStart, top, measuredSum, extraSpacing));
+                        lineHeightMax = 0;
+                        measuredSum = 0;
+                    }
+
+                    // There were no natural line wrap boundaries shorter than the wrap height
+                    // so we have to split the word unnaturally across lines.
+                    lineStart = start;
+                    float[] splitWidth = new float[1];
+                    // FIXME this doesn't handle spanned text, does it? Should add a breakText method to TextLine.
+                    int charactersMeasured = mMeasurer.breakText(mText, lineStart, end, mHeight, splitWidth);
+                    if (charactersMeasured > 0) {
+                        extraSpacing = getExtraSpacing(measuredHeight);
+                        top += measuredHeight + extraSpacing;
+                        mLinesInfo.add(new LineInfo(lineStart, top, splitWidth[0], extraSpacing));
+                        lineStart += charactersMeasured;
+                    } else {
+                        // if mHeight is shorter than a single character then just add that char to the line
+                        extraSpacing = getExtraSpacing(measuredHeight);
+                        mLinesInfo.add(new LineInfo(lineStart, mHeight, measuredHeight, extraSpacing));
+                        lineStart++;
+                    }
+                    hadToSplitWord = true;
+
+                } else if (Math.floor(measuredSum + measuredWidth) > mHeight) {
 
-            } else {
-                measuredSum += measuredSize.width();
-                lineHeightMax = Math.max(lineHeightMax, measuredSize.height());
-            }
+                    extraSpacing = getExtraSpacing(lineHeightMax);
+                    top += lineHeightMax + extraSpacing;
+                    mLinesInfo.add(new LineInfo(lineStart, top, measuredSum, extraSpacing));
+                    lineHeightMax = measuredHeight;
+                    lineStart = start;
+                    measuredSum = measuredWidth;
 
-            // handle spaces at the end of split lines
-            // TODO still need to handle spaces at the end of normal lines. They shouldn't even be measured
-            if (hadToSplitWord) {
-                if (lineStart < mText.length() && mText.charAt(lineStart) == CHAR_SPACE) {
-                    // don't let a single trailing space make an empty blank next line
-                    lineStart++;
+                } else {
+                    measuredSum += measuredWidth;
+                    lineHeightMax = Math.max(lineHeightMax, measuredHeight);
                 }
-                start = lineStart;
-                if (start == end) {
+
+                // handle spaces at the end of split lines
+                // TODO still need to handle spaces at the end of normal lines. They shouldn't even be measured
+                if (hadToSplitWord) {
+                    if (lineStart < mText.length() && mText.charAt(lineStart) == CHAR_SPACE) {
+                        // don't let a single trailing space make an empty blank next line
+                        lineStart++;
+                    }
+                    start = lineStart;
+                    if (start == end) {
+                        end = boundary.next();
+                    }
+                    hadToSplitWord = false;
+                    forceNewLine = false;
+                } else {
+                    start = end;
                     end = boundary.next();
                 }
-                hadToSplitWord = false;
-                forceNewLine = false;
-            } else {
-                start = end;
-                end = boundary.next();
+
+                // handle new line characters
+                if (forceNewLine) {
+                    if (lineHeightMax == 0) {
+                        // using the standard line height
+                        // TODO should be using a different height if there is a span
+                        lineHeightMax = getDefaultLineHeight();
+                    }
+                    extraSpacing = getExtraSpacing(lineHeightMax);
+                    top += lineHeightMax + extraSpacing;
+                    mLinesInfo.add(new LineInfo(lineStart, top, measuredSum, extraSpacing));
+                    lineHeightMax = 0;
+                    measuredSum = 0;
+                    lineStart = start;
+                }
             }
+            MongolTextLine.recycle(tl);
+
+            if (end != BreakIterator.DONE) return;
 
-            // handle new line characters
-            if (forceNewLine) {
+            // add any last line info
+            if (measuredSum > 0 || (mText.length() > 0 && mText.charAt(mText.length() - 1) == '\n')) {
                 if (lineHeightMax == 0) {
                     // using the standard line height
                     // TODO should be using a different height if there is a span
-                    lineHeightMax = mTextPaint.getFontMetrics().bottom - mTextPaint.getFontMetrics().top;
+                    lineHeightMax = getDefaultLineHeight();
                 }
-                extraSpacing = getExtraSpacing(lineHeightMax);
-                top += lineHeightMax + extraSpacing;
-                mLinesInfo.add(new LineInfo(lineStart, top, measuredSum, extraSpacing));
-                lineHeightMax = 0;
-                measuredSum = 0;
-                lineStart = start;
+                top += lineHeightMax;
+                mLinesInfo.add(new LineInfo(lineStart, top, measuredSum, 0));
             }
+            mLineBreaker = null;
+        }
+    }
+
+    // lets BreakIterator read a CharSequence without copying it to a String
+    private static class CharSequenceIterator implements CharacterIterator {
+
+        private final CharSequence mText;
+        private int mIndex;
+
+        CharSequenceIterator(CharSequence text) {
+            mText = text;
         }
 
-        // add any last line info
-        if (measuredSum > 0 || (mText.length() > 0 && mText.charAt(mText.length() - 1) == '\n')) {
-            if (lineHeightMax == 0) {
-                // using the standard line height
-                // TODO should be using a different height if there is a span
-                lineHeightMax = mTextPaint.getFontMetrics().bottom - mTextPaint.getFontMetrics().top;
+        @Override
+        public char first() {
+            mIndex = 0;
+            return current();
+        }
+
+        @Override
+        public char last() {
+            mIndex = Math.max(0, mText.length() - 1);
+            return current();
+        }
+
+        @Override
+        public char current() {
+            return (mIndex < mText.length()) ? mText.charAt(mIndex) : DONE;
+        }
+
+        @Override
+        public char next() {
+            if (mIndex < mText.length()) mIndex++;
+            return current();
+        }
+
+        @Override
+        public char previous() {
+            if (mIndex == 0) return DONE;
+            mIndex--;
+            return current();
+        }
+
+        @Override
+        public char setIndex(int position) {
+            if (position < 0 || position > mText.length())
+                throw new IllegalArgumentException("Invalid index: " + position);
+            mIndex = position;
+            return current();
+        }
+
+        @Override
+        public int getBeginIndex() {
+            return 0;
+        }
+
+        @Override
+        public int getEndIndex() {
+            return mText.length();
+        }
+
+        @Override
+        public int getIndex() {
+            return mIndex;
+        }
+
+        @Override
+        public Object clone() {
+            try {
+                return super.clone();
+            } catch (CloneNotSupportedException e) {
+                throw new InternalError();
             }
-            top += lineHeightMax;
-            mLinesInfo.add(new LineInfo(lineStart, top, measuredSum, 0));
         }
     }
 
@@ -322,12 +535,22 @@ public class MongolLayout {
      * Call this if the height has not changed but something else like the font size has.
      */
     void reflowLines() {
-        needsLineUpdate = true;
+        invalidateLines();
     }
 
     public void setText(CharSequence text) {
         mText = text;
-        needsLineUpdate = true;
+        invalidateLines();
+    }
+
+    // Takes the lines from a layout that was made (for example on a background
+    // thread) for the same chars and spans, paint, height and line spacing.
+    void setText(CharSequence text, MongolLayout precomputed) {
+        precomputed.finishLines();
+        mText = text;
+        mLinesInfo = precomputed.mLinesInfo;
+        mLineBreaker = null;
+        needsLineUpdate = false;
     }
 
     public int getHeight() {
@@ -341,12 +564,12 @@ public class MongolLayout {
             mHeight = 0;
         } else {
             mHeight = height;
-            needsLineUpdate = true;
+            invalidateLines();
         }
     }
 
     public int getWidth() {
-        if (needsLineUpdate) updateLines();
+        finishLines();
         if (mLinesInfo == null || mLinesInfo.size() == 0) return 0;
         int lastLine = mLinesInfo.size() - 1;
         //noinspection SuspiciousNameCombination
@@ -375,33 +598,39 @@ public class MongolLayout {
 
     public final int getLineBottom(int line) {
         if (line <= 0) return 0;
+        finishLines();
         return mLinesInfo.get(line - 1).top;
     }
 
     public int getLineDescent(int line) {
         // TODO this should probably be based on the actual line
         // see http://stackoverflow.com/a/43691403
-        return mTextPaint.getFontMetricsInt().descent;
+        if (mTextPaint == null) return (int) Math.ceil(mMeasurer.getDescent());
+        return mTextPaint.getCachedFontMetricsInt().descent;
     }
 
     public int getLineTop(int line) {
+        finishLines();
         if (mLinesInfo == null || mLinesInfo.size() == 0) {
-            return mTextPaint.getFontMetricsInt().bottom - mTextPaint.getFontMetricsInt().top;
+            return getDefaultLineHeightInt();
         }
         return mLinesInfo.get(line).top;
     }
 
     public int getLineCount() {
+        finishLines();
         return mLinesInfo != null ? mLinesInfo.size() : 0;
         //return mLinesInfo.size();
     }
 
     public final int getLineStart(int line) {
+        finishLines();
         if (mLinesInfo == null || mLinesInfo.size() == 0) return 0;
         return mLinesInfo.get(line).startOffset;
     }
 
     public final int getLineEnd(int line) {
+        finishLines();
         if (mLinesInfo == null || mLinesInfo.size() == 0) return 0;
         if (line == mLinesInfo.size() - 1) {
             return mText.length();
@@ -434,6 +663,11 @@ public class MongolLayout {
     // If you ask for a position before 0, you get 0; if you ask for a position
     // to the right of the last line of the text, you get the last line.
     public int getLineForHorizontal(int horizontal) {
+        finishLines();
+        return findLineForHorizontal(horizontal);
+    }
+
+    private int findLineForHorizontal(int horizontal) {
         if (horizontal <= 0) return 0;
         if (mLinesInfo == null || mLinesInfo.size() == 0) return 0;
         final int lineCount = mLinesInfo.size();
@@ -461,7 +695,7 @@ public class MongolLayout {
         final int lineEndOffset = getLineEnd(line);
 
         MongolTextLine tl = MongolTextLine.obtain();
-        tl.set(mTextPaint, mText, lineStartOffset, lineEndOffset);
+        setLine(tl, lineStartOffset, lineEndOffset);
         int offset = tl.getOffsetForAdvance(vertical);
         MongolTextLine.recycle(tl);
 
@@ -483,13 +717,17 @@ public class MongolLayout {
         int start = getLineStart(line);
 
         MongolTextLine tl = MongolTextLine.obtain();
-        tl.set(mTextPaint, mText, start, offset);
-        float verticalLineHeight = tl.measure().width();
+        setLine(tl, start, offset);
+        tl.measure();
+        float verticalLineHeight = tl.getMeasuredWidth();
         MongolTextLine.recycle(tl);
 
         return verticalLineHeight;
     }
 
+    /**
+     * @return the paint, or null if the layout was made with a TextMeasurer
+     */
     public final TextPaint getPaint() {
         return mTextPaint;
     }
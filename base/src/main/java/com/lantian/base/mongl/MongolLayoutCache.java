@@ -0,0 +1,301 @@
+package com.lantian.base.mongl;
+
+// This is a process wide cache of shaped and measured text for MongolTextViews
+// that show the same short labels again and again, like the items of a
+// RecyclerView. It remembers
+//
+//     text -> glyph text
+//     (text, paint) -> desired size
+//     (text, paint, height) -> line breaks
+//
+// so that binding an item with a label that was seen before does not shape,
+// measure or lay out anything. Only plain (unspanned) text is cached. Each
+// height gets its own layout, so views of different heights don't evict each
+// other's lines. The size is counted in chars: every entry costs a fixed
+// overhead plus its text, and every layout costs a fixed overhead plus its
+// lines. Entries for the same paint settings share one copy of the paint.
+//
+// All methods can be called from any thread, so the cache can be prewarmed in
+// the background (see MongolTextView.prewarmLayoutCache).
+//
+// Usage:
+//
+//     mongolTextView.setLayoutCache(MongolLayoutCache.getInstance());
+
+import android.graphics.Rect;
+import android.util.LruCache;
+import android.view.Gravity;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MongolLayoutCache {
+
+    private static final int DEFAULT_MAX_CHARS = 64 * 1024;
+    // the approximate memory of an entry object, its key and the LruCache node, in chars
+    private static final int ENTRY_OVERHEAD = 64;
+    // the approximate memory of one line of a layout, in chars
+    private static final int LINE_SIZE = 16;
+    private static final int MAX_SHARED_PAINTS = 8;
+    private static final int NO_HEIGHT = -1; // the height in the keys of the entries
+
+    private static volatile MongolLayoutCache sInstance;
+
+    private final LruCache<String, String> mGlyphs;
+    private final LruCache<Key, Entry> mEntries;
+    private final LruCache<Key, MongolLayout> mLayouts;
+    private final List<TextPaintPlus> mPaints = new ArrayList<>(); // most recently used last
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    public static MongolLayoutCache getInstance() {
+        if (sInstance == null) {
+            synchronized (MongolLayoutCache.class) {
+                if (sInstance == null) {
+                    sInstance = new MongolLayoutCache(DEFAULT_MAX_CHARS);
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param maxChars the size of each of the three caches (glyph texts, measured
+     *                 texts and layouts) in chars, including a fixed overhead per
+     *                 entry and the lines of the layouts
+     */
+    public MongolLayoutCache(int maxChars) {
+        mGlyphs = new LruCache<String, String>(maxChars) {
+            @Override
+            protected int sizeOf(String key, String value) {
+                return ENTRY_OVERHEAD + 2 * key.length();
+            }
+        };
+        mEntries = new LruCache<Key, Entry>(maxChars) {
+            @Override
+            protected int sizeOf(Key key, Entry value) {
+                return ENTRY_OVERHEAD + key.text.length();
+            }
+        };
+        mLayouts = new LruCache<Key, MongolLayout>(maxChars) {
+            @Override
+            protected int sizeOf(Key key, MongolLayout value) {
+                return ENTRY_OVERHEAD + LINE_SIZE * value.getLineCount();
+            }
+        };
+    }
+
+    // The text with the paint, line spacing and (for layouts) height that change
+    // the measurements. The paint is a shared copy, see sharedPaint().
+    private static final class Key {
+        final String text;
+        final TextPaintPlus paint;
+        final float spacingMult;
+        final float spacingAdd;
+        final int height;   // NO_HEIGHT for the entries
+        final int hash;
+
+        Key(String text, TextPaintPlus paint, float spacingMult, float spacingAdd, int height) {
+            this.text = text;
+            this.paint = paint;
+            this.spacingMult = spacingMult;
+            this.spacingAdd = spacingAdd;
+            this.height = height;
+            int h = text.hashCode();
+            h = 31 * h + Float.floatToIntBits(paint.getTextSize());
+            h = 31 * h + ((paint.getTypeface() == null) ? 0 : paint.getTypeface().hashCode());
+            h = 31 * h + paint.getFlags();
+            h = 31 * h + Float.floatToIntBits(spacingMult);
+            h = 31 * h + Float.floatToIntBits(spacingAdd);
+            h = 31 * h + height;
+            this.hash = h;
+        }
+
+        Key withHeight(int height) {
+            return new Key(text, paint, spacingMult, spacingAdd, height);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return hash == other.hash
+                    && height == other.height
+                    && spacingMult == other.spacingMult
+                    && spacingAdd == other.spacingAdd
+                    && paint.equalsForLayout(other.paint)
+                    && text.equals(other.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+        final String glyphText;
+        final Rect desiredSize;     // without padding
+
+        Entry(String glyphText, Rect desiredSize) {
+            this.glyphText = glyphText;
+            this.desiredSize = desiredSize;
+        }
+    }
+
+    // Each of the three lookups counts one hit or miss. The helpers they share
+    // don't count, so a layout miss isn't also counted as an entry miss.
+
+    /**
+     * @return the rendered glyph text, shaping it if it isn't cached
+     */
+    String getGlyphText(String text) {
+        String glyphText = mGlyphs.get(text);
+        count(glyphText != null);
+        return (glyphText != null) ? glyphText : shape(text);
+    }
+
+    /**
+     * @return the size from MongolLayout.getDesiredSize() (don't modify it)
+     */
+    Rect getDesiredSize(String text, TextPaintPlus paint, float spacingMult, float spacingAdd) {
+        Key key = new Key(text, sharedPaint(paint), spacingMult, spacingAdd, NO_HEIGHT);
+        Entry entry = mEntries.get(key);
+        count(entry != null);
+        if (entry == null) {
+            entry = newEntry(key);
+        }
+        return entry.desiredSize;
+    }
+
+    /**
+     * @return a layout with all lines broken for the height
+     */
+    MongolLayout getLayout(String text, TextPaintPlus paint, int height,
+                           float spacingMult, float spacingAdd) {
+        Key key = new Key(text, sharedPaint(paint), spacingMult, spacingAdd, height);
+        MongolLayout layout = mLayouts.get(key);
+        count(layout != null);
+        return (layout != null) ? layout : newLayout(key, entryOf(key.withHeight(NO_HEIGHT)));
+    }
+
+    // The copy of the paint that the keys and layouts for these paint settings
+    // share. Only the last few paints are kept, an older one is copied again.
+    private TextPaintPlus sharedPaint(TextPaintPlus paint) {
+        synchronized (mPaints) {
+            for (int i = mPaints.size() - 1; i >= 0; i--) {
+                TextPaintPlus shared = mPaints.get(i);
+                if (shared.equalsForLayout(paint)) {
+                    if (i < mPaints.size() - 1) {
+                        mPaints.remove(i);
+                        mPaints.add(shared);
+                    }
+                    return shared;
+                }
+            }
+            TextPaintPlus copy = new TextPaintPlus();
+            copy.set(paint);
+            if (mPaints.size() == MAX_SHARED_PAINTS) mPaints.remove(0);
+            mPaints.add(copy);
+            return copy;
+        }
+    }
+
+    private String shape(String text) {
+        String glyphText = MongolCode.INSTANCE.unicodeToMenksoftSameIndex(text);
+        mGlyphs.put(text, glyphText);
+        return glyphText;
+    }
+
+    private Entry entryOf(Key key) {
+        Entry entry = mEntries.get(key);
+        return (entry != null) ? entry : newEntry(key);
+    }
+
+    private Entry newEntry(Key key) {
+        String glyphText = mGlyphs.get(key.text);
+        if (glyphText == null) {
+            glyphText = shape(key.text);
+        }
+        Rect desiredSize = MongolLayout.getDesiredSize(glyphText, 0, glyphText.length(), key.paint);
+        Entry entry = new Entry(glyphText, desiredSize);
+        mEntries.put(key, entry);
+        return entry;
+    }
+
+    // Two threads may lay out the same key at the same time, then the last one is kept.
+    private MongolLayout newLayout(Key key, Entry entry) {
+        MongolLayout layout = new MongolLayout(entry.glyphText, 0, entry.glyphText.length(),
+                key.paint, key.height, Gravity.TOP, key.spacingMult, key.spacingAdd, false,
+                Integer.MAX_VALUE);
+        layout.getWidth(); // breaks all the lines
+        mLayouts.put(key, layout);
+        return layout;
+    }
+
+    /**
+     * Shapes, measures and lays out the texts so that the views find them in the
+     * cache. Call this on a background thread.
+     *
+     * @param texts the labels that will be shown
+     * @param paint the paint of the views (it is copied)
+     * @param height the layout height of the views without padding, or 0 to use
+     *               the desired height of each text (like wrap_content)
+     */
+    public void prewarm(Collection<? extends CharSequence> texts, TextPaintPlus paint,
+                        int height, float spacingMult, float spacingAdd) {
+        final TextPaintPlus shared = sharedPaint(paint);
+        // not counted in the hit rate, the views haven't looked anything up yet
+        for (CharSequence text : texts) {
+            if (text == null) continue;
+            Key key = new Key(text.toString(), shared, spacingMult, spacingAdd, NO_HEIGHT);
+            Entry entry = entryOf(key);
+            Key layoutKey = key.withHeight((height > 0) ? height : entry.desiredSize.height());
+            if (mLayouts.get(layoutKey) == null) newLayout(layoutKey, entry);
+        }
+    }
+
+    private void count(boolean hit) {
+        if (hit) {
+            mHitCount.incrementAndGet();
+            MongolMetrics.count(MongolMetrics.CACHE_HITS, 1);
+        } else {
+            mMissCount.incrementAndGet();
+            MongolMetrics.count(MongolMetrics.CACHE_MISSES, 1);
+        }
+    }
+
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * @return hits / (hits + misses) of all lookups, or 0 if there were none
+     */
+    public float getHitRate() {
+        final long hits = mHitCount.get();
+        final long total = hits + mMissCount.get();
+        return (total == 0) ? 0 : (float) hits / total;
+    }
+
+    public void resetStats() {
+        mHitCount.set(0);
+        mMissCount.set(0);
+    }
+
+    public void evictAll() {
+        mGlyphs.evictAll();
+        mEntries.evictAll();
+        mLayouts.evictAll();
+        synchronized (mPaints) {
+            mPaints.clear();
+        }
+    }
+}
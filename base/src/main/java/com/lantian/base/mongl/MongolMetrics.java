@@ -0,0 +1,161 @@
+package com.lantian.base.mongl;
+
+// Timers and counters for the Mongolian text rendering pipeline, to find out
+// where the frame time goes. The timers record nanoseconds into lock-free
+// LatencyHistograms and the counters are atomic longs, so they can be updated
+// from any thread without locking. When metrics are disabled (the default)
+// every call is a single static boolean check.
+//
+// Usage:
+//
+//     MongolMetrics.setEnabled(true);
+//     MongolMetrics.setTraceEnabled(true); // optional systrace sections
+//     ...
+//     MongolMetrics.publish(); // to the sink, or to the log if there is none
+
+import android.os.Build;
+import android.os.Trace;
+
+import com.lantian.base.utils.LatencyHistogram;
+import com.lantian.base.utils.MetricsSink;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public final class MongolMetrics {
+
+    private static final String TAG = "MongolMetrics";
+
+    // timers
+    public static final int MEASURE = 0;
+    public static final int LAYOUT = 1;
+    public static final int DRAW = 2;
+    public static final int BREAK_LINES = 3;
+    public static final int DRAW_TEXT = 4;
+    public static final int SHAPE = 5;
+    private static final String[] TIMER_NAMES = {
+            "MongolTextView.onMeasure",
+            "MongolTextView.onLayout",
+            "MongolTextView.onDraw",
+            "MongolLayout.breakLines",
+            "MongolLayout.drawText",
+            "MongolCode.unicodeToMenksoftSameIndex"
+    };
+
+    // counters
+    public static final int LINES_BROKEN = 0;
+    public static final int RUNS_MEASURED = 1;
+    public static final int CHARS_SHAPED = 2;
+    public static final int CACHE_HITS = 3;
+    public static final int CACHE_MISSES = 4;
+    private static final String[] COUNTER_NAMES = {
+            "lines broken",
+            "runs measured",
+            "chars shaped",
+            "layout cache hits",
+            "layout cache misses"
+    };
+
+    // These are read on every call without synchronization. It doesn't matter
+    // if another thread sees a change a little later.
+    private static boolean sEnabled;
+    private static boolean sTraceEnabled;
+
+    private static final LatencyHistogram[] sTimers = new LatencyHistogram[TIMER_NAMES.length];
+    private static final AtomicLongArray sCounters = new AtomicLongArray(COUNTER_NAMES.length);
+    private static final MetricsSink LOG_SINK = new MetricsSink.LogSink(TAG);
+    private static volatile MetricsSink sSink;
+
+    static {
+        for (int i = 0; i < sTimers.length; i++) {
+            sTimers[i] = new LatencyHistogram();
+        }
+    }
+
+    private MongolMetrics() {
+        throw new UnsupportedOperationException("u can't instantiate me...");
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Also marks the timed sections with android.os.Trace so that they show up
+     * in systrace. This only has an effect while the metrics are enabled.
+     */
+    public static void setTraceEnabled(boolean enabled) {
+        sTraceEnabled = enabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+    }
+
+    /**
+     * @param sink where publish() sends the values (null logs them)
+     */
+    public static void setSink(MetricsSink sink) {
+        sSink = sink;
+    }
+
+    // The lowest bit of the start token says if start() began a trace section,
+    // so end() only ends the sections that were begun even if tracing is turned
+    // on or off in between. It costs one nanosecond of precision.
+    private static final long TRACED = 1;
+
+    /**
+     * @return the token to pass to end(), or 0 if metrics are disabled
+     */
+    static long start(int timer) {
+        if (!sEnabled) return 0;
+        final long nanos = System.nanoTime();
+        if (sTraceEnabled) {
+            Trace.beginSection(TIMER_NAMES[timer]);
+            return nanos | TRACED;
+        }
+        final long token = nanos & ~TRACED;
+        return (token == 0) ? 2 : token;
+    }
+
+    static void end(int timer, long token) {
+        if (token == 0) return;
+        sTimers[timer].record(System.nanoTime() - (token & ~TRACED));
+        if ((token & TRACED) != 0) Trace.endSection();
+    }
+
+    static void count(int counter, long amount) {
+        if (!sEnabled) return;
+        sCounters.addAndGet(counter, amount);
+    }
+
+    public static LatencyHistogram.Snapshot getTimer(int timer) {
+        return sTimers[timer].snapshot();
+    }
+
+    public static long getCounter(int counter) {
+        return sCounters.get(counter);
+    }
+
+    /**
+     * Sends the current values of all timers and counters to the sink.
+     */
+    public static void publish() {
+        MetricsSink sink = sSink;
+        if (sink == null) sink = LOG_SINK;
+        for (int i = 0; i < sTimers.length; i++) {
+            sink.onTimer(TIMER_NAMES[i], sTimers[i].snapshot());
+        }
+        for (int i = 0; i < COUNTER_NAMES.length; i++) {
+            sink.onCounter(COUNTER_NAMES[i], sCounters.get(i));
+        }
+    }
+
+    public static void reset() {
+        for (LatencyHistogram timer : sTimers) {
+            timer.reset();
+        }
+        for (int i = 0; i < COUNTER_NAMES.length; i++) {
+            sCounters.set(i, 0);
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.lantian.base.mongl;
+
+// This class records the character offset at the start of every page of a book
+// for one particular page geometry and font setting. With the index stored beside
+// the book a reader can jump straight to a saved position and only lay out the
+// pages around it instead of breaking lines from the beginning of the book.
+//
+// Offsets are Unicode indexes. MongolCode keeps the glyph text at the same index
+// as the Unicode text so they are valid for the glyph text too.
+//
+// An index may be partial while MongolPageIndexer is still building it. Only the
+// pages before getIndexedLength() are known in that case.
+//
+// The key holds a checksum of the text (see checksum()), so an index is not used
+// for a new edition of a book that happens to have the same length.
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import androidx.annotation.NonNull;
+
+public class MongolPageIndex {
+
+    private static final int FILE_MAGIC = 0x4D504958; // MPIX
+    private static final int FILE_VERSION = 3;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Key mKey;
+    private final int mTextLength;
+    private int[] mPageStarts;
+    private int mPageCount;
+    private int mIndexedLength; // end offset of the last known page
+
+    MongolPageIndex(Key key, int textLength) {
+        mKey = key;
+        mTextLength = textLength;
+        mPageStarts = new int[INITIAL_CAPACITY];
+        mPageCount = 0;
+        mIndexedLength = 0;
+    }
+
+    private MongolPageIndex(MongolPageIndex other) {
+        mKey = other.mKey;
+        mTextLength = other.mTextLength;
+        mPageStarts = Arrays.copyOf(other.mPageStarts, Math.max(other.mPageCount, 1));
+        mPageCount = other.mPageCount;
+        mIndexedLength = other.mIndexedLength;
+    }
+
+    // the page [start, end) is final and will not change anymore
+    void addPage(int start, int end) {
+        if (mPageCount == mPageStarts.length) {
+            mPageStarts = Arrays.copyOf(mPageStarts, mPageCount * 2);
+        }
+        mPageStarts[mPageCount++] = start;
+        mIndexedLength = end;
+    }
+
+    MongolPageIndex copy() {
+        return new MongolPageIndex(this);
+    }
+
+    public Key getKey() {
+        return mKey;
+    }
+
+    /**
+     * @return the length of the Unicode text that this index was built for
+     */
+    public int getTextLength() {
+        return mTextLength;
+    }
+
+    /**
+     * @return the number of known pages
+     */
+    public int getPageCount() {
+        return mPageCount;
+    }
+
+    /**
+     * @return all text before this offset has been paginated
+     */
+    public int getIndexedLength() {
+        return mIndexedLength;
+    }
+
+    public boolean isComplete() {
+        return mIndexedLength >= mTextLength;
+    }
+
+    public int getPageStart(int page) {
+        return mPageStarts[page];
+    }
+
+    public int getPageEnd(int page) {
+        return (page < mPageCount - 1) ? mPageStarts[page + 1] : mIndexedLength;
+    }
+
+    /**
+     * @param offset a Unicode offset in the book
+     * @return the page containing the offset or -1 if that part of the book has not
+     * been indexed yet
+     */
+    public int getPageForOffset(int offset) {
+        if (mPageCount == 0 || offset < 0) return -1;
+        if (offset >= mIndexedLength) {
+            return (isComplete() && offset == mTextLength) ? mPageCount - 1 : -1;
+        }
+        int high = mPageCount;
+        int low = -1;
+        int guess;
+        while (high - low > 1) {
+            guess = (high + low) >> 1;
+            if (mPageStarts[guess] > offset)
+                high = guess;
+            else
+                low = guess;
+        }
+        return (low < 0) ? 0 : low;
+    }
+
+    /**
+     * The window is the range of text that needs to be laid out to show the page
+     * containing offset and the given number of pages on each side of it.
+     *
+     * @param offset a Unicode offset in the book
+     * @param pagesAround number of neighbouring pages to include before and after
+     * @return the start of the window or -1 if the offset has not been indexed yet
+     */
+    public int getWindowStart(int offset, int pagesAround) {
+        final int page = getPageForOffset(offset);
+        if (page < 0) return -1;
+        return getPageStart(Math.max(0, page - pagesAround));
+    }
+
+    /**
+     * @see #getWindowStart(int, int)
+     * @return the end of the window or -1 if the offset has not been indexed yet
+     */
+    public int getWindowEnd(int offset, int pagesAround) {
+        final int page = getPageForOffset(offset);
+        if (page < 0) return -1;
+        return getPageEnd(Math.min(mPageCount - 1, page + pagesAround));
+    }
+
+    ////////////////////////////// persistence ///////////////////////////
+
+    // The page starts are written as variable length deltas. Most pages are a few
+    // hundred characters long so that is usually two bytes per page.
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(FILE_MAGIC);
+        out.writeInt(FILE_VERSION);
+        mKey.writeTo(out);
+        out.writeInt(mTextLength);
+        out.writeInt(mIndexedLength);
+        out.writeInt(mPageCount);
+        int previous = 0;
+        for (int i = 0; i < mPageCount; i++) {
+            writeVarInt(out, mPageStarts[i] - previous);
+            previous = mPageStarts[i];
+        }
+    }
+
+    // Returns null if the data does not belong to this key and text length or
+    // if it is corrupt. The page count is checked before anything is allocated,
+    // because a stored index may be loaded on the main thread.
+    static MongolPageIndex readFrom(DataInputStream in, Key key, int textLength) throws IOException {
+        if (in.readInt() != FILE_MAGIC) return null;
+        if (in.readInt() != FILE_VERSION) return null;
+        if (!key.equals(Key.readFrom(in))) return null;
+        if (in.readInt() != textLength) return null;
+        final int indexedLength = in.readInt();
+        final int pageCount = in.readInt();
+        if (indexedLength < 0 || indexedLength > textLength) return null;
+        // every page but the one of an empty text has at least one char
+        if (pageCount < 0 || pageCount > textLength + 1) return null;
+
+        MongolPageIndex index = new MongolPageIndex(key, textLength);
+        index.mPageStarts = new int[Math.max(pageCount, INITIAL_CAPACITY)];
+        int start = 0;
+        for (int i = 0; i < pageCount; i++) {
+            final int delta = readVarInt(in);
+            // the first page starts at 0, the others after the one before
+            if (delta < 0 || (delta == 0 && i > 0) || delta > indexedLength - start) return null;
+            start += delta;
+            index.mPageStarts[i] = start;
+        }
+        index.mPageCount = pageCount;
+        index.mIndexedLength = indexedLength;
+        return index;
+    }
+
+    /**
+     * The CRC32 of the UTF-16 chars of the text, for the textChecksum of a Key.
+     * This reads the whole text, so call it once when a book is opened or
+     * downloaded and not on every layout.
+     */
+    public static long checksum(CharSequence text) {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[8192];
+        final int length = text.length();
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = text.charAt(i);
+            buffer[count++] = (byte) (c >> 8);
+            buffer[count++] = (byte) c;
+            if (count == buffer.length) {
+                crc.update(buffer, 0, count);
+                count = 0;
+            }
+        }
+        crc.update(buffer, 0, count);
+        return crc.getValue();
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (shift > 28) throw new IOException("Varint too long");
+            b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Everything that affects where the pages break. An index is only valid for the
+     * key that it was built with.
+     */
+    public static final class Key {
+        final String bookId;
+        final long textChecksum; // checksum() of the Unicode text
+        final int pageWidth;     // px, the direction that vertical lines are added in
+        final int pageHeight;    // px, the length of a vertical line
+        final String fontName;   // e.g. MongolFont.QAGAN
+        final float textSize;    // px
+        final float spacingMult;
+        final float spacingAdd;
+
+        public Key(String bookId, long textChecksum, int pageWidth, int pageHeight,
+                   String fontName, float textSize, float spacingMult, float spacingAdd) {
+            if (bookId == null) throw new IllegalArgumentException("bookId == null");
+            this.bookId = bookId;
+            this.textChecksum = textChecksum;
+            this.pageWidth = pageWidth;
+            this.pageHeight = pageHeight;
+            this.fontName = (fontName == null) ? "" : fontName;
+            this.textSize = textSize;
+            this.spacingMult = spacingMult;
+            this.spacingAdd = spacingAdd;
+        }
+
+        public String getBookId() {
+            return bookId;
+        }
+
+        public long getTextChecksum() {
+            return textChecksum;
+        }
+
+        public int getPageWidth() {
+            return pageWidth;
+        }
+
+        public int getPageHeight() {
+            return pageHeight;
+        }
+
+        public String getFontName() {
+            return fontName;
+        }
+
+        public float getTextSize() {
+            return textSize;
+        }
+
+        /**
+         * @return this key with another text size and line spacing
+         */
+        public Key withLineSettings(float textSize, float spacingMult, float spacingAdd) {
+            return new Key(bookId, textChecksum, pageWidth, pageHeight, fontName,
+                    textSize, spacingMult, spacingAdd);
+        }
+
+        // All the fields are stored so that another key with the same hash code
+        // doesn't match.
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeUTF(bookId);
+            out.writeLong(textChecksum);
+            out.writeInt(pageWidth);
+            out.writeInt(pageHeight);
+            out.writeUTF(fontName);
+            out.writeFloat(textSize);
+            out.writeFloat(spacingMult);
+            out.writeFloat(spacingAdd);
+        }
+
+        static Key readFrom(DataInputStream in) throws IOException {
+            final String bookId = in.readUTF();
+            final long textChecksum = in.readLong();
+            final int pageWidth = in.readInt();
+            final int pageHeight = in.readInt();
+            final String fontName = in.readUTF();
+            final float textSize = in.readFloat();
+            final float spacingMult = in.readFloat();
+            final float spacingAdd = in.readFloat();
+            return new Key(bookId, textChecksum, pageWidth, pageHeight, fontName,
+                    textSize, spacingMult, spacingAdd);
+        }
+
+        // the name of the index file, unique enough for the book directory
+        public String getFileName() {
+            return bookId.hashCode() + "_" + Integer.toHexString(hashCode()) + ".pidx";
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return textChecksum == key.textChecksum
+                    && pageWidth == key.pageWidth
+                    && pageHeight == key.pageHeight
+                    && Float.compare(key.textSize, textSize) == 0
+                    && Float.compare(key.spacingMult, spacingMult) == 0
+                    && Float.compare(key.spacingAdd, spacingAdd) == 0
+                    && bookId.equals(key.bookId)
+                    && fontName.equals(key.fontName);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = bookId.hashCode();
+            result = 31 * result + (int) (textChecksum ^ (textChecksum >>> 32));
+            result = 31 * result + pageWidth;
+            result = 31 * result + pageHeight;
+            result = 31 * result + fontName.hashCode();
+            result = 31 * result + Float.floatToIntBits(textSize);
+            result = 31 * result + Float.floatToIntBits(spacingMult);
+            result = 31 * result + Float.floatToIntBits(spacingAdd);
+            return result;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return bookId + " " + pageWidth + "x" + pageHeight + " " + fontName + " " + textSize;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.lantian.base.mongl;
+
+// This class builds MongolPageIndexes on a background thread and keeps them in
+// a book directory. MongolPaginator lays out one block of paragraphs at a time
+// so a partial index can be saved and published while the rest of the book is
+// still being paginated. If the settings change, calling rebuild() with the
+// new key cancels the old job. A MongolTextView that the indexer is set on does
+// this by itself when its text size or line spacing changes. A build that was
+// interrupted continues from the partial index on disk the next time.
+//
+// Usage when opening a book at a saved offset:
+//
+//     MongolPageIndex.Key key = new MongolPageIndex.Key(bookId,
+//             MongolPageIndex.checksum(text), width, height, fontName, textSize, 1, 0);
+//     MongolPageIndex index = indexer.load(key, text.length());
+//     if (index != null && index.getPageForOffset(offset) >= 0) {
+//         int start = index.getWindowStart(offset, 1);
+//         int end = index.getWindowEnd(offset, 1);
+//         mongolTextView.setText(text.subSequence(start, end));
+//     }
+//     indexer.rebuild(text, key, paint, listener);
+//     mongolTextView.setPageIndexer(indexer);
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import com.lantian.base.utils.CloseUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class MongolPageIndexer {
+
+    private static final int BLOCKS_PER_SAVE = 8;
+
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, "MongolPageIndexer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final File mBookDir;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private Future<?> mTask;
+    private volatile int mGeneration;
+    // the arguments of the last rebuild, for onLineSettingsChanged()
+    private String mText;
+    private MongolPageIndex.Key mKey;
+    private OnIndexListener mListener;
+
+    public interface OnIndexListener {
+        // called on the main thread each time more pages are known
+        void onIndexUpdated(MongolPageIndex index);
+        // called on the main thread once the whole book has been paginated
+        void onIndexComplete(MongolPageIndex index);
+    }
+
+    /**
+     * @param bookDir the directory that the book is stored in
+     */
+    public MongolPageIndexer(File bookDir) {
+        mBookDir = bookDir;
+    }
+
+    /**
+     * Reads a stored index. This only reads a small file so it is ok to call on the
+     * main thread when opening a book.
+     *
+     * @param key the current page geometry and font settings
+     * @param textLength the length of the Unicode text of the book
+     * @return the stored (possibly partial) index or null if there is no valid one
+     */
+    public MongolPageIndex load(MongolPageIndex.Key key, int textLength) {
+        File file = new File(mBookDir, key.getFileName());
+        if (!file.exists()) return null;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            return MongolPageIndex.readFrom(in, key, textLength);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            CloseUtils.closeIOQuietly(in);
+        }
+    }
+
+    /**
+     * Builds the index for the key in the background, continuing from any partial
+     * index that was saved before. Any build that is still running is cancelled.
+     *
+     * @param unicodeText the whole book
+     * @param key the page geometry and font settings
+     * @param paint the paint that the book will be drawn with (it is copied)
+     * @param listener optional listener for progress
+     */
+    public void rebuild(final CharSequence unicodeText, final MongolPageIndex.Key key,
+                        TextPaintPlus paint, final OnIndexListener listener) {
+        cancel();
+        final int generation = mGeneration;
+        final TextPaintPlus workPaint = new TextPaintPlus();
+        workPaint.set(paint);
+        // a String is immutable so it is safe to read from another thread
+        final String text = unicodeText.toString();
+        mText = text;
+        mKey = key;
+        mListener = listener;
+        mTask = sExecutor.submit(() -> build(text, key, workPaint, listener, generation));
+    }
+
+    /**
+     * Rebuilds the last index for a new text size or line spacing. Nothing is
+     * done if rebuild() wasn't called yet or the settings are the same.
+     *
+     * @param paint the paint with the new text size (it is copied)
+     */
+    public void onLineSettingsChanged(TextPaintPlus paint, float spacingMult, float spacingAdd) {
+        if (mKey == null) return;
+        MongolPageIndex.Key key = mKey.withLineSettings(paint.getTextSize(), spacingMult, spacingAdd);
+        if (key.equals(mKey)) return;
+        rebuild(mText, key, paint, mListener);
+    }
+
+    /**
+     * Stops the current build. The pages that are finished so far are kept on disk.
+     */
+    public void cancel() {
+        mGeneration++;
+        if (mTask != null) {
+            mTask.cancel(false);
+            mTask = null;
+        }
+    }
+
+    private void build(String text, MongolPageIndex.Key key, TextPaintPlus paint,
+                       OnIndexListener listener, int generation) {
+
+        MongolPageIndex index = load(key, text.length());
+        if (index != null && index.isComplete()) {
+            publish(index, true, listener, generation);
+            return;
+        }
+        if (index == null) {
+            index = new MongolPageIndex(key, text.length());
+        }
+
+        MongolPaginator paginator = new MongolPaginator(index, text, null,
+                new PaintTextMeasurer(paint));
+        int blocks = 0;
+        while (paginator.nextBlock()) {
+            if (generation != mGeneration) {
+                save(index);
+                return;
+            }
+            if (++blocks % BLOCKS_PER_SAVE == 0) {
+                save(index);
+                publish(index.copy(), false, listener, generation);
+            }
+        }
+        save(index);
+        publish(index, true, listener, generation);
+    }
+
+    private void save(MongolPageIndex index) {
+        if (!mBookDir.exists() && !mBookDir.mkdirs()) return;
+        File file = new File(mBookDir, index.getKey().getFileName());
+        File tempFile = new File(mBookDir, file.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            index.writeTo(out);
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(file)) {
+                //noinspection ResultOfMethodCallIgnored
+                tempFile.delete();
+            }
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+        } finally {
+            CloseUtils.closeIOQuietly(out);
+        }
+    }
+
+    private void publish(final MongolPageIndex index, final boolean complete,
+                         final OnIndexListener listener, final int generation) {
+        if (listener == null) return;
+        mMainHandler.post(() -> {
+            if (generation != mGeneration) return;
+            if (complete) {
+                listener.onIndexComplete(index);
+            } else {
+                listener.onIndexUpdated(index);
+            }
+        });
+    }
+}
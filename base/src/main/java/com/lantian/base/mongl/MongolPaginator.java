@@ -0,0 +1,142 @@
+package com.lantian.base.mongl;
+
+// This class breaks a book into pages for a MongolPageIndex. The text is shaped
+// and laid out one block of paragraphs at a time, so the caller can stop after
+// any block and continue later from the partial index. MongolPageIndexer runs it
+// on the device with a paint, and it can also run without Android with the
+// advances from a font file (see TtfMetrics), for example to paginate a whole
+// catalogue on a server:
+//
+//     TextMeasurer measurer = TtfMetrics.read(fontFile).newMeasurer(key.getTextSize());
+//     MongolPageIndex index = MongolPaginator.paginate(key, text, null, measurer);
+//     index.writeTo(out);
+//
+// The text is laid out with the measurer so that spans, which a book doesn't
+// have anyway, never change the page breaks.
+
+public final class MongolPaginator {
+
+    // a block is at least this long and then extended to the end of the paragraph
+    private static final int MIN_BLOCK_LENGTH = 4 * 1024;
+    // paragraphs longer than this are split at a space
+    private static final int MAX_BLOCK_LENGTH = 64 * 1024;
+
+    private final MongolPageIndex mIndex;
+    private final TextMeasurer mMeasurer;
+    private final String mUnicodeText;
+    private final String mGlyphText;
+    private int mBlockStart;
+    private int mPageStart;
+    private int mPageUsed;
+
+    /**
+     * Continues from the end of the pages that the index already has.
+     *
+     * @param unicodeText the whole book
+     * @param glyphText the shaped book (see shape()) or null to shape each block
+     *                  when it is laid out
+     */
+    public MongolPaginator(MongolPageIndex index, String unicodeText, String glyphText,
+                           TextMeasurer measurer) {
+        if (glyphText != null && glyphText.length() != unicodeText.length()) {
+            throw new IllegalArgumentException("The glyph text must be shaped with the same indexes");
+        }
+        mIndex = index;
+        mMeasurer = measurer;
+        mUnicodeText = unicodeText;
+        mGlyphText = glyphText;
+        // Pages always start at a line start so the layout can continue from the
+        // end of the last known page.
+        mBlockStart = index.getIndexedLength();
+        mPageStart = mBlockStart;
+        mPageUsed = 0;
+    }
+
+    /**
+     * Paginates a whole book.
+     *
+     * @param glyphText the shaped book or null to shape it here
+     */
+    public static MongolPageIndex paginate(MongolPageIndex.Key key, String unicodeText,
+                                           String glyphText, TextMeasurer measurer) {
+        MongolPageIndex index = new MongolPageIndex(key, unicodeText.length());
+        MongolPaginator paginator = new MongolPaginator(index, unicodeText, glyphText, measurer);
+        //noinspection StatementWithEmptyBody
+        while (paginator.nextBlock()) {
+        }
+        return index;
+    }
+
+    /**
+     * Shapes a book once so that it can be paginated for several keys.
+     */
+    public static String shape(CharSequence unicodeText) {
+        return MongolCode.INSTANCE.unicodeToMenksoftSameIndex(unicodeText);
+    }
+
+    public MongolPageIndex getIndex() {
+        return mIndex;
+    }
+
+    /**
+     * Lays out the next block and adds the pages that are finished to the index.
+     *
+     * @return false when the whole book is paginated
+     */
+    public boolean nextBlock() {
+        final int textLength = mUnicodeText.length();
+        if (mBlockStart >= textLength) {
+            if (mPageStart < textLength || mIndex.getPageCount() == 0) {
+                mIndex.addPage(mPageStart, textLength);
+                mPageStart = textLength;
+            }
+            return false;
+        }
+        final int blockEnd = getBlockEnd(mUnicodeText, mBlockStart);
+        layoutBlock(mBlockStart, blockEnd);
+        mBlockStart = blockEnd;
+        return true;
+    }
+
+    // The line breaks of a paragraph do not depend on the text before it, so
+    // blocks that end after a new line char lay out the same as the whole text.
+    private static int getBlockEnd(String text, int blockStart) {
+        final int length = text.length();
+        if (length - blockStart <= MIN_BLOCK_LENGTH) return length;
+        final int limit = Math.min(length, blockStart + MAX_BLOCK_LENGTH);
+        final int newLine = text.indexOf('\n', blockStart + MIN_BLOCK_LENGTH);
+        if (newLine >= 0 && newLine < limit) return newLine + 1;
+        if (limit == length) return length;
+        final int space = text.lastIndexOf(' ', limit);
+        return (space > blockStart) ? space + 1 : limit;
+    }
+
+    private void layoutBlock(int blockStart, int blockEnd) {
+        final String glyphBlock = (mGlyphText != null)
+                ? mGlyphText.substring(blockStart, blockEnd)
+                : shape(mUnicodeText.subSequence(blockStart, blockEnd));
+        final int blockLength = glyphBlock.length();
+        final MongolPageIndex.Key key = mIndex.getKey();
+        MongolLayout layout = new MongolLayout(glyphBlock, mMeasurer, key.pageHeight,
+                key.spacingMult, key.spacingAdd);
+
+        final int lineCount = layout.getLineCount();
+        for (int line = 0; line < lineCount; line++) {
+            final int lineStart = layout.getLineStart(line);
+            // the empty line after a final new line char belongs to the next block
+            if (lineStart >= blockLength && blockEnd < mUnicodeText.length()) break;
+            final int lineWidth = layout.getLineTop(line) - layout.getLineBottom(line);
+            addLine(blockStart + lineStart, lineWidth);
+        }
+    }
+
+    // fills vertical lines into pages from left to right
+    private void addLine(int lineStart, int lineWidth) {
+        if (mPageUsed > 0 && mPageUsed + lineWidth > mIndex.getKey().pageWidth) {
+            mIndex.addPage(mPageStart, lineStart);
+            mPageStart = lineStart;
+            mPageUsed = 0;
+        }
+        mPageUsed += lineWidth;
+    }
+}
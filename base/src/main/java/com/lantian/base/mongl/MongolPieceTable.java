@@ -0,0 +1,463 @@
+package com.lantian.base.mongl;
+
+// This is an Editable that stores its text in a piece table instead of a gap
+// buffer. The original text is never copied or moved. Inserted text is appended
+// to an add buffer and the document is a sequence of pieces pointing into the
+// two buffers. The pieces are kept in a treap indexed by character position, so
+// an edit anywhere in the document is O(log pieces) instead of moving the gap
+// across the text. Spans are kept in a MongolSpanTree so that edits only touch
+// the spans around the edited range.
+//
+// Use it for long documents that are edited in many places, for example:
+//
+//     mongolTextView.setEditableFactory(MongolPieceTable.Factory.getInstance());
+//
+// Differences from SpannableStringBuilder: SpanWatchers and TextWatchers that
+// are set as spans are not notified. MongolTextStorage has its own listener.
+//
+// This class is not thread safe.
+
+import android.text.Editable;
+import android.text.GetChars;
+import android.text.InputFilter;
+import android.text.NoCopySpan;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+
+import java.util.Random;
+
+import androidx.annotation.NonNull;
+
+public class MongolPieceTable implements Editable {
+
+    private static final InputFilter[] NO_FILTERS = new InputFilter[0];
+    private static final int MIN_ADD_BUFFER_SIZE = 256;
+
+    private final char[] mOriginal;
+    private char[] mAdded;
+    private int mAddedLength;
+    private Piece mRoot;
+    private final MongolSpanTree mSpans = new MongolSpanTree();
+    private InputFilter[] mFilters = NO_FILTERS;
+    private final Random mRandom = new Random();
+
+    // the last piece found by charAt, for fast sequential access
+    private char[] mCursorBuffer;
+    private int mCursorStart = 0;
+    private int mCursorEnd = 0;
+    private int mCursorBufferStart;
+
+    // results of split()
+    private Piece mSplitLeft;
+    private Piece mSplitRight;
+
+    private static final class Piece {
+        boolean added;     // in the add buffer, otherwise the original buffer
+        int bufferStart;
+        int length;
+        int priority;
+        int size;          // number of chars in this subtree
+        int count;         // number of pieces in this subtree
+        Piece left;
+        Piece right;
+
+        Piece(boolean added, int bufferStart, int length, int priority) {
+            this.added = added;
+            this.bufferStart = bufferStart;
+            this.length = length;
+            this.priority = priority;
+            this.size = length;
+            this.count = 1;
+        }
+    }
+
+    public static class Factory extends Editable.Factory {
+        private static final Factory sInstance = new Factory();
+
+        public static Factory getInstance() {
+            return sInstance;
+        }
+
+        @Override
+        public Editable newEditable(CharSequence source) {
+            return new MongolPieceTable(source);
+        }
+    }
+
+    public MongolPieceTable(CharSequence text) {
+        if (text == null) text = "";
+        final int length = text.length();
+        mOriginal = new char[length];
+        getChars(text, 0, length, mOriginal, 0);
+        mAdded = new char[MIN_ADD_BUFFER_SIZE];
+        mAddedLength = 0;
+        mRoot = (length > 0) ? new Piece(false, 0, length, mRandom.nextInt()) : null;
+        if (text instanceof Spanned) {
+            copySpans((Spanned) text, 0, length, 0);
+        }
+    }
+
+    /**
+     * @return the number of pieces that the text is currently split into
+     */
+    public int getPieceCount() {
+        return (mRoot == null) ? 0 : mRoot.count;
+    }
+
+    ////////////////////////////// Editable interface methods ///////////////////////////
+
+    @Override
+    public Editable replace(int st, int en, CharSequence source, int start, int end) {
+        checkRange("replace", st, en);
+
+        for (InputFilter filter : mFilters) {
+            CharSequence replacement = filter.filter(source, start, end, this, st, en);
+            if (replacement != null) {
+                source = replacement;
+                start = 0;
+                end = replacement.length();
+            }
+        }
+
+        final int insertLength = end - start;
+        if (en == st && insertLength == 0) return this;
+
+        split(mRoot, en);
+        Piece after = mSplitRight;
+        split(mSplitLeft, st);
+        Piece before = mSplitLeft;
+        // mSplitRight is the removed text
+
+        Piece inserted = null;
+        if (insertLength > 0) {
+            ensureAddCapacity(insertLength);
+            getChars(source, start, end, mAdded, mAddedLength);
+            // typing at the end of the last insert grows that piece instead of adding one
+            if (!extendLast(before, mAddedLength, insertLength)) {
+                inserted = new Piece(true, mAddedLength, insertLength, mRandom.nextInt());
+            }
+            mAddedLength += insertLength;
+        }
+        mRoot = merge(merge(before, inserted), after);
+        mCursorEnd = 0; // invalidate the cursor
+
+        mSpans.replace(st, en, insertLength);
+        if (source instanceof Spanned) {
+            copySpans((Spanned) source, start, end, st);
+        }
+        return this;
+    }
+
+    @Override
+    public Editable replace(int st, int en, CharSequence text) {
+        return replace(st, en, text, 0, text.length());
+    }
+
+    @Override
+    public Editable insert(int where, CharSequence text, int start, int end) {
+        return replace(where, where, text, start, end);
+    }
+
+    @Override
+    public Editable insert(int where, CharSequence text) {
+        return replace(where, where, text, 0, text.length());
+    }
+
+    @Override
+    public Editable delete(int st, int en) {
+        return replace(st, en, "", 0, 0);
+    }
+
+    @NonNull
+    @Override
+    public Editable append(CharSequence text) {
+        final int length = length();
+        return replace(length, length, text, 0, text.length());
+    }
+
+    @NonNull
+    @Override
+    public Editable append(CharSequence text, int start, int end) {
+        final int length = length();
+        return replace(length, length, text, start, end);
+    }
+
+    @NonNull
+    @Override
+    public Editable append(char text) {
+        return append(String.valueOf(text));
+    }
+
+    @Override
+    public void clear() {
+        replace(0, length(), "", 0, 0);
+    }
+
+    @Override
+    public void clearSpans() {
+        mSpans.clear();
+    }
+
+    @Override
+    public void setFilters(InputFilter[] filters) {
+        if (filters == null) throw new IllegalArgumentException();
+        mFilters = filters;
+    }
+
+    @Override
+    public InputFilter[] getFilters() {
+        return mFilters;
+    }
+
+    @Override
+    public void getChars(int start, int end, char[] dest, int destoff) {
+        checkRange("getChars", start, end);
+        copyChars(mRoot, 0, start, end, dest, destoff);
+    }
+
+    @Override
+    public void setSpan(Object what, int start, int end, int flags) {
+        checkRange("setSpan", start, end);
+        mSpans.setSpan(what, start, end, flags);
+    }
+
+    @Override
+    public void removeSpan(Object what) {
+        mSpans.removeSpan(what);
+    }
+
+    @Override
+    public <T> T[] getSpans(int start, int end, Class<T> type) {
+        return mSpans.getSpans(start, end, type);
+    }
+
+    @Override
+    public int getSpanStart(Object tag) {
+        return mSpans.getSpanStart(tag);
+    }
+
+    @Override
+    public int getSpanEnd(Object tag) {
+        return mSpans.getSpanEnd(tag);
+    }
+
+    @Override
+    public int getSpanFlags(Object tag) {
+        return mSpans.getSpanFlags(tag);
+    }
+
+    @Override
+    public int nextSpanTransition(int start, int limit, Class type) {
+        return mSpans.nextSpanTransition(start, limit, type);
+    }
+
+    @Override
+    public int length() {
+        return size(mRoot);
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < mCursorStart || index >= mCursorEnd) {
+            if (index < 0 || index >= length()) {
+                throw new IndexOutOfBoundsException("charAt: " + index + " of " + length());
+            }
+            moveCursor(index);
+        }
+        return mCursorBuffer[mCursorBufferStart + index - mCursorStart];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        checkRange("subSequence", start, end);
+        char[] chars = new char[end - start];
+        copyChars(mRoot, 0, start, end, chars, 0);
+        SpannableStringBuilder result = new SpannableStringBuilder(new String(chars));
+        for (Object span : mSpans.getSpans(start, end, Object.class)) {
+            final int flags = mSpans.getSpanFlags(span);
+            int spanStart = mSpans.getSpanStart(span);
+            int spanEnd = mSpans.getSpanEnd(span);
+            final boolean clipped = spanStart < start || spanEnd > end;
+            if (clipped && (flags & Spanned.SPAN_POINT_MARK_MASK) == Spanned.SPAN_PARAGRAPH) continue;
+            spanStart = Math.max(spanStart, start) - start;
+            spanEnd = Math.min(spanEnd, end) - start;
+            result.setSpan(span, spanStart, spanEnd, flags);
+        }
+        return result;
+    }
+
+    @Override
+    @NonNull
+    public String toString() {
+        final int length = length();
+        char[] chars = new char[length];
+        copyChars(mRoot, 0, 0, length, chars, 0);
+        return new String(chars);
+    }
+
+    ////////////////////////////// helpers ///////////////////////////
+
+    private void checkRange(final String operation, int start, int end) {
+        if (end < start) {
+            throw new IndexOutOfBoundsException(operation + " " + start + " ... " + end
+                    + " has end before start");
+        }
+        final int length = length();
+        if (start < 0 || end > length) {
+            throw new IndexOutOfBoundsException(operation + " " + start + " ... " + end
+                    + " is out of bounds for length " + length);
+        }
+    }
+
+    // Same as TextUtils.getChars(), without the framework so that the piece
+    // table can be tested on the JVM.
+    private static void getChars(CharSequence source, int start, int end, char[] dest, int destoff) {
+        if (source instanceof String) {
+            ((String) source).getChars(start, end, dest, destoff);
+        } else if (source instanceof StringBuilder) {
+            ((StringBuilder) source).getChars(start, end, dest, destoff);
+        } else if (source instanceof GetChars) {
+            ((GetChars) source).getChars(start, end, dest, destoff);
+        } else {
+            for (int i = start; i < end; i++) {
+                dest[destoff++] = source.charAt(i);
+            }
+        }
+    }
+
+    private void copySpans(Spanned source, int start, int end, int destOffset) {
+        Object[] spans = source.getSpans(start, end, Object.class);
+        for (Object span : spans) {
+            if (span instanceof NoCopySpan) continue;
+            int spanStart = Math.max(source.getSpanStart(span), start) - start + destOffset;
+            int spanEnd = Math.min(source.getSpanEnd(span), end) - start + destOffset;
+            mSpans.setSpan(span, spanStart, spanEnd, source.getSpanFlags(span));
+        }
+    }
+
+    private void ensureAddCapacity(int extra) {
+        final int needed = mAddedLength + extra;
+        if (needed <= mAdded.length) return;
+        int newSize = Math.max(mAdded.length * 2, MIN_ADD_BUFFER_SIZE);
+        while (newSize < needed) newSize *= 2;
+        char[] newBuffer = new char[newSize];
+        System.arraycopy(mAdded, 0, newBuffer, 0, mAddedLength);
+        mAdded = newBuffer;
+    }
+
+    private char[] bufferOf(Piece piece) {
+        return piece.added ? mAdded : mOriginal;
+    }
+
+    private void moveCursor(int index) {
+        Piece node = mRoot;
+        int nodeOffset = 0; // text offset of the subtree
+        while (node != null) {
+            final int leftSize = size(node.left);
+            final int pieceStart = nodeOffset + leftSize;
+            if (index < pieceStart) {
+                node = node.left;
+            } else if (index >= pieceStart + node.length) {
+                nodeOffset = pieceStart + node.length;
+                node = node.right;
+            } else {
+                mCursorBuffer = bufferOf(node);
+                mCursorBufferStart = node.bufferStart;
+                mCursorStart = pieceStart;
+                mCursorEnd = pieceStart + node.length;
+                return;
+            }
+        }
+    }
+
+    // copies the part of [start, end) that is in this subtree
+    private void copyChars(Piece node, int nodeOffset, int start, int end, char[] dest, int destoff) {
+        while (node != null) {
+            final int pieceStart = nodeOffset + size(node.left);
+            final int pieceEnd = pieceStart + node.length;
+            if (start < pieceStart) {
+                copyChars(node.left, nodeOffset, start, end, dest, destoff);
+            }
+            if (start < pieceEnd && end > pieceStart) {
+                final int from = Math.max(start, pieceStart);
+                final int to = Math.min(end, pieceEnd);
+                System.arraycopy(bufferOf(node), node.bufferStart + from - pieceStart,
+                        dest, destoff + from - start, to - from);
+            }
+            if (end <= pieceEnd) return;
+            nodeOffset = pieceEnd;
+            node = node.right;
+        }
+    }
+
+    private static int size(Piece piece) {
+        return (piece == null) ? 0 : piece.size;
+    }
+
+    private static void update(Piece piece) {
+        piece.size = piece.length + size(piece.left) + size(piece.right);
+        piece.count = 1 + ((piece.left == null) ? 0 : piece.left.count)
+                + ((piece.right == null) ? 0 : piece.right.count);
+    }
+
+    // grows the last piece of the subtree if it ends where the add buffer ends
+    private static boolean extendLast(Piece node, int addedEnd, int length) {
+        if (node == null) return false;
+        if (node.right != null) {
+            if (!extendLast(node.right, addedEnd, length)) return false;
+        } else if (node.added && node.bufferStart + node.length == addedEnd) {
+            node.length += length;
+        } else {
+            return false;
+        }
+        update(node);
+        return true;
+    }
+
+    // splits into the text before position and the text after it
+    private void split(Piece node, int position) {
+        if (node == null) {
+            mSplitLeft = null;
+            mSplitRight = null;
+            return;
+        }
+        final int leftSize = size(node.left);
+        if (position <= leftSize) {
+            split(node.left, position);
+            node.left = mSplitRight;
+            update(node);
+            mSplitRight = node;
+        } else if (position >= leftSize + node.length) {
+            split(node.right, position - leftSize - node.length);
+            node.right = mSplitLeft;
+            update(node);
+            mSplitLeft = node;
+        } else {
+            // the position is inside this piece so cut it in two
+            final int headLength = position - leftSize;
+            Piece tail = new Piece(node.added, node.bufferStart + headLength,
+                    node.length - headLength, node.priority);
+            tail.right = node.right;
+            node.right = null;
+            node.length = headLength;
+            update(tail);
+            update(node);
+            mSplitLeft = node;
+            mSplitRight = tail;
+        }
+    }
+
+    private static Piece merge(Piece a, Piece b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            update(a);
+            return a;
+        } else {
+            b.left = merge(a, b.left);
+            update(b);
+            return b;
+        }
+    }
+}
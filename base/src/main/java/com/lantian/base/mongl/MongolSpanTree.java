@@ -0,0 +1,357 @@
+package com.lantian.base.mongl;
+
+// This class stores the spans of a text in an interval tree so that range
+// queries and span transitions don't have to look at every span. It is a treap
+// ordered by span start where every node also knows the largest span end in its
+// subtree. Text edits shift all the spans after the edit with a single lazy
+// delta, so only the spans that touch the edited range are visited.
+//
+// The flag and getSpans() semantics follow SpannableStringBuilder.
+//
+// This class is not thread safe.
+
+import android.text.Spanned;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+
+final class MongolSpanTree {
+
+    private static final int START_MASK = 0xF0;
+    private static final int END_MASK = 0x0F;
+    private static final int START_SHIFT = 4;
+    private static final int MARK = 1;
+    private static final int POINT = 2;
+    private static final int PARAGRAPH = 3;
+
+    private static final Comparator<Node> SPAN_ORDER = (a, b) -> {
+        // higher priority first, then in the order that they were added
+        final int pa = a.flags & Spanned.SPAN_PRIORITY;
+        final int pb = b.flags & Spanned.SPAN_PRIORITY;
+        if (pa != pb) return pa > pb ? -1 : 1;
+        return Long.compare(a.order, b.order);
+    };
+
+    private final IdentityHashMap<Object, Node> mNodes = new IdentityHashMap<>();
+    private final Random mRandom = new Random();
+    private final List<Node> mScratch = new ArrayList<>();
+    private Node mRoot;
+    private long mNextOrder;
+
+    // results of split()
+    private Node mSplitLeft;
+    private Node mSplitRight;
+
+    private static final class Node {
+        Object what;
+        int start;
+        int end;
+        int flags;
+        long order;
+        int priority;
+        // The values of a node are correct except for the pending deltas of its
+        // ancestors. delta is a shift that still has to be applied to the children.
+        int maxEnd;
+        int delta;
+        Node left;
+        Node right;
+        Node parent;
+    }
+
+    int size() {
+        return mNodes.size();
+    }
+
+    boolean contains(Object what) {
+        return mNodes.containsKey(what);
+    }
+
+    void setSpan(Object what, int start, int end, int flags) {
+        Node node = mNodes.get(what);
+        if (node != null) {
+            remove(node);
+        } else {
+            node = new Node();
+            node.what = what;
+            node.order = mNextOrder++;
+            node.priority = mRandom.nextInt();
+            mNodes.put(what, node);
+        }
+        node.start = start;
+        node.end = end;
+        node.flags = flags;
+        insert(node);
+    }
+
+    void removeSpan(Object what) {
+        Node node = mNodes.remove(what);
+        if (node != null) remove(node);
+    }
+
+    void clear() {
+        mNodes.clear();
+        mRoot = null;
+    }
+
+    int getSpanStart(Object what) {
+        Node node = mNodes.get(what);
+        return (node == null) ? -1 : node.start + pendingDelta(node);
+    }
+
+    int getSpanEnd(Object what) {
+        Node node = mNodes.get(what);
+        return (node == null) ? -1 : node.end + pendingDelta(node);
+    }
+
+    int getSpanFlags(Object what) {
+        Node node = mNodes.get(what);
+        return (node == null) ? 0 : node.flags;
+    }
+
+    /**
+     * Same as Spanned.getSpans()
+     */
+    @SuppressWarnings("unchecked")
+    <T> T[] getSpans(int queryStart, int queryEnd, Class<T> kind) {
+        List<Node> found = mScratch;
+        found.clear();
+        collect(mRoot, queryStart, queryEnd, found);
+
+        int count = 0;
+        for (int i = 0; i < found.size(); i++) {
+            final Node node = found.get(i);
+            if (kind != null && kind != Object.class && !kind.isInstance(node.what)) continue;
+            if (node.start != node.end && queryStart != queryEnd) {
+                if (node.start == queryEnd || node.end == queryStart) continue;
+            }
+            found.set(count++, node);
+        }
+
+        final Class<?> componentType = (kind == null) ? Object.class : kind;
+        T[] result = (T[]) Array.newInstance(componentType, count);
+        if (count == 0) {
+            found.clear();
+            return result;
+        }
+        Node[] sorted = found.subList(0, count).toArray(new Node[count]);
+        found.clear();
+        Arrays.sort(sorted, SPAN_ORDER);
+        for (int i = 0; i < count; i++) {
+            result[i] = (T) sorted[i].what;
+        }
+        return result;
+    }
+
+    /**
+     * Same as Spanned.nextSpanTransition()
+     */
+    int nextSpanTransition(int start, int limit, Class kind) {
+        List<Node> found = mScratch;
+        found.clear();
+        collect(mRoot, start, limit, found);
+        for (int i = 0; i < found.size(); i++) {
+            final Node node = found.get(i);
+            if (kind != null && kind != Object.class && !kind.isInstance(node.what)) continue;
+            if (node.start > start && node.start < limit) limit = node.start;
+            if (node.end > start && node.end < limit) limit = node.end;
+        }
+        found.clear();
+        return limit;
+    }
+
+    /**
+     * Updates the span positions after the text in [st, en) was replaced with
+     * insertLength chars.
+     */
+    void replace(int st, int en, int insertLength) {
+        if (mRoot == null) return;
+        final int delta = insertLength - (en - st);
+        final boolean textIsRemoved = en > st;
+
+        // spans touching the replaced range are moved one by one
+        List<Node> touched = new ArrayList<>();
+        collect(mRoot, st, en, touched);
+        for (Node node : touched) {
+            remove(node);
+        }
+
+        // spans after the replaced range are all shifted together
+        if (delta != 0 && mRoot != null) {
+            split(mRoot, en);
+            Node left = mSplitLeft;
+            Node right = mSplitRight;
+            if (right != null) {
+                right.start += delta;
+                right.end += delta;
+                right.maxEnd += delta;
+                right.delta += delta;
+            }
+            mRoot = merge(left, right);
+            if (mRoot != null) mRoot.parent = null;
+        }
+
+        for (Node node : touched) {
+            final boolean wasEmpty = node.start == node.end;
+            final int startType = (node.flags & START_MASK) >> START_SHIFT;
+            final int endType = node.flags & END_MASK;
+            node.start = moveOffset(node.start, st, en, insertLength, startType == POINT, textIsRemoved);
+            node.end = moveOffset(node.end, st, en, insertLength,
+                    endType == POINT || endType == PARAGRAPH, textIsRemoved);
+            if (node.end < node.start) node.end = node.start;
+
+            if (!wasEmpty && node.start == node.end && textIsRemoved
+                    && (node.flags & Spanned.SPAN_POINT_MARK_MASK) == Spanned.SPAN_EXCLUSIVE_EXCLUSIVE) {
+                mNodes.remove(node.what);
+                continue;
+            }
+            insert(node);
+        }
+    }
+
+    private static int moveOffset(int offset, int st, int en, int insertLength,
+                                  boolean isPoint, boolean textIsRemoved) {
+        if (offset < st) return offset;
+        if (offset > en) return offset + insertLength - (en - st);
+        if (isPoint) {
+            // a point at the start of a replaced range stays there
+            return (offset == st && textIsRemoved) ? st : st + insertLength;
+        }
+        // a mark at the end of a replaced range stays at the end of the new text
+        return (offset == en && textIsRemoved) ? st + insertLength : st;
+    }
+
+    ////////////////////////////// treap ///////////////////////////
+
+    private static int maxEnd(Node node) {
+        return (node == null) ? Integer.MIN_VALUE : node.maxEnd;
+    }
+
+    private static void push(Node node) {
+        final int d = node.delta;
+        if (d == 0) return;
+        shift(node.left, d);
+        shift(node.right, d);
+        node.delta = 0;
+    }
+
+    private static void shift(Node node, int d) {
+        if (node == null) return;
+        node.start += d;
+        node.end += d;
+        node.maxEnd += d;
+        node.delta += d;
+    }
+
+    private static void update(Node node) {
+        node.maxEnd = Math.max(node.end, Math.max(maxEnd(node.left), maxEnd(node.right)));
+        if (node.left != null) node.left.parent = node;
+        if (node.right != null) node.right.parent = node;
+    }
+
+    private static int pendingDelta(Node node) {
+        int sum = 0;
+        for (Node p = node.parent; p != null; p = p.parent) {
+            sum += p.delta;
+        }
+        return sum;
+    }
+
+    // collects all spans with start <= queryEnd and end >= queryStart
+    private static void collect(Node node, int queryStart, int queryEnd, List<Node> out) {
+        while (node != null && node.maxEnd >= queryStart) {
+            push(node);
+            collect(node.left, queryStart, queryEnd, out);
+            if (node.start > queryEnd) return;
+            if (node.end >= queryStart) out.add(node);
+            node = node.right;
+        }
+    }
+
+    // splits into spans with start <= key and spans with start > key
+    private void split(Node node, int key) {
+        if (node == null) {
+            mSplitLeft = null;
+            mSplitRight = null;
+            return;
+        }
+        push(node);
+        if (node.start <= key) {
+            split(node.right, key);
+            node.right = mSplitLeft;
+            update(node);
+            node.parent = null;
+            mSplitLeft = node;
+        } else {
+            split(node.left, key);
+            node.left = mSplitRight;
+            update(node);
+            node.parent = null;
+            mSplitRight = node;
+        }
+    }
+
+    private static Node merge(Node a, Node b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        if (a.priority > b.priority) {
+            push(a);
+            a.right = merge(a.right, b);
+            update(a);
+            return a;
+        } else {
+            push(b);
+            b.left = merge(a, b.left);
+            update(b);
+            return b;
+        }
+    }
+
+    private void insert(Node node) {
+        node.left = null;
+        node.right = null;
+        node.parent = null;
+        node.delta = 0;
+        node.maxEnd = node.end;
+        split(mRoot, node.start);
+        Node right = mSplitRight;
+        mRoot = merge(merge(mSplitLeft, node), right);
+        mRoot.parent = null;
+    }
+
+    private void remove(Node node) {
+        // apply the pending deltas from the root down to the node
+        List<Node> path = new ArrayList<>();
+        for (Node p = node.parent; p != null; p = p.parent) {
+            path.add(p);
+        }
+        for (int i = path.size() - 1; i >= 0; i--) {
+            push(path.get(i));
+        }
+        push(node);
+
+        Node parent = node.parent;
+        Node replacement = merge(node.left, node.right);
+        if (parent == null) {
+            mRoot = replacement;
+            if (mRoot != null) mRoot.parent = null;
+        } else {
+            if (parent.left == node) {
+                parent.left = replacement;
+            } else {
+                parent.right = replacement;
+            }
+            if (replacement != null) replacement.parent = parent;
+            for (Node p = parent; p != null; p = p.parent) {
+                p.maxEnd = Math.max(p.end, Math.max(maxEnd(p.left), maxEnd(p.right)));
+            }
+        }
+        node.left = null;
+        node.right = null;
+        node.parent = null;
+    }
+}
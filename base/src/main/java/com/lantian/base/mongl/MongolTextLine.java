@@ -4,7 +4,6 @@ package com.lantian.base.mongl;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.RectF;
 import android.text.Spanned;
 import android.text.style.CharacterStyle;
 import android.text.style.MetricAffectingSpan;
@@ -35,13 +34,18 @@ class MongolTextLine {
     private static final int UNICODE_EMOJI_START = 0x1F000;
 
     private TextPaintPlus mPaint;
+    private TextMeasurer mMeasurer; // instead of the paint when there is no Android
     private CharSequence mText;
     private List<TextRun> mTextRuns;
+    private float mMeasuredWidth;
+    private float mMeasuredHeight;
 
-    // XXX is having a static variable a bad idea here?
     // The purpose of the work paint is to avoid modifying paint
     // variables being passed in while measuring spanned text.
-    private static final TextPaintPlus sWorkPaint = new TextPaintPlus();
+    // Each instance has its own so that text can also be laid out on a
+    // background thread (see MongolTextView.setTextAsync). It is only
+    // created when needed because a Paint can't be created off the device.
+    private TextPaintPlus mWorkPaint;
 
     // A text run is a substring of text within the text line. The substring is made up of
     //     (1) a single emoji or CJK character,
@@ -55,6 +59,7 @@ class MongolTextLine {
         boolean isRotated;      // whether run is emoji or CJK (and thus should be rotated)
         float measuredWidth;    // horizontal line orientation (but height of emoji/CJK)
         float measuredHeight;   // horizontal line orientation (but width of emoji/CJK)
+        CharacterStyle[] spans; // styles covering the run (null if the text is not spanned)
 
         TextRun(int offset, int length, boolean isRotated, boolean isSpanned) {
 
@@ -62,14 +67,21 @@ class MongolTextLine {
             this.length = length;
             this.isRotated = isRotated;
 
+            MongolMetrics.count(MongolMetrics.RUNS_MEASURED, 1);
+
+            if (mPaint == null) {
+                measuredWidth = mMeasurer.measureText(mText, offset, offset + length);
+                measuredHeight = mMeasurer.getBottom() - mMeasurer.getTop();
+                return;
+            }
+
             TextPaintPlus wp;
             if (isSpanned) {
-                wp = sWorkPaint;
+                // The spans are only looked up once here. Drawing reuses them.
+                spans = ((Spanned) mText).getSpans(offset, offset + length, CharacterStyle.class);
+                wp = getWorkPaint();
                 wp.set(mPaint);
-                MetricAffectingSpan[] spans = ((Spanned) mText).getSpans(offset, offset + length, MetricAffectingSpan.class);
-                for (MetricAffectingSpan span : spans) {
-                    span.updateDrawState(wp);
-                }
+                applyMetricAffectingSpans(spans, wp);
             } else {
                 wp = mPaint;
             }
@@ -77,7 +89,21 @@ class MongolTextLine {
             // just record the normal non-rotated values here
             // measure and draw will take rotation into account
             measuredWidth = wp.measureText(mText, offset, offset + length);
-            measuredHeight = wp.getFontMetrics().bottom - wp.getFontMetrics().top;
+            Paint.FontMetrics fontMetrics = wp.getCachedFontMetrics();
+            measuredHeight = fontMetrics.bottom - fontMetrics.top;
+        }
+    }
+
+    private TextPaintPlus getWorkPaint() {
+        if (mWorkPaint == null) mWorkPaint = new TextPaintPlus();
+        return mWorkPaint;
+    }
+
+    private static void applyMetricAffectingSpans(CharacterStyle[] spans, TextPaintPlus wp) {
+        for (CharacterStyle span : spans) {
+            if (span instanceof MetricAffectingSpan) {
+                span.updateDrawState(wp);
+            }
         }
     }
 
@@ -102,6 +128,7 @@ class MongolTextLine {
     static void recycle(MongolTextLine tl) {
         tl.mText = null;
         tl.mPaint = null;
+        tl.mMeasurer = null;
         tl.mTextRuns = null;
         synchronized (sCached) {
             for (int i = 0; i < sCached.length; ++i) {
@@ -111,15 +138,25 @@ class MongolTextLine {
                 }
             }
         }
-        // XXX do we need to do something with sWorkPaint here?
     }
 
 
     void set(TextPaintPlus paint, CharSequence text, int start, int end) {
+        mPaint = paint;
+        mMeasurer = null;
+        setRuns(text, start, end, text instanceof Spanned);
+    }
+
+    // Spans are ignored and the line can be measured but not drawn.
+    void set(TextMeasurer measurer, CharSequence text, int start, int end) {
+        mPaint = null;
+        mMeasurer = measurer;
+        setRuns(text, start, end, false);
+    }
+
+    private void setRuns(CharSequence text, int start, int end, boolean isSpanned) {
 
         int nextSpanTransition = 0;
-        boolean isSpanned = text instanceof Spanned;
-        mPaint = paint;
         mText = text;
         mTextRuns = new ArrayList<>(); // TODO recycle and reuse this for multiple lines?
         int charCount;
@@ -229,6 +266,10 @@ class MongolTextLine {
      */
     void draw(Canvas c, float x, float top, float y, int bottom) {
 
+        if (mPaint == null) {
+            throw new IllegalStateException("A line set with a TextMeasurer can't be drawn");
+        }
+
         // (x, y) are the start coordinates of each vertical line
         // where x is the top of the line and y is the baseline running down.
         // Don't confuse these with Paint.drawText coordinates.
@@ -236,8 +277,6 @@ class MongolTextLine {
         // top and bottom are the font metrics values in the normal
         // horizontal orientation of a text line.
 
-        boolean hasSpan = mText instanceof Spanned;
-
         c.save();
         c.translate(x, y);
         c.rotate(90);
@@ -248,11 +287,10 @@ class MongolTextLine {
             int end = run.offset + run.length;
 
             TextPaintPlus wp;
-            if (hasSpan) {
-                wp = sWorkPaint;
+            if (run.spans != null) {
+                wp = getWorkPaint();
                 wp.set(mPaint);
-                CharacterStyle[] csSpans = ((Spanned) mText).getSpans(start, end, CharacterStyle.class);
-                for (CharacterStyle span : csSpans) {
+                for (CharacterStyle span : run.spans) {
                     span.updateDrawState(wp);
                 }
             } else {
@@ -346,7 +384,8 @@ class MongolTextLine {
         }
     }
 
-    RectF measure() {
+    // Sums the runs for getMeasuredWidth and getMeasuredHeight.
+    void measure() {
 
         float widthSum = 0;
         float maxHeight = 0;
@@ -362,13 +401,21 @@ class MongolTextLine {
             }
         }
 
-        // left, top, right, bottom (for horizontal line orientation)
-        return new RectF(0, 0, widthSum, maxHeight);
+        mMeasuredWidth = widthSum;
+        mMeasuredHeight = maxHeight;
+    }
+
+    // horizontal line orientation
+    float getMeasuredWidth() {
+        return mMeasuredWidth;
+    }
+
+    float getMeasuredHeight() {
+        return mMeasuredHeight;
     }
 
 
     int getOffsetForAdvance(float advance) {
-        boolean hasSpan = mText instanceof Spanned;
         int offset = 0;
         float oldWidth = 0;
         float newWidth = 0;
@@ -389,22 +436,23 @@ class MongolTextLine {
                     break;
                 }
 
-                TextPaintPlus wp = sWorkPaint;
-                wp.set(mPaint);
-                if (hasSpan) {
-                    MetricAffectingSpan[] maSpans = ((Spanned) mText).getSpans(start, start + length, MetricAffectingSpan.class);
-                    for (MetricAffectingSpan span : maSpans) {
-                        span.updateDrawState(wp);
+                TextMeasurer measurer = mMeasurer;
+                if (measurer == null) {
+                    TextPaintPlus wp = getWorkPaint();
+                    wp.set(mPaint);
+                    if (run.spans != null) {
+                        applyMetricAffectingSpans(run.spans, wp);
                     }
+                    measurer = new PaintTextMeasurer(wp);
                 }
 
                 float[] measuredWidth = new float[1];
                 float maxWidth = advance - oldWidth;
-                int charactersMeasured = wp.breakText(mText, start, start + length, true, maxWidth, measuredWidth);
+                int charactersMeasured = measurer.breakText(mText, start, start + length, maxWidth, measuredWidth);
                 offset += charactersMeasured;
                 newWidth = oldWidth + measuredWidth[0];
                 int nextCharIndex = start + charactersMeasured;
-                float widthOfNextChar = wp.measureText(mText, nextCharIndex, nextCharIndex + 1);
+                float widthOfNextChar = measurer.measureText(mText, nextCharIndex, nextCharIndex + 1);
                 // choose the closer offset
                 if (advance - newWidth > newWidth + widthOfNextChar - advance) {
                     offset++;
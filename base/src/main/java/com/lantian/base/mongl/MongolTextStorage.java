@@ -16,20 +16,48 @@ import android.text.Editable;
 import android.text.InputFilter;
 import android.text.SpannableStringBuilder;
 import android.text.Spanned;
-import android.text.style.CharacterStyle;
+import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
 
 
 public class MongolTextStorage implements Editable {
 
+    private static final InputFilter[] NO_FILTERS = new InputFilter[0];
+
     private CharSequence mUnicodeText;
     private CharSequence mGlyphText;
+    // The glyph indexes are the same as the Unicode indexes, so both views share
+    // one span index. It is the only place that spans are kept: the Unicode and
+    // glyph backends only get plain chars, and the input filters are applied here
+    // so that they can't add spans to the backends either.
+    private final MongolSpanTree mSpanIndex = new MongolSpanTree();
+    private InputFilter[] mFilters = NO_FILTERS;
+    private final MongolGlyphView mGlyphView = new MongolGlyphView(mSpanIndex);
     private MongolCode mRenderer;
     private OnChangeListener mChangelistener;
+    private Editable.Factory mEditableFactory;
+    private boolean mLazyShaping; // mGlyphText is a MongolGlyphText
+
+    // batch edit state (see beginBatchEdit)
+    private int mBatchEditNesting;
+    private int[] mDirtyRanges = new int[8]; // [start, end) pairs in Unicode index order
+    private int mDirtyRangeCount;
+    private boolean mBatchHasChanges;
+    private int mBatchStart;
+    private int mBatchOldEnd; // in the text from before the batch
+    private int mBatchNewEnd; // in the current text
+    private final StringBuilder mBatchOriginal = new StringBuilder(); // the old [mBatchStart, mBatchOldEnd)
 
     MongolTextStorage(CharSequence unicodeText) {
+        this(unicodeText, Editable.Factory.getInstance());
+    }
+
+    // The factory decides the backend of the editable text, for example
+    // SpannableStringBuilder (default) or MongolPieceTable.
+    MongolTextStorage(CharSequence unicodeText, Editable.Factory editableFactory) {
         mRenderer = MongolCode.INSTANCE;
+        mEditableFactory = editableFactory;
         this.mChangelistener = null;
         setText(unicodeText);
     }
@@ -48,19 +76,72 @@ public class MongolTextStorage implements Editable {
     }
 
 
+    // the plain Unicode chars, the spans are in this storage
     CharSequence getUnicodeText() {
         return mUnicodeText;
     }
 
+    // the glyph text with the spans from the span index
     CharSequence getGlyphText() {
-        return mGlyphText;
+        return mGlyphView;
+    }
+
+    private void setGlyphText(CharSequence glyphText) {
+        mGlyphText = glyphText;
+        mGlyphView.setGlyphText(glyphText);
+    }
+
+    void setEditableFactory(Editable.Factory editableFactory) {
+        mEditableFactory = editableFactory;
+        if (mUnicodeText instanceof Editable) {
+            // copy the current text and spans to the new backend
+            mUnicodeText = mEditableFactory.newEditable(mUnicodeText);
+            updateGlyphTextBackend();
+        }
+    }
+
+    private void ensureEditable() {
+        if (!(mUnicodeText instanceof Editable)) {
+            mUnicodeText = mEditableFactory.newEditable(mUnicodeText);
+            updateGlyphTextBackend();
+        }
+    }
+
+    // call after mUnicodeText was replaced by a copy
+    private void updateGlyphTextBackend() {
+        if (mLazyShaping) {
+            ((MongolGlyphText) mGlyphText).setUnicodeText(mUnicodeText);
+        } else {
+            setGlyphText(mEditableFactory.newEditable(mGlyphText));
+        }
+    }
+
+    boolean isLazyShaping() {
+        return mLazyShaping;
+    }
+
+    // In lazy mode the glyph text is only shaped for the ranges that are read,
+    // for example the lines that are drawn. Edits don't shape anything.
+    void setLazyShaping(boolean lazy) {
+        if (lazy == mLazyShaping) return;
+        mLazyShaping = lazy;
+        if (lazy) {
+            setGlyphText(new MongolGlyphText(mUnicodeText));
+            return;
+        }
+        String glyphText = mRenderer.unicodeToMenksoftSameIndex(mUnicodeText);
+        if (mUnicodeText instanceof Editable) {
+            setGlyphText(mEditableFactory.newEditable(glyphText));
+        } else {
+            setGlyphText(glyphText);
+        }
     }
 
     public void setText(CharSequence unicodeText) {
 
         if (unicodeText == null) unicodeText = "";
         if (mUnicodeText == null) mUnicodeText = "";
-        if (mGlyphText == null) mGlyphText = "";
+        if (mGlyphText == null) setGlyphText("");
 
         clearSpans();
 
@@ -69,21 +150,72 @@ public class MongolTextStorage implements Editable {
 
     }
 
-    private void updateGlyphTextForUnicodeRange(int start, int end) {
+    // Same as setText() but with glyphs that were already rendered, for example
+    // on a background thread. The glyph text must have the same length.
+    void setShapedText(CharSequence unicodeText, CharSequence glyphText) {
+        if (unicodeText == null || glyphText == null
+                || glyphText.length() != unicodeText.length()
+                || mLazyShaping || mBatchEditNesting > 0 || mFilters.length > 0) {
+            setText(unicodeText);
+            return;
+        }
+
+        clearSpans();
+        ensureEditable();
+        final int oldLength = mUnicodeText.length();
+        if (mChangelistener != null)
+            mChangelistener.beforeTextChanged(mUnicodeText, 0, oldLength, unicodeText.length());
+
+        ((Editable) mUnicodeText).replace(0, oldLength, plainText(unicodeText, 0, unicodeText.length()));
+        ((Editable) mGlyphText).replace(0, mGlyphText.length(), glyphText);
+        updateSpanIndex(0, oldLength, unicodeText, 0, unicodeText.length());
 
-        if (!(mUnicodeText instanceof Spanned)) return;
+        if (mChangelistener != null) {
+            mChangelistener.onTextChanged(mUnicodeText, 0, oldLength, unicodeText.length());
+            mChangelistener.afterTextChanged(this);
+        }
+    }
+
+    // The chars of source[start, end) without its spans, so that the backends
+    // don't keep a second copy of them.
+    private static CharSequence plainText(CharSequence source, int start, int end) {
+        return (source instanceof Spanned) ? TextUtils.substring(source, start, end)
+                : source.subSequence(start, end);
+    }
 
-        // add spans to glyph string
-        CharacterStyle[] spans = ((Spanned) mUnicodeText).getSpans(start, end, CharacterStyle.class);
-        for (CharacterStyle span : spans) {
-            final int unicodeStart = ((Spanned) mUnicodeText).getSpanStart(span);
-            final int unicodeEnd = ((Spanned) mUnicodeText).getSpanEnd(span);
-            ((SpannableStringBuilder) mGlyphText).setSpan(span, unicodeStart, unicodeEnd, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+    // Applies the input filters like SpannableStringBuilder does, returns the
+    // text to insert.
+    private CharSequence filter(int st, int en, CharSequence source, int start, int end) {
+        for (InputFilter filter : mFilters) {
+            CharSequence replacement = filter.filter(source, start, end, this, st, en);
+            if (replacement != null) {
+                source = replacement;
+                start = 0;
+                end = replacement.length();
+            }
+        }
+        return (start == 0 && end == source.length()) ? source : source.subSequence(start, end);
+    }
+
+    // Called after the Unicode range [st, en) was replaced with the chars of
+    // source[start, end). The spans of the source are copied like
+    // SpannableStringBuilder copies them.
+    private void updateSpanIndex(int st, int en, CharSequence source, int start, int end) {
+        mSpanIndex.replace(st, en, end - start);
+        if (!(source instanceof Spanned)) return;
+
+        final Spanned spanned = (Spanned) source;
+        Object[] spans = spanned.getSpans(start, end, Object.class);
+        for (Object span : spans) {
+            if (mSpanIndex.getSpanStart(span) >= 0) continue; // already a span here
+            final int spanStart = Math.max(spanned.getSpanStart(span), start) - start + st;
+            final int spanEnd = Math.min(spanned.getSpanEnd(span), end) - start + st;
+            mSpanIndex.setSpan(span, spanStart, spanEnd, spanned.getSpanFlags(span));
         }
     }
 
     // go to the start of the Mongol word from the indicated position
-    private int getMongolWordStart(int position, CharSequence source) {
+    static int getMongolWordStart(int position, CharSequence source) {
         int wordStart = position;
         for (int i = position - 1; i >= 0; i--) {
             final char thisChar = source.charAt(i);
@@ -97,7 +229,7 @@ public class MongolTextStorage implements Editable {
     }
 
     // go to the end of the Mongol word from the indicated position
-    private int getMongolWordEnd(int position, CharSequence source) {
+    static int getMongolWordEnd(int position, CharSequence source) {
         int wordEnd = position;
         final int length = source.length();
         for (int i = position; i < length; i++) {
@@ -111,6 +243,129 @@ public class MongolTextStorage implements Editable {
         return wordEnd;
     }
 
+    ////////////////////////////// batch editing ///////////////////////////
+
+    /**
+     * Starts a group of edits. Until the matching endBatchEdit() the Unicode text
+     * is updated right away but the glyph text is not reshaped and the change
+     * listener is not called. Calls can be nested.
+     */
+    public void beginBatchEdit() {
+        if (mBatchEditNesting++ == 0) {
+            mDirtyRangeCount = 0;
+            mBatchHasChanges = false;
+        }
+    }
+
+    /**
+     * Ends a group of edits. When the outermost batch ends, every word touched by
+     * the edits is reshaped once and the listener gets a single change for the
+     * whole edited range. beforeTextChanged() gets the text as it was before the
+     * batch, rebuilt from the chars that the edits overwrote.
+     */
+    public void endBatchEdit() {
+        if (mBatchEditNesting == 0 || --mBatchEditNesting > 0) return;
+
+        if (!mLazyShaping) reshapeDirtyRanges();
+        mDirtyRangeCount = 0;
+        if (!mBatchHasChanges) return;
+        mBatchHasChanges = false;
+
+        if (mChangelistener != null) {
+            final int before = mBatchOldEnd - mBatchStart;
+            final int after = mBatchNewEnd - mBatchStart;
+            CharSequence oldText = new PreBatchText(mUnicodeText, mBatchStart, mBatchNewEnd,
+                    mBatchOriginal);
+            mChangelistener.beforeTextChanged(oldText, mBatchStart, before, after);
+            mChangelistener.onTextChanged(mUnicodeText, mBatchStart, before, after);
+            mChangelistener.afterTextChanged(this);
+        }
+        mBatchOriginal.setLength(0);
+    }
+
+    public boolean isInBatchEdit() {
+        return mBatchEditNesting > 0;
+    }
+
+    // Call before the Unicode range [st, en) is replaced. Saves the chars from
+    // before the batch that the edit overwrites and the batch range does not
+    // cover yet. Everything outside the batch range is still unchanged.
+    private void saveBatchOriginal(int st, int en) {
+        if (!mBatchHasChanges) {
+            mBatchOriginal.setLength(0);
+            mBatchOriginal.append(mUnicodeText, st, en);
+            return;
+        }
+        if (st < mBatchStart) mBatchOriginal.insert(0, mUnicodeText, st, mBatchStart);
+        if (en > mBatchNewEnd) mBatchOriginal.append(mUnicodeText, mBatchNewEnd, en);
+    }
+
+    // the Unicode range [st, en) was replaced with insertLength chars
+    private void recordBatchChange(int st, int en, int insertLength) {
+        final int delta = insertLength - (en - st);
+
+        // union of all changes in this batch
+        if (!mBatchHasChanges) {
+            mBatchHasChanges = true;
+            mBatchStart = st;
+            mBatchOldEnd = en;
+            mBatchNewEnd = st + insertLength;
+        } else {
+            if (en > mBatchNewEnd) mBatchOldEnd += en - mBatchNewEnd;
+            mBatchNewEnd = Math.max(mBatchNewEnd, en) + delta;
+            mBatchStart = Math.min(mBatchStart, st);
+        }
+
+        // keep the dirty ranges sorted and merge the ones touching this change
+        int mergedStart = st;
+        int mergedEnd = st + insertLength;
+        int[] ranges = new int[mDirtyRangeCount + 2];
+        int count = 0;
+        boolean added = false;
+        for (int i = 0; i < mDirtyRangeCount; i += 2) {
+            final int start = mDirtyRanges[i];
+            final int end = mDirtyRanges[i + 1];
+            if (end < st) {
+                ranges[count++] = start;
+                ranges[count++] = end;
+            } else if (start > en) {
+                if (!added) {
+                    ranges[count++] = mergedStart;
+                    ranges[count++] = mergedEnd;
+                    added = true;
+                }
+                ranges[count++] = start + delta;
+                ranges[count++] = end + delta;
+            } else {
+                mergedStart = Math.min(mergedStart, start);
+                mergedEnd = Math.max(mergedEnd, (end > en) ? end + delta : st + insertLength);
+            }
+        }
+        if (!added) {
+            ranges[count++] = mergedStart;
+            ranges[count++] = mergedEnd;
+        }
+        mDirtyRanges = ranges;
+        mDirtyRangeCount = count;
+    }
+
+    private void reshapeDirtyRanges() {
+        int i = 0;
+        while (i < mDirtyRangeCount) {
+            int wordStart = getMongolWordStart(mDirtyRanges[i], mUnicodeText);
+            int wordEnd = getMongolWordEnd(mDirtyRanges[i + 1], mUnicodeText);
+            i += 2;
+            // ranges in the same word are shaped together
+            while (i < mDirtyRangeCount && mDirtyRanges[i] <= wordEnd) {
+                wordEnd = Math.max(wordEnd, getMongolWordEnd(mDirtyRanges[i + 1], mUnicodeText));
+                i += 2;
+            }
+            CharSequence unicodeReplacement = mUnicodeText.subSequence(wordStart, wordEnd);
+            String glyphReplacement = mRenderer.unicodeToMenksoftSameIndex(unicodeReplacement);
+            ((Editable) mGlyphText).replace(wordStart, wordEnd, glyphReplacement);
+        }
+    }
+
     ////////////////////////////// Editable interface methods ///////////////////////////
 
     /**
@@ -126,10 +381,7 @@ public class MongolTextStorage implements Editable {
      */
     @Override
     public Editable replace(int st, int en, CharSequence source, int start, int end) {
-        if (!(mUnicodeText instanceof SpannableStringBuilder)) {
-            mUnicodeText = new SpannableStringBuilder(mUnicodeText);
-            mGlyphText = new SpannableStringBuilder(mGlyphText);
-        }
+        ensureEditable();
         // swap start and end if in wrong order
         if (st > en) {
             int temp = st;
@@ -141,6 +393,25 @@ public class MongolTextStorage implements Editable {
             start = end;
             end = temp;
         }
+        source = filter(st, en, source, start, end);
+        start = 0;
+        end = source.length();
+        final CharSequence plainSource = plainText(source, 0, end);
+
+        if (mLazyShaping) {
+            return replaceLazy(st, en, source, plainSource);
+        }
+
+        if (mBatchEditNesting > 0) {
+            // Keep the glyph text at the same indexes with the unshaped text.
+            // It gets shaped when the batch ends.
+            saveBatchOriginal(st, en);
+            ((Editable) mUnicodeText).replace(st, en, plainSource);
+            ((Editable) mGlyphText).replace(st, en, plainSource);
+            updateSpanIndex(st, en, source, start, end);
+            recordBatchChange(st, en, end);
+            return this;
+        }
 
         if (mChangelistener != null)
             mChangelistener.beforeTextChanged(mUnicodeText, st, en - st, end - start);
@@ -148,12 +419,12 @@ public class MongolTextStorage implements Editable {
         // replace glyphs (expand to the whole word preceding and following)
         int wordStart = getMongolWordStart(st, mUnicodeText);
         int wordEnd = getMongolWordEnd(en, mUnicodeText);
-        ((SpannableStringBuilder) mUnicodeText).replace(st, en, source, start, end);
-        int adjustedEnd = wordEnd + (end - start) - (en - st);
+        ((Editable) mUnicodeText).replace(st, en, plainSource);
+        int adjustedEnd = wordEnd + end - (en - st);
         CharSequence unicodeReplacement = mUnicodeText.subSequence(wordStart, adjustedEnd);
         String glyphReplacement = mRenderer.unicodeToMenksoftSameIndex(unicodeReplacement);
-        ((SpannableStringBuilder) mGlyphText).replace(wordStart, wordEnd, glyphReplacement);
-        updateGlyphTextForUnicodeRange(wordStart, adjustedEnd);
+        ((Editable) mGlyphText).replace(wordStart, wordEnd, glyphReplacement);
+        updateSpanIndex(st, en, source, start, end);
 
         if (mChangelistener != null) {
             mChangelistener.onTextChanged(mUnicodeText, st, en - st, end - start);
@@ -163,6 +434,29 @@ public class MongolTextStorage implements Editable {
         return this;
     }
 
+    // only the Unicode text is changed, the glyphs are shaped when they are read
+    private Editable replaceLazy(int st, int en, CharSequence source, CharSequence plainSource) {
+        final boolean inBatch = mBatchEditNesting > 0;
+        final int insertLength = source.length();
+        if (inBatch) {
+            saveBatchOriginal(st, en);
+        } else if (mChangelistener != null) {
+            mChangelistener.beforeTextChanged(mUnicodeText, st, en - st, insertLength);
+        }
+
+        ((Editable) mUnicodeText).replace(st, en, plainSource);
+        ((MongolGlyphText) mGlyphText).onTextReplaced(st, en, insertLength);
+        updateSpanIndex(st, en, source, 0, insertLength);
+
+        if (inBatch) {
+            recordBatchChange(st, en, insertLength);
+        } else if (mChangelistener != null) {
+            mChangelistener.onTextChanged(mUnicodeText, st, en - st, insertLength);
+            mChangelistener.afterTextChanged(this);
+        }
+        return this;
+    }
+
     @Override
     public Editable replace(int st, int en, CharSequence text) {
         return replace(st, en, text, 0, text.length());
@@ -208,114 +502,81 @@ public class MongolTextStorage implements Editable {
 
     @Override
     public void clearSpans() {
-        if (!(mUnicodeText instanceof SpannableStringBuilder)) {
-            return;
-        }
-        ((SpannableStringBuilder) mUnicodeText).clearSpans();
-        ((SpannableStringBuilder) mGlyphText).clearSpans();
+        mSpanIndex.clear();
 
         final int length = mUnicodeText.length();
         if (mChangelistener != null)
-            mChangelistener.onSpanChanged((Spanned) mUnicodeText, null, 0, 0, length, length);
+            mChangelistener.onSpanChanged(this, null, 0, 0, length, length);
     }
 
+    // Like SpannableStringBuilder the filters only apply to later edits.
     @Override
     public void setFilters(InputFilter[] filters) {
-        if (!(mUnicodeText instanceof SpannableStringBuilder)) {
-            return;
-        }
-        // TODO: this is untested!
-        int oldLength = mUnicodeText.length();
-        ((SpannableStringBuilder) mUnicodeText).setFilters(filters);
-        ((SpannableStringBuilder) mGlyphText).setFilters(filters);
-        if (mChangelistener != null)
-            mChangelistener.onTextChanged(mUnicodeText, 0, oldLength, mUnicodeText.length());
+        if (filters == null) throw new IllegalArgumentException();
+        mFilters = filters;
     }
 
     @Override
     public InputFilter[] getFilters() {
-        if (!(mUnicodeText instanceof SpannableStringBuilder)) {
-            return new InputFilter[0];
-        }
-        return ((SpannableStringBuilder) mUnicodeText).getFilters();
+        return mFilters;
     }
 
     @Override
     public void getChars(int start, int end, char[] dest, int destoff) {
-        if (!(mUnicodeText instanceof SpannableStringBuilder)) {
+        if (!(mUnicodeText instanceof Editable)) {
             ((String) mUnicodeText).getChars(start, end, dest, destoff);
         } else {
-            ((SpannableStringBuilder) mUnicodeText).getChars(start, end, dest, destoff);
+            ((Editable) mUnicodeText).getChars(start, end, dest, destoff);
         }
     }
 
     @Override
     public void setSpan(Object what, int start, int end, int flags) {
-        if (!(mUnicodeText instanceof SpannableStringBuilder)) {
-            mUnicodeText = new SpannableStringBuilder(mUnicodeText);
-            mGlyphText = new SpannableStringBuilder(mGlyphText);
+        if (start < 0 || end < start || end > length()) {
+            throw new IndexOutOfBoundsException("setSpan (" + start + " ... " + end
+                    + ") of " + length());
         }
-        ((SpannableStringBuilder) mUnicodeText).setSpan(what, start, end, flags);
-        ((SpannableStringBuilder) mGlyphText).setSpan(what, start, end, flags);
+        mSpanIndex.setSpan(what, start, end, flags);
 
         if (mChangelistener != null)
-            mChangelistener.onSpanChanged((Spanned) mUnicodeText, what, start, start, end, end);
+            mChangelistener.onSpanChanged(this, what, start, start, end, end);
     }
 
     @Override
     public void removeSpan(Object what) {
-        if (!(mUnicodeText instanceof Spanned)) {
-            return;
-        }
-        if (!(mUnicodeText instanceof SpannableStringBuilder)) {
+        if (mSpanIndex.getSpanStart(what) < 0) {
             return;
         }
-        ((SpannableStringBuilder) mUnicodeText).removeSpan(what);
-        ((SpannableStringBuilder) mGlyphText).removeSpan(what);
+        mSpanIndex.removeSpan(what);
 
         final int length = mUnicodeText.length();
         if (mChangelistener != null)
-            mChangelistener.onSpanChanged((Spanned) mUnicodeText, what, 0, 0, length, length);
+            mChangelistener.onSpanChanged(this, what, 0, 0, length, length);
     }
 
     @Override
     public <T> T[] getSpans(int start, int end, Class<T> type) {
-        if (mUnicodeText instanceof Spanned) {
-            return ((Spanned) mUnicodeText).getSpans(start, end, type);
-        }
-        return null;
+        return mSpanIndex.getSpans(start, end, type);
     }
 
     @Override
     public int getSpanStart(Object tag) {
-        if (mUnicodeText instanceof Spanned) {
-            return ((Spanned) mUnicodeText).getSpanStart(tag);
-        }
-        return 0;
+        return mSpanIndex.getSpanStart(tag);
     }
 
     @Override
     public int getSpanEnd(Object tag) {
-        if (mUnicodeText instanceof Spanned) {
-            return ((Spanned) mUnicodeText).getSpanEnd(tag);
-        }
-        return 0;
+        return mSpanIndex.getSpanEnd(tag);
     }
 
     @Override
     public int getSpanFlags(Object tag) {
-        if (mUnicodeText instanceof Spanned) {
-            return ((Spanned) mUnicodeText).getSpanFlags(tag);
-        }
-        return 0;
+        return mSpanIndex.getSpanFlags(tag);
     }
 
     @Override
     public int nextSpanTransition(int start, int limit, Class type) {
-        if (mUnicodeText instanceof Spanned) {
-            return ((Spanned) mUnicodeText).nextSpanTransition(start, limit, type);
-        }
-        return 0;
+        return mSpanIndex.nextSpanTransition(start, limit, type);
     }
 
     @Override
@@ -330,7 +591,21 @@ public class MongolTextStorage implements Editable {
 
     @Override
     public CharSequence subSequence(int start, int end) {
-        return mUnicodeText.subSequence(start, end);
+        if (mSpanIndex.size() == 0) {
+            return mUnicodeText.subSequence(start, end);
+        }
+        SpannableStringBuilder result = new SpannableStringBuilder(TextUtils.substring(mUnicodeText, start, end));
+        for (Object span : mSpanIndex.getSpans(start, end, Object.class)) {
+            final int flags = mSpanIndex.getSpanFlags(span);
+            int spanStart = mSpanIndex.getSpanStart(span);
+            int spanEnd = mSpanIndex.getSpanEnd(span);
+            final boolean clipped = spanStart < start || spanEnd > end;
+            if (clipped && (flags & Spanned.SPAN_POINT_MARK_MASK) == Spanned.SPAN_PARAGRAPH) continue;
+            spanStart = Math.max(spanStart, start) - start;
+            spanEnd = Math.min(spanEnd, end) - start;
+            result.setSpan(span, spanStart, spanEnd, flags);
+        }
+        return result;
     }
 
     @Override
@@ -338,4 +613,52 @@ public class MongolTextStorage implements Editable {
     public String toString() {
         return (mUnicodeText != null) ? mUnicodeText.toString() : "";
     }
+
+    // The text from before a batch edit: the current text with the batch range
+    // swapped back to the original chars. It is only valid during the callback.
+    private static final class PreBatchText implements CharSequence {
+        private final CharSequence mCurrent;
+        private final int mStart;
+        private final int mNewEnd;
+        private final CharSequence mOriginal;
+
+        PreBatchText(CharSequence current, int start, int newEnd, CharSequence original) {
+            mCurrent = current;
+            mStart = start;
+            mNewEnd = newEnd;
+            mOriginal = original;
+        }
+
+        @Override
+        public int length() {
+            return mCurrent.length() - (mNewEnd - mStart) + mOriginal.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < mStart) return mCurrent.charAt(index);
+            final int originalEnd = mStart + mOriginal.length();
+            if (index < originalEnd) return mOriginal.charAt(index - mStart);
+            return mCurrent.charAt(mNewEnd + index - originalEnd);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            StringBuilder result = new StringBuilder(end - start);
+            for (int i = start; i < end; i++) {
+                result.append(charAt(i));
+            }
+            return result.toString();
+        }
+
+        @Override
+        @NonNull
+        public String toString() {
+            return new StringBuilder(length())
+                    .append(mCurrent, 0, mStart)
+                    .append(mOriginal)
+                    .append(mCurrent, mNewEnd, mCurrent.length())
+                    .toString();
+        }
+    }
 }
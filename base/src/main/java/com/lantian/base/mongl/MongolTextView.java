@@ -7,20 +7,27 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Rect;
 import android.graphics.Typeface;
+import android.text.Editable;
 import android.text.Selection;
 import android.text.SpannableStringBuilder;
+import android.text.Spanned;
 import android.text.method.MovementMethod;
+import android.text.style.CharacterStyle;
 import android.text.style.ClickableSpan;
 import android.util.AttributeSet;
 import android.util.TypedValue;
 import android.view.Gravity;
 import android.view.MotionEvent;
 import android.view.View;
+import android.view.ViewGroup;
 import android.view.ViewTreeObserver;
 import android.widget.TextView;
 
 import com.lantian.base.R;
 
+import java.util.Collection;
+import java.util.concurrent.Executor;
+
 import androidx.annotation.ColorInt;
 
 // TODO how to speed this up
@@ -60,6 +67,13 @@ public class MongolTextView extends View implements ViewTreeObserver.OnPreDrawLi
     private int mShadowColor;
     private float mSpacingMult = 1.0f;
     private float mSpacingAdd = 0.0f;
+    // incremented for each new text so that old background jobs are dropped
+    private volatile int mAsyncTextGeneration;
+    // an async text that waits for the view to get a height (see setTextAsync)
+    private Runnable mPendingAsyncLayout;
+    private MongolLayoutCache mLayoutCache;
+    private String mCachedText; // the last text that was set through the cache
+    private MongolPageIndexer mPageIndexer;
 
 
     public MongolTextView(Context context) {
@@ -136,12 +150,7 @@ public class MongolTextView extends View implements ViewTreeObserver.OnPreDrawLi
 
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
-
-        // TODO don't need to calculate this if using sticky width?
-        // TODO pass in a limit where we can stop measuring?
-        final CharSequence text = mTextStorage.getGlyphText();
-        Rect desiredSizeNoPadding = MongolLayout.getDesiredSize(text, 0, text.length(), mTextPaint);
-        int desiredHeight = desiredSizeNoPadding.height() + getPaddingTop() + getPaddingBottom();
+        final long metricsStart = MongolMetrics.start(MongolMetrics.MEASURE);
 
         int widthMode = MeasureSpec.getMode(widthMeasureSpec);
         int widthSize = MeasureSpec.getSize(widthMeasureSpec);
@@ -153,22 +162,45 @@ public class MongolTextView extends View implements ViewTreeObserver.OnPreDrawLi
 
         //Measure Height
         if (heightMode == MeasureSpec.EXACTLY) {
+            // The whole text doesn't need to be measured (or shaped in lazy mode)
+            // when the size is given.
             height = heightSize;
-        } else if (heightMode == MeasureSpec.AT_MOST) {
-            height = Math.min(desiredHeight, heightSize);
         } else {
-            height = desiredHeight;
+            // TODO pass in a limit where we can stop measuring?
+            final String cachedText = getCacheableText();
+            Rect desiredSizeNoPadding;
+            if (cachedText != null) {
+                desiredSizeNoPadding = mLayoutCache.getDesiredSize(cachedText, mTextPaint, mSpacingMult, mSpacingAdd);
+            } else {
+                final CharSequence text = mTextStorage.getGlyphText();
+                desiredSizeNoPadding = MongolLayout.getDesiredSize(text, 0, text.length(), mTextPaint);
+            }
+            int desiredHeight = desiredSizeNoPadding.height() + getPaddingTop() + getPaddingBottom();
+            if (heightMode == MeasureSpec.AT_MOST) {
+                height = Math.min(desiredHeight, heightSize);
+            } else {
+                height = desiredHeight;
+            }
         }
 
         // add padding calculations
         int desiredWidth;
 
         // desired width
+        final int layoutHeight = height - getPaddingTop() - getPaddingBottom();
+        mLayout.setHeight(layoutHeight);
+        final String cachedText = getCacheableText();
+        if (cachedText != null && layoutHeight > 0) {
+            mLayout.setText(mTextStorage.getGlyphText(), mLayoutCache.getLayout(
+                    cachedText, mTextPaint, layoutHeight, mSpacingMult, mSpacingAdd));
+        }
         if (mStickyWidth != STICKY_WIDTH_UNDEFINED) {
             // used if the first layout got the wrong size
             desiredWidth = mStickyWidth;
+        } else if (widthMode == MeasureSpec.EXACTLY) {
+            // the lines are broken when they are drawn
+            desiredWidth = widthSize;
         } else {
-            mLayout.setHeight(height - getPaddingTop() - getPaddingBottom());
             desiredWidth = mLayout.getWidth() + getPaddingLeft() + getPaddingRight();
         }
 
@@ -185,6 +217,7 @@ public class MongolTextView extends View implements ViewTreeObserver.OnPreDrawLi
         recordMeasureResults(widthMeasureSpec, height, desiredWidth);
 
         setMeasuredDimension(width, height);
+        MongolMetrics.end(MongolMetrics.MEASURE, metricsStart);
     }
 
     private void recordMeasureResults(int widthMeasureSpec, int chosenHeight, int desiredWidth) {
@@ -202,10 +235,16 @@ public class MongolTextView extends View implements ViewTreeObserver.OnPreDrawLi
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
         mLayout.setHeight(h - getPaddingTop() - getPaddingBottom());
+        if (mPendingAsyncLayout != null && mLayout.getHeight() > 0) {
+            final Runnable pending = mPendingAsyncLayout;
+            mPendingAsyncLayout = null;
+            pending.run();
+        }
     }
 
     @Override
     protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        final long metricsStart = MongolMetrics.start(MongolMetrics.LAYOUT);
         int w = right - left;
         int h = bottom - top;
         super.onLayout(changed, left, top, right, bottom);
@@ -236,6 +275,7 @@ public class MongolTextView extends View implements ViewTreeObserver.OnPreDrawLi
         }
 
         clearOnMeasureData();
+        MongolMetrics.end(MongolMetrics.LAYOUT, metricsStart);
     }
 
     private void clearOnMeasureData() {
@@ -250,7 +290,9 @@ public class MongolTextView extends View implements ViewTreeObserver.OnPreDrawLi
         // draw the text on the canvas after adjusting for padding
         canvas.save();
         canvas.translate(getPaddingLeft(), getPaddingTop());
+        final long metricsStart = MongolMetrics.start(MongolMetrics.DRAW);
         mLayout.draw(canvas);
+        MongolMetrics.end(MongolMetrics.DRAW, metricsStart);
         canvas.restore();
     }
 
@@ -277,18 +319,220 @@ public class MongolTextView extends View implements ViewTreeObserver.OnPreDrawLi
         return true;
     }
 
+    // the storage, because the spans are kept there and not in the Unicode text
     public CharSequence getText() {
-        return mTextStorage.getUnicodeText();
+        return mTextStorage;
     }
 
     public void setText(CharSequence text) {
-        mTextStorage.setText(text);
+        mAsyncTextGeneration++;
+        mPendingAsyncLayout = null;
+        mCachedText = null;
+        if (mLayoutCache != null && text instanceof String && !mTextStorage.isLazyShaping()) {
+            mCachedText = (String) text;
+            mTextStorage.setShapedText(text, mLayoutCache.getGlyphText(mCachedText));
+        } else {
+            mTextStorage.setText(text);
+        }
         mLayout.setText(mTextStorage.getGlyphText());
         setSelection(mTextStorage.length());
         invalidate();
         requestLayout();
     }
 
+    /**
+     * Uses a cache for the shaped text, the measured size and the line breaks.
+     * This is useful for views in a list that show the same labels again and
+     * again. Only plain String text (no spans) is cached.
+     *
+     * @param cache usually MongolLayoutCache.getInstance(), or null to not use a cache
+     */
+    public void setLayoutCache(MongolLayoutCache cache) {
+        mLayoutCache = cache;
+    }
+
+    /**
+     * Lets the indexer rebuild its page index when the text size or line spacing
+     * of this view changes. The indexer must have been started with rebuild().
+     *
+     * @param indexer the indexer of the book that is shown, or null
+     */
+    public void setPageIndexer(MongolPageIndexer indexer) {
+        mPageIndexer = indexer;
+    }
+
+    /**
+     * Fills the layout cache of this view for the texts on the executor, using
+     * the current paint, height and line spacing of this view.
+     */
+    public void prewarmLayoutCache(final Collection<? extends CharSequence> texts, Executor executor) {
+        final MongolLayoutCache cache = mLayoutCache;
+        if (cache == null) return;
+        final TextPaintPlus paint = new TextPaintPlus();
+        paint.set(mTextPaint);
+        final int height = mLayout.getHeight();
+        final float spacingMult = mSpacingMult;
+        final float spacingAdd = mSpacingAdd;
+        executor.execute(() -> cache.prewarm(texts, paint, height, spacingMult, spacingAdd));
+    }
+
+    // The cache can only be used while the text is still the one that was set
+    // and no styles were added to it.
+    private String getCacheableText() {
+        if (mLayoutCache == null || mCachedText == null) return null;
+        final CharSequence text = mTextStorage.getUnicodeText();
+        if (text.length() != mCachedText.length() || !mCachedText.contentEquals(text)) {
+            mCachedText = null;
+            return null;
+        }
+        if (mTextStorage.getSpans(0, text.length(), CharacterStyle.class).length > 0) return null;
+        return mCachedText;
+    }
+
+    /**
+     * Same as setTextAsync(text, executor, null)
+     */
+    public void setTextAsync(CharSequence text, Executor executor) {
+        setTextAsync(text, executor, null);
+    }
+
+    /**
+     * Shapes the text and breaks it into lines on the executor and then shows it on
+     * the UI thread. Use this for long texts like whole chapters. If another text
+     * is set before the job is finished, the job is dropped. If the size, paint or
+     * line spacing of the view changed in the meantime, the lines are broken again
+     * on the executor. A view that has no height yet keeps its current text until
+     * onSizeChanged() gives it one, unless its height is wrap_content.
+     *
+     * @param text the Unicode text
+     * @param executor runs the shaping and layout, for example Executors.newSingleThreadExecutor()
+     * @param placeholder optional text to show until the text is ready (null keeps the current text)
+     */
+    public void setTextAsync(CharSequence text, Executor executor, CharSequence placeholder) {
+        setTextAsync(text, null, executor, placeholder);
+    }
+
+    /**
+     * Like setTextAsync(text, executor) but with text that was shaped before, for
+     * example stored with the book. Only the line breaking is done on the executor.
+     *
+     * @param text the Unicode text
+     * @param glyphText the text shaped by MongolCode, or null to shape it here
+     * @param executor runs the layout
+     */
+    public void setShapedTextAsync(CharSequence text, CharSequence glyphText, Executor executor) {
+        setTextAsync(text, glyphText, executor, null);
+    }
+
+    private void setTextAsync(CharSequence text, CharSequence shapedText, Executor executor,
+                              CharSequence placeholder) {
+        if (text == null) text = "";
+        // MongolCode keeps the indexes, so a glyph text of another length isn't for this text
+        if (shapedText != null && shapedText.length() != text.length()) shapedText = null;
+        if (mTextStorage.isLazyShaping()) {
+            // the text is only shaped when it is drawn anyway
+            setText(text);
+            return;
+        }
+        if (placeholder != null) setText(placeholder);
+
+        final int generation = ++mAsyncTextGeneration;
+        mPendingAsyncLayout = null;
+        // the text may be changed by the caller while it is being shaped
+        final CharSequence unicodeText = (text instanceof String) ? text
+                : (text instanceof Spanned) ? new SpannableStringBuilder(text) : text.toString();
+        startAsyncLayout(generation, unicodeText, shapedText, executor);
+    }
+
+    // Shapes the text if glyphText is null and breaks the lines for the current
+    // height, paint and line spacing on the executor. The result is only shown
+    // if those are still the same, otherwise this starts over with the new ones.
+    private void startAsyncLayout(final int generation, final CharSequence unicodeText,
+                                  final CharSequence glyphText, final Executor executor) {
+        final int height = mLayout.getHeight();
+        if (glyphText != null && height <= 0) {
+            if (getLayoutParams() != null
+                    && getLayoutParams().height == ViewGroup.LayoutParams.WRAP_CONTENT) {
+                // the height comes from the text, so it has to be set to be measured
+                commitAsyncText(unicodeText, glyphText, null);
+            } else {
+                mPendingAsyncLayout = () ->
+                        startAsyncLayout(generation, unicodeText, glyphText, executor);
+            }
+            return;
+        }
+        final TextPaintPlus paint = new TextPaintPlus();
+        paint.set(mTextPaint);
+        final float spacingMult = mSpacingMult;
+        final float spacingAdd = mSpacingAdd;
+
+        executor.execute(() -> {
+            if (generation != mAsyncTextGeneration) return;
+            final CharSequence glyphs = (glyphText != null) ? glyphText
+                    : new MongolTextStorage(unicodeText).getGlyphText();
+            MongolLayout layout = null;
+            if (height > 0) {
+                layout = new MongolLayout(glyphs, 0, glyphs.length(), paint, height,
+                        Gravity.TOP, spacingMult, spacingAdd, false, Integer.MAX_VALUE);
+                // a long chapter takes a while, so stop as soon as another text is set
+                if (!layout.breakAllLines(() -> generation != mAsyncTextGeneration)) return;
+            }
+            final MongolLayout precomputed = layout;
+            post(() -> {
+                if (generation != mAsyncTextGeneration) return;
+                if (precomputed != null && height == mLayout.getHeight()
+                        && paint.equalsForLayout(mTextPaint)
+                        && spacingMult == mSpacingMult && spacingAdd == mSpacingAdd) {
+                    commitAsyncText(unicodeText, glyphs, precomputed);
+                } else {
+                    startAsyncLayout(generation, unicodeText, glyphs, executor);
+                }
+            });
+        });
+    }
+
+    private void commitAsyncText(CharSequence unicodeText, CharSequence glyphText,
+                                 MongolLayout precomputed) {
+        mTextStorage.setShapedText(unicodeText, glyphText.toString());
+        if (precomputed != null) {
+            mLayout.setText(mTextStorage.getGlyphText(), precomputed);
+        } else {
+            mLayout.setText(mTextStorage.getGlyphText());
+        }
+        setSelection(mTextStorage.length());
+        invalidate();
+        requestLayout();
+    }
+
+    /**
+     * Sets the Factory used to create the editable text storage, for example
+     * MongolPieceTable.Factory for long documents that are edited in many places.
+     * The current text and spans are copied to the new storage.
+     *
+     * @param factory the factory (default is Editable.Factory.getInstance())
+     */
+    public void setEditableFactory(Editable.Factory factory) {
+        mTextStorage.setEditableFactory(factory);
+        mLayout.setText(mTextStorage.getGlyphText());
+        invalidate();
+        requestLayout();
+    }
+
+    /**
+     * In lazy shaping mode the glyphs are only rendered for the text that is
+     * measured or drawn. Use it for long texts in a view with an exact size,
+     * where only the first lines are visible.
+     *
+     * @param lazy true to shape the text on demand (default is false)
+     */
+    public void setLazyShaping(boolean lazy) {
+        if (lazy == mTextStorage.isLazyShaping()) return;
+        mTextStorage.setLazyShaping(lazy);
+        mLayout.setText(mTextStorage.getGlyphText());
+        invalidate();
+        requestLayout();
+    }
+
     public int getTextColor() {
         return mTextColor;
     }
@@ -314,6 +558,9 @@ public class MongolTextView extends View implements ViewTreeObserver.OnPreDrawLi
                 size, getResources().getDisplayMetrics());
         mTextPaint.setTextSize(mTextSizePx);
         mLayout.reflowLines();
+        if (mPageIndexer != null) {
+            mPageIndexer.onLineSettingsChanged(mTextPaint, mSpacingMult, mSpacingAdd);
+        }
         invalidate();
         requestLayout();
     }
@@ -442,6 +689,9 @@ public class MongolTextView extends View implements ViewTreeObserver.OnPreDrawLi
                 requestLayout();
                 invalidate();
             }
+            if (mPageIndexer != null) {
+                mPageIndexer.onLineSettingsChanged(mTextPaint, mSpacingMult, mSpacingAdd);
+            }
         }
     }
 
@@ -0,0 +1,43 @@
+package com.lantian.base.mongl;
+
+// A TextMeasurer for a paint. The font metrics are the cached ones of the paint,
+// so they follow changes of its text size and typeface.
+
+final class PaintTextMeasurer implements TextMeasurer {
+
+    private final TextPaintPlus mPaint;
+
+    PaintTextMeasurer(TextPaintPlus paint) {
+        mPaint = paint;
+    }
+
+    @Override
+    public float measureText(CharSequence text, int start, int end) {
+        return mPaint.measureText(text, start, end);
+    }
+
+    @Override
+    public int breakText(CharSequence text, int start, int end, float maxWidth, float[] measuredWidth) {
+        return mPaint.breakText(text, start, end, true, maxWidth, measuredWidth);
+    }
+
+    @Override
+    public float getTop() {
+        return mPaint.getCachedFontMetrics().top;
+    }
+
+    @Override
+    public float getAscent() {
+        return mPaint.getCachedFontMetrics().ascent;
+    }
+
+    @Override
+    public float getDescent() {
+        return mPaint.getCachedFontMetrics().descent;
+    }
+
+    @Override
+    public float getBottom() {
+        return mPaint.getCachedFontMetrics().bottom;
+    }
+}
@@ -0,0 +1,33 @@
+package com.lantian.base.mongl;
+
+// Measures unstyled text in the horizontal line orientation. MongolLayout and
+// MongolTextLine measure with a Paint on the device (PaintTextMeasurer), but they
+// can also be given the advances from a font file (TtfMetrics) to break lines
+// without Android.
+//
+// The font metrics values have the same meaning as in Paint.FontMetrics, so top
+// and ascent are negative.
+
+public interface TextMeasurer {
+
+    /**
+     * @return the advance of the chars from start to end
+     */
+    float measureText(CharSequence text, int start, int end);
+
+    /**
+     * Measures forwards from start like Paint.breakText.
+     *
+     * @param measuredWidth if not null, [0] is set to the width of the measured chars
+     * @return the number of chars that fit in maxWidth
+     */
+    int breakText(CharSequence text, int start, int end, float maxWidth, float[] measuredWidth);
+
+    float getTop();
+
+    float getAscent();
+
+    float getDescent();
+
+    float getBottom();
+}
@@ -2,7 +2,10 @@ package com.lantian.base.mongl;
 
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.os.Build;
 import android.text.TextPaint;
+import android.text.TextUtils;
 
 import androidx.annotation.ColorInt;
 
@@ -17,6 +20,12 @@ public class TextPaintPlus extends TextPaint {
     private float mShadowLayerDy;
     private int mShadowLayerColor;
 
+    // font metrics for mMetricsTypeface and mMetricsTextSize
+    private Paint.FontMetrics mFontMetrics;
+    private Paint.FontMetricsInt mFontMetricsInt;
+    private Typeface mMetricsTypeface;
+    private float mMetricsTextSize;
+
     public TextPaintPlus() {
         super();
     }
@@ -43,6 +52,36 @@ public class TextPaintPlus extends TextPaint {
         mShadowLayerColor = tpp.getShadowLayerColor();
     }
 
+    /**
+     * Same as getFontMetrics() but without a native call or a new object each
+     * time. The metrics are shared, so don't modify them.
+     */
+    public Paint.FontMetrics getCachedFontMetrics() {
+        updateFontMetrics();
+        return mFontMetrics;
+    }
+
+    /**
+     * Same as getFontMetricsInt() but shared, so don't modify it.
+     */
+    public Paint.FontMetricsInt getCachedFontMetricsInt() {
+        updateFontMetrics();
+        return mFontMetricsInt;
+    }
+
+    private void updateFontMetrics() {
+        final Typeface typeface = getTypeface();
+        final float textSize = getTextSize();
+        if (mFontMetrics != null && typeface == mMetricsTypeface && textSize == mMetricsTextSize) {
+            return;
+        }
+        MongolFont.Metrics metrics = MongolFont.getMetrics(this);
+        mFontMetrics = metrics.fontMetrics;
+        mFontMetricsInt = metrics.fontMetricsInt;
+        mMetricsTypeface = typeface;
+        mMetricsTextSize = textSize;
+    }
+
     public void setStrokeColor(@ColorInt int color) {
         this.strokeColor = color;
         //clearShadowLayer();
@@ -80,6 +119,34 @@ public class TextPaintPlus extends TextPaint {
         super.reset();
     }
 
+    /**
+     * @return true if text measured with the other paint gets the same widths
+     * and line breaks as with this one. Colors and shadows are not compared.
+     */
+    public boolean equalsForLayout(TextPaintPlus other) {
+        if (other == this) return true;
+        if (other == null) return false;
+        if (getTextSize() != other.getTextSize()
+                || getTypeface() != other.getTypeface()
+                || getTextScaleX() != other.getTextScaleX()
+                || getTextSkewX() != other.getTextSkewX()
+                || getFlags() != other.getFlags()
+                || getStyle() != other.getStyle()
+                || getStrokeWidth() != other.getStrokeWidth()) {
+            return false;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1
+                && !getTextLocale().equals(other.getTextLocale())) {
+            return false;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                && (getLetterSpacing() != other.getLetterSpacing()
+                || !TextUtils.equals(getFontFeatureSettings(), other.getFontFeatureSettings()))) {
+            return false;
+        }
+        return true;
+    }
+
     public boolean hasStroke() {
         return getStrokeWidth() > 0 && strokeColor != Color.TRANSPARENT;
     }
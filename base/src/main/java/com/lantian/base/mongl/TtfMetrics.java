@@ -0,0 +1,390 @@
+package com.lantian.base.mongl;
+
+// Reads the horizontal metrics of a TrueType or OpenType font file (the head,
+// hhea, maxp, hmtx and cmap tables) with plain Java, so that glyph text can be
+// measured and broken into lines without Android: in unit tests, in benchmarks
+// or when paginating books on a server. The file is memory-mapped and only these
+// tables are read, the outlines are never touched.
+//
+// The advances of the Menksoft PUA glyphs (the glyphs that MongolCode renders
+// to) are kept in a table for each text size. Other chars are looked up in the
+// cmap. Kerning and the OpenType layout tables are ignored, and Paint may round
+// advances to whole pixels, so widths can differ from Paint by a fraction of a
+// pixel per glyph.
+//
+// Usage:
+//
+//     TtfMetrics metrics = TtfMetrics.read(new File("MQG8F02.ttf"));
+//     TextMeasurer measurer = metrics.newMeasurer(textSize);
+//     MongolLayout layout = new MongolLayout(glyphText, measurer, height, 1, 0);
+
+import com.lantian.base.utils.CloseUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+public final class TtfMetrics {
+
+    // the glyphs of the Menksoft code
+    public static final char MENKSOFT_START = '\uE234';
+    public static final char MENKSOFT_END = '\uE34F';
+
+    private static final int TAG_HEAD = 0x68656164;
+    private static final int TAG_HHEA = 0x68686561;
+    private static final int TAG_MAXP = 0x6D617870;
+    private static final int TAG_HMTX = 0x686D7478;
+    private static final int TAG_CMAP = 0x636D6170;
+
+    private static final int SFNT_TRUETYPE = 0x00010000;
+    private static final int SFNT_OPENTYPE = 0x4F54544F; // OTTO
+    private static final int SFNT_APPLE = 0x74727565;    // true
+
+    private static final int NO_GLYPH = 0;
+
+    private final int mUnitsPerEm;
+    private final int mYMin;
+    private final int mYMax;
+    private final int mAscender;
+    private final int mDescender;
+    private final int mLineGap;
+    private final int[] mAdvances;    // by glyph id, in font units
+    private final char[] mBmpGlyphs;  // glyph ids of the BMP chars
+    private final int[] mSupplementaryGroups; // (first char, last char, first glyph) triples
+
+    private TtfMetrics(ByteBuffer font) throws IOException {
+        final int version = font.getInt(0);
+        if (version != SFNT_TRUETYPE && version != SFNT_OPENTYPE && version != SFNT_APPLE) {
+            throw new IOException("Not a TrueType or OpenType font: 0x" + Integer.toHexString(version));
+        }
+
+        final int head = findTable(font, TAG_HEAD);
+        mUnitsPerEm = readUInt16(font, head + 18);
+        if (mUnitsPerEm == 0) throw new IOException("unitsPerEm is 0");
+        mYMin = font.getShort(head + 38);
+        mYMax = font.getShort(head + 42);
+
+        final int hhea = findTable(font, TAG_HHEA);
+        mAscender = font.getShort(hhea + 4);
+        mDescender = font.getShort(hhea + 6);
+        mLineGap = font.getShort(hhea + 8);
+        final int numberOfHMetrics = readUInt16(font, hhea + 34);
+        if (numberOfHMetrics == 0) throw new IOException("The font has no horizontal metrics");
+
+        final int numGlyphs = readUInt16(font, findTable(font, TAG_MAXP) + 4);
+        final int hmtx = findTable(font, TAG_HMTX);
+        mAdvances = new int[Math.max(numGlyphs, numberOfHMetrics)];
+        for (int glyph = 0; glyph < mAdvances.length; glyph++) {
+            // the glyphs after numberOfHMetrics have the advance of the last one
+            final int metric = Math.min(glyph, numberOfHMetrics - 1);
+            mAdvances[glyph] = readUInt16(font, hmtx + 4 * metric);
+        }
+
+        mBmpGlyphs = new char[0x10000];
+        mSupplementaryGroups = readCmap(font, findTable(font, TAG_CMAP), mBmpGlyphs);
+    }
+
+    /**
+     * Memory-maps and reads a font file.
+     */
+    public static TtfMetrics read(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            CloseUtils.closeIOQuietly(randomAccessFile);
+        }
+    }
+
+    /**
+     * @param font the whole font file, for example the bytes of an asset
+     */
+    public static TtfMetrics read(ByteBuffer font) throws IOException {
+        ByteBuffer buffer = font.duplicate().order(ByteOrder.BIG_ENDIAN);
+        buffer.position(0);
+        try {
+            return new TtfMetrics(buffer.slice());
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("The font file is truncated", e);
+        }
+    }
+
+    // returns the offset of the table from the table directory
+    private static int findTable(ByteBuffer font, int tag) throws IOException {
+        final int numTables = readUInt16(font, 4);
+        for (int i = 0; i < numTables; i++) {
+            final int record = 12 + 16 * i;
+            if (font.getInt(record) == tag) {
+                return font.getInt(record + 8);
+            }
+        }
+        throw new IOException("The font has no '" + tagToString(tag) + "' table");
+    }
+
+    private static String tagToString(int tag) {
+        return new String(new char[]{
+                (char) (tag >>> 24), (char) ((tag >>> 16) & 0xFF),
+                (char) ((tag >>> 8) & 0xFF), (char) (tag & 0xFF)});
+    }
+
+    private static int readUInt16(ByteBuffer font, int offset) {
+        return font.getShort(offset) & 0xFFFF;
+    }
+
+    // Fills bmpGlyphs from the best Unicode subtable and returns the groups of the
+    // chars outside the BMP (empty if the subtable has none).
+    private static int[] readCmap(ByteBuffer font, int cmap, char[] bmpGlyphs) throws IOException {
+        final int numTables = readUInt16(font, cmap + 2);
+        int bestSubtable = -1;
+        int bestScore = 0;
+        for (int i = 0; i < numTables; i++) {
+            final int record = cmap + 4 + 8 * i;
+            final int subtable = cmap + font.getInt(record + 4);
+            final int score = scoreSubtable(readUInt16(font, record), readUInt16(font, record + 2),
+                    readUInt16(font, subtable));
+            if (score > bestScore) {
+                bestScore = score;
+                bestSubtable = subtable;
+            }
+        }
+        if (bestSubtable < 0) throw new IOException("The font has no supported cmap subtable");
+
+        if (readUInt16(font, bestSubtable) == 4) {
+            readCmapFormat4(font, bestSubtable, bmpGlyphs);
+            return new int[0];
+        }
+        return readCmapFormat12(font, bestSubtable, bmpGlyphs);
+    }
+
+    // full Unicode before BMP Unicode before symbol, 0 if the subtable can't be used
+    private static int scoreSubtable(int platformId, int encodingId, int format) {
+        if (format != 4 && format != 12) return 0;
+        if (platformId == 3) { // Windows
+            if (encodingId == 10) return 4;
+            if (encodingId == 1) return 3;
+            if (encodingId == 0) return 1; // symbol
+        } else if (platformId == 0) { // Unicode
+            return (format == 12) ? 4 : 2;
+        }
+        return 0;
+    }
+
+    private static void readCmapFormat4(ByteBuffer font, int subtable, char[] bmpGlyphs) {
+        final int segCount = readUInt16(font, subtable + 6) / 2;
+        final int endCodes = subtable + 14;
+        final int startCodes = endCodes + 2 * segCount + 2; // after reservedPad
+        final int idDeltas = startCodes + 2 * segCount;
+        final int idRangeOffsets = idDeltas + 2 * segCount;
+        for (int segment = 0; segment < segCount; segment++) {
+            final int end = readUInt16(font, endCodes + 2 * segment);
+            final int start = readUInt16(font, startCodes + 2 * segment);
+            final int delta = font.getShort(idDeltas + 2 * segment);
+            final int rangeOffsetAddress = idRangeOffsets + 2 * segment;
+            final int rangeOffset = readUInt16(font, rangeOffsetAddress);
+            for (int c = start; c <= end && c < 0xFFFF; c++) {
+                int glyph;
+                if (rangeOffset == 0) {
+                    glyph = (c + delta) & 0xFFFF;
+                } else {
+                    // the offset is relative to its own position in idRangeOffset
+                    glyph = readUInt16(font, rangeOffsetAddress + rangeOffset + 2 * (c - start));
+                    if (glyph != NO_GLYPH) glyph = (glyph + delta) & 0xFFFF;
+                }
+                bmpGlyphs[c] = (char) glyph;
+            }
+        }
+    }
+
+    private static int[] readCmapFormat12(ByteBuffer font, int subtable, char[] bmpGlyphs) {
+        final int numGroups = font.getInt(subtable + 12);
+        final int[] supplementary = new int[3 * numGroups];
+        int supplementaryLength = 0;
+        for (int i = 0; i < numGroups; i++) {
+            final int group = subtable + 16 + 12 * i;
+            final int first = font.getInt(group);
+            final int last = font.getInt(group + 4);
+            final int firstGlyph = font.getInt(group + 8);
+            for (int c = first; c <= last && c <= 0xFFFF; c++) {
+                bmpGlyphs[c] = (char) (firstGlyph + c - first);
+            }
+            if (last > 0xFFFF) {
+                supplementary[supplementaryLength++] = Math.max(first, 0x10000);
+                supplementary[supplementaryLength++] = last;
+                supplementary[supplementaryLength++] = firstGlyph + Math.max(0, 0x10000 - first);
+            }
+        }
+        final int[] groups = new int[supplementaryLength];
+        System.arraycopy(supplementary, 0, groups, 0, supplementaryLength);
+        return groups;
+    }
+
+    public int getUnitsPerEm() {
+        return mUnitsPerEm;
+    }
+
+    /**
+     * @return the glyph id of the code point, or 0 (.notdef) if the font doesn't have it
+     */
+    public int getGlyphId(int codePoint) {
+        if (codePoint < 0x10000) {
+            final int glyph = mBmpGlyphs[codePoint];
+            return (glyph < mAdvances.length) ? glyph : NO_GLYPH;
+        }
+        // the groups are sorted by char
+        int low = 0;
+        int high = mSupplementaryGroups.length / 3 - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int group = 3 * mid;
+            if (codePoint < mSupplementaryGroups[group]) {
+                high = mid - 1;
+            } else if (codePoint > mSupplementaryGroups[group + 1]) {
+                low = mid + 1;
+            } else {
+                final int glyph = mSupplementaryGroups[group + 2] + codePoint - mSupplementaryGroups[group];
+                return (glyph < mAdvances.length) ? glyph : NO_GLYPH;
+            }
+        }
+        return NO_GLYPH;
+    }
+
+    public boolean hasGlyph(int codePoint) {
+        return getGlyphId(codePoint) != NO_GLYPH;
+    }
+
+    /**
+     * @return the advance in font units (the .notdef advance for missing chars)
+     */
+    public int getAdvanceUnits(int codePoint) {
+        return mAdvances[getGlyphId(codePoint)];
+    }
+
+    /**
+     * @return the advances of the chars from first to last for the text size
+     */
+    public float[] getAdvances(char first, char last, float textSize) {
+        final float scale = textSize / mUnitsPerEm;
+        final float[] advances = new float[last - first + 1];
+        for (int c = first; c <= last; c++) {
+            advances[c - first] = getAdvanceUnits(c) * scale;
+        }
+        return advances;
+    }
+
+    /**
+     * @return the advances of the Menksoft glyphs, indexed by char - MENKSOFT_START
+     */
+    public float[] getMenksoftAdvances(float textSize) {
+        return getAdvances(MENKSOFT_START, MENKSOFT_END, textSize);
+    }
+
+    // Like Paint.FontMetrics, from the font bounding box (top and bottom) and the
+    // hhea table (ascent, descent and leading).
+
+    public float getTop(float textSize) {
+        return -mYMax * textSize / mUnitsPerEm;
+    }
+
+    public float getAscent(float textSize) {
+        return -mAscender * textSize / mUnitsPerEm;
+    }
+
+    public float getDescent(float textSize) {
+        return -mDescender * textSize / mUnitsPerEm;
+    }
+
+    public float getBottom(float textSize) {
+        return -mYMin * textSize / mUnitsPerEm;
+    }
+
+    public float getLeading(float textSize) {
+        return mLineGap * textSize / mUnitsPerEm;
+    }
+
+    /**
+     * @return a measurer for text of this font at the text size (in pixels)
+     */
+    public TextMeasurer newMeasurer(float textSize) {
+        return new Measurer(this, textSize);
+    }
+
+    // Measurers are immutable, so one can be shared by threads that lay out
+    // different books with the same font and size.
+    private static final class Measurer implements TextMeasurer {
+
+        private final TtfMetrics mMetrics;
+        private final float mScale;
+        private final float[] mMenksoftAdvances;
+        private final float mTop;
+        private final float mAscent;
+        private final float mDescent;
+        private final float mBottom;
+
+        Measurer(TtfMetrics metrics, float textSize) {
+            mMetrics = metrics;
+            mScale = textSize / metrics.mUnitsPerEm;
+            mMenksoftAdvances = metrics.getMenksoftAdvances(textSize);
+            mTop = metrics.getTop(textSize);
+            mAscent = metrics.getAscent(textSize);
+            mDescent = metrics.getDescent(textSize);
+            mBottom = metrics.getBottom(textSize);
+        }
+
+        private float getAdvance(int codePoint) {
+            if (codePoint >= MENKSOFT_START && codePoint <= MENKSOFT_END) {
+                return mMenksoftAdvances[codePoint - MENKSOFT_START];
+            }
+            return mMetrics.getAdvanceUnits(codePoint) * mScale;
+        }
+
+        @Override
+        public float measureText(CharSequence text, int start, int end) {
+            float width = 0;
+            for (int i = start; i < end; ) {
+                final int codePoint = Character.codePointAt(text, i);
+                width += getAdvance(codePoint);
+                i += Character.charCount(codePoint);
+            }
+            return width;
+        }
+
+        @Override
+        public int breakText(CharSequence text, int start, int end, float maxWidth, float[] measuredWidth) {
+            float width = 0;
+            int i = start;
+            while (i < end) {
+                final int codePoint = Character.codePointAt(text, i);
+                final float advance = getAdvance(codePoint);
+                if (width + advance > maxWidth) break;
+                width += advance;
+                i += Character.charCount(codePoint);
+            }
+            if (measuredWidth != null) measuredWidth[0] = width;
+            return i - start;
+        }
+
+        @Override
+        public float getTop() {
+            return mTop;
+        }
+
+        @Override
+        public float getAscent() {
+            return mAscent;
+        }
+
+        @Override
+        public float getDescent() {
+            return mDescent;
+        }
+
+        @Override
+        public float getBottom() {
+            return mBottom;
+        }
+    }
+}
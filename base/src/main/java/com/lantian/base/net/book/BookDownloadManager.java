@@ -0,0 +1,424 @@
+package com.lantian.base.net.book;
+
+import com.lantian.base.net.retrofit.RetrofitUtils;
+import com.lantian.base.utils.CloseUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.FlowableEmitter;
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+import okhttp3.Call;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.HashingSource;
+import okio.Okio;
+
+/**
+ * 下载整本书用于离线阅读
+ * 书的UTF-8文本每次读取64K写入&lt;rootDir&gt;/&lt;bookId&gt;/book.txt.part，内存占用固定；
+ * 中断后用Range和If-Range从已下载的位置继续，完成后检查长度和SHA-256再改名为book.txt。
+ * 同时下载的书不超过maxParallel本，其它的排队。
+ * <p>
+ * 进度用Flowable发出，处理不过来时只保留最新的进度；
+ * OnTextListener在下载线程上收到完整的段落，可以边下载边用MongolPaginator.shape()转换，
+ * 它返回之前不会继续下载
+ */
+public class BookDownloadManager {
+
+    public static final String BOOK_FILE_NAME = "book.txt";
+    private static final String PART_SUFFIX = ".part";
+    // 保存ETag或Last-Modified，继续下载时用于If-Range
+    private static final String VALIDATOR_SUFFIX = ".validator";
+    private static final int SEGMENT_SIZE = 64 * 1024;
+    // 凑够这么多字符再交给OnTextListener
+    private static final int MIN_TEXT_LENGTH = 16 * 1024;
+    private static final long READ_TIMEOUT_SECONDS = 60;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public interface OnTextListener {
+        /**
+         * 在下载线程上调用，text在段落结尾或空格处分开，所有text连起来就是整本书
+         */
+        void onText(String text);
+    }
+
+    public static final class Progress {
+        public final String bookId;
+        public final long downloadedBytes;
+        // 未知时是-1
+        public final long totalBytes;
+        // 下载完成并检查通过后的文件，没完成时是null
+        public final File file;
+
+        Progress(String bookId, long downloadedBytes, long totalBytes, File file) {
+            this.bookId = bookId;
+            this.downloadedBytes = downloadedBytes;
+            this.totalBytes = totalBytes;
+            this.file = file;
+        }
+
+        public boolean isComplete() {
+            return file != null;
+        }
+    }
+
+    private final File mRootDir;
+    private final OkHttpClient mClient;
+    private final ExecutorService mExecutor;
+    private final Scheduler mScheduler;
+    private final Map<String, Flowable<Progress>> mDownloads = new HashMap<>();
+
+    /**
+     * @param rootDir     保存书的目录，每本书一个子目录
+     * @param maxParallel 最多同时下载几本书
+     */
+    public BookDownloadManager(File rootDir, int maxParallel) {
+        this(rootDir, RetrofitUtils.getUncachedOkHttpClientBuilder()
+                .readTimeout(READ_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .build(), maxParallel);
+    }
+
+    /**
+     * @param client 测试时可以传入连接mockwebserver的client
+     */
+    public BookDownloadManager(File rootDir, OkHttpClient client, int maxParallel) {
+        mRootDir = rootDir;
+        mClient = client;
+        // 每本书下载时占用一个线程，线程数就是并发数
+        mExecutor = Executors.newFixedThreadPool(maxParallel, runnable -> {
+            Thread thread = new Thread(runnable, "BookDownload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        mScheduler = Schedulers.from(mExecutor);
+    }
+
+    public File getBookFile(String bookId) {
+        return new File(new File(mRootDir, bookId), BOOK_FILE_NAME);
+    }
+
+    public boolean isDownloaded(String bookId) {
+        return getBookFile(bookId).exists();
+    }
+
+    /**
+     * 下载一本书，已下载时直接完成
+     * 同一本书正在下载时返回同一个Flowable，listener只用第一次传入的；
+     * 所有订阅者都取消后停止下载，已下载的部分留着下次继续
+     *
+     * @param url      书的UTF-8文本，服务器要支持Range
+     * @param sha256   文件的SHA-256（十六进制），null时只检查长度
+     * @param listener 可以为null
+     */
+    public synchronized Flowable<Progress> download(final String bookId, final HttpUrl url,
+                                                    final String sha256, final OnTextListener listener) {
+        Flowable<Progress> download = mDownloads.get(bookId);
+        if (download == null) {
+            download = Flowable.<Progress>create(emitter -> run(bookId, url, sha256, listener, emitter),
+                    BackpressureStrategy.LATEST)
+                    .subscribeOn(mScheduler)
+                    .doFinally(() -> removeDownload(bookId))
+                    .replay(1)
+                    .refCount();
+            mDownloads.put(bookId, download);
+        }
+        return download;
+    }
+
+    private synchronized void removeDownload(String bookId) {
+        mDownloads.remove(bookId);
+    }
+
+    private void run(String bookId, HttpUrl url, String sha256, OnTextListener listener,
+                     FlowableEmitter<Progress> emitter) {
+        try {
+            download(bookId, url, sha256, listener, emitter);
+        } catch (IOException e) {
+            // 取消时OkHttp也会抛出IOException，这时已经没有订阅者了
+            emitter.tryOnError(e);
+        }
+    }
+
+    private void download(String bookId, HttpUrl url, String sha256, OnTextListener listener,
+                          FlowableEmitter<Progress> emitter) throws IOException {
+        final File bookFile = getBookFile(bookId);
+        final File dir = bookFile.getParentFile();
+        if (bookFile.exists()) {
+            if (listener != null) {
+                decodeFile(bookFile, new TextDecoder(listener), true);
+            }
+            emitter.onNext(new Progress(bookId, bookFile.length(), bookFile.length(), bookFile));
+            emitter.onComplete();
+            return;
+        }
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Can't create " + dir);
+        }
+        final File partFile = new File(dir, BOOK_FILE_NAME + PART_SUFFIX);
+        final File validatorFile = new File(dir, BOOK_FILE_NAME + PART_SUFFIX + VALIDATOR_SUFFIX);
+        final String validator = readValidator(validatorFile);
+        long offset = (validator != null && partFile.exists()) ? partFile.length() : 0;
+
+        Request.Builder builder = new Request.Builder().url(url);
+        if (offset > 0) {
+            builder.header("Range", "bytes=" + offset + "-");
+            builder.header("If-Range", validator);
+        }
+        final Call call = mClient.newCall(builder.build());
+        emitter.setCancellable(call::cancel);
+        final Response response = call.execute();
+        BufferedSink sink = null;
+        try {
+            final ResponseBody body = response.body();
+            if (body == null || (response.code() != 200 && response.code() != 206)) {
+                if (response.code() == 416) {
+                    // 已下载的部分和服务器上的文件对不上，下次重新下载
+                    deleteQuietly(partFile, validatorFile);
+                }
+                throw new IOException("HTTP " + response.code() + " for " + url);
+            }
+            final long total;
+            final boolean resumed = response.code() == 206 && offset > 0;
+            if (resumed) {
+                total = getTotalLength(response, offset + body.contentLength());
+            } else {
+                // 服务器不支持Range或者文件已经变了，从头下载
+                offset = 0;
+                total = body.contentLength();
+                writeValidator(validatorFile, response);
+            }
+
+            TextDecoder decoder = listener != null ? new TextDecoder(listener) : null;
+            if (decoder != null && resumed) {
+                decodeFile(partFile, decoder, false);
+            }
+
+            sink = Okio.buffer(resumed ? Okio.appendingSink(partFile) : Okio.sink(partFile));
+            final BufferedSource source = body.source();
+            final Buffer buffer = new Buffer();
+            final byte[] bytes = new byte[SEGMENT_SIZE];
+            long downloaded = offset;
+            long read;
+            while ((read = source.read(buffer, SEGMENT_SIZE)) != -1) {
+                if (emitter.isCancelled()) {
+                    return;
+                }
+                while (!buffer.exhausted()) {
+                    final int count = buffer.read(bytes, 0, bytes.length);
+                    sink.write(bytes, 0, count);
+                    if (decoder != null) {
+                        decoder.feed(bytes, count);
+                    }
+                }
+                downloaded += read;
+                emitter.onNext(new Progress(bookId, downloaded, total, null));
+            }
+            sink.close();
+            sink = null;
+            if (decoder != null) {
+                decoder.finish();
+            }
+
+            verify(partFile, validatorFile, total, sha256);
+            if (!partFile.renameTo(bookFile)) {
+                throw new IOException("Can't rename " + partFile);
+            }
+            deleteQuietly(validatorFile);
+            emitter.onNext(new Progress(bookId, downloaded, downloaded, bookFile));
+            emitter.onComplete();
+        } finally {
+            CloseUtils.closeIOQuietly(sink);
+            response.close();
+        }
+    }
+
+    // Content-Range: bytes 100-999/1000
+    private static long getTotalLength(Response response, long fallback) {
+        String contentRange = response.header("Content-Range");
+        if (contentRange != null) {
+            int slash = contentRange.lastIndexOf('/');
+            if (slash >= 0) {
+                try {
+                    return Long.parseLong(contentRange.substring(slash + 1).trim());
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        return fallback;
+    }
+
+    private static void verify(File partFile, File validatorFile, long total, String sha256)
+            throws IOException {
+        if (total >= 0 && partFile.length() != total) {
+            deleteQuietly(partFile, validatorFile);
+            throw new IOException("Expected " + total + " bytes but got " + partFile.length());
+        }
+        if (sha256 == null) {
+            return;
+        }
+        HashingSource hashingSource = HashingSource.sha256(Okio.source(partFile));
+        BufferedSource source = Okio.buffer(hashingSource);
+        try {
+            source.readAll(Okio.blackhole());
+        } finally {
+            source.close();
+        }
+        final String actual = hashingSource.hash().hex();
+        if (!actual.equalsIgnoreCase(sha256)) {
+            deleteQuietly(partFile, validatorFile);
+            throw new IOException("SHA-256 mismatch: expected " + sha256 + " but got " + actual);
+        }
+    }
+
+    private static void decodeFile(File file, TextDecoder decoder, boolean finish) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            final byte[] bytes = new byte[SEGMENT_SIZE];
+            int count;
+            while ((count = in.read(bytes)) != -1) {
+                decoder.feed(bytes, count);
+            }
+        } finally {
+            CloseUtils.closeIOQuietly(in);
+        }
+        if (finish) {
+            decoder.finish();
+        }
+    }
+
+    private static String readValidator(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+            final String line = reader.readLine();
+            return line == null || line.isEmpty() ? null : line;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            CloseUtils.closeIOQuietly(reader);
+        }
+    }
+
+    // 没有ETag和Last-Modified时不能安全地继续下载，中断后从头开始
+    private static void writeValidator(File file, Response response) throws IOException {
+        String validator = response.header("ETag");
+        if (validator == null) {
+            validator = response.header("Last-Modified");
+        }
+        if (validator == null) {
+            deleteQuietly(file);
+            return;
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF_8);
+        try {
+            writer.write(validator);
+        } finally {
+            CloseUtils.closeIOQuietly(writer);
+        }
+    }
+
+    private static void deleteQuietly(File... files) {
+        for (File file : files) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    /**
+     * 把UTF-8字节解码成文本，凑够一段再交给OnTextListener，
+     * 不会把一个字符或一个词分到两段里
+     */
+    private static final class TextDecoder {
+        private final OnTextListener mListener;
+        private final CharsetDecoder mDecoder = UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        // UTF-8解码出的char不会比字节多，所以mChars不会溢出
+        private final ByteBuffer mBytes = ByteBuffer.allocate(SEGMENT_SIZE);
+        private final CharBuffer mChars = CharBuffer.allocate(SEGMENT_SIZE);
+        private final StringBuilder mPending = new StringBuilder();
+
+        TextDecoder(OnTextListener listener) {
+            mListener = listener;
+        }
+
+        void feed(byte[] bytes, int length) {
+            int offset = 0;
+            while (offset < length) {
+                final int count = Math.min(length - offset, mBytes.remaining());
+                mBytes.put(bytes, offset, count);
+                offset += count;
+                decode(false);
+            }
+            deliver(false);
+        }
+
+        void finish() {
+            decode(true);
+            mDecoder.flush(mChars);
+            appendChars();
+            deliver(true);
+        }
+
+        private void decode(boolean endOfInput) {
+            mBytes.flip();
+            mDecoder.decode(mBytes, mChars, endOfInput);
+            mBytes.compact();
+            appendChars();
+        }
+
+        private void appendChars() {
+            mChars.flip();
+            mPending.append(mChars);
+            mChars.clear();
+        }
+
+        private void deliver(boolean all) {
+            if (mPending.length() == 0 || (!all && mPending.length() < MIN_TEXT_LENGTH)) {
+                return;
+            }
+            int end = mPending.length();
+            if (!all) {
+                end = mPending.lastIndexOf("\n") + 1;
+                if (end == 0) {
+                    end = mPending.lastIndexOf(" ") + 1;
+                }
+                if (end == 0) {
+                    return;
+                }
+            }
+            mListener.onText(mPending.substring(0, end));
+            mPending.delete(0, end);
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package com.lantian.base.net.book;
+
+import android.util.LruCache;
+
+import com.lantian.base.common.BaseResponse;
+import com.lantian.base.common.bean.GetBook;
+import com.lantian.base.db.BookEntity;
+import com.lantian.base.db.BookStore;
+import com.lantian.base.db.ChapterEntity;
+import com.lantian.base.net.retrofit.RetrofitHelper;
+import com.lantian.base.net.retrofit.api.book.getBook;
+import com.lantian.base.net.retrofit.exception.NoDataExceptionException;
+import com.lantian.base.utils.AppSchedulers;
+import com.lantian.base.utils.LogUtils;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.reactivex.Maybe;
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+
+/**
+ * 图书数据的唯一入口，ViewModel不再直接调用RetrofitHelper
+ * 按 内存LRU -> 磁盘(BookStore) -> 网络 的顺序查找，网络的结果写回内存和磁盘，
+ * 切换页面或旋转屏幕时直接从内存返回；
+ * 同一本书或同一章同时只会加载一次，后来的订阅者共享结果；
+ * 内容有变化时调用invalidate()或refreshBook()
+ * <p>
+ * 用法：
+ * <pre>
+ * BookRepository.getInstance().getBook(name)
+ *         .observeOn(AndroidSchedulers.mainThread())
+ *         .subscribe(chapters -> liveData.setValue(chapters), ...);
+ * </pre>
+ */
+public class BookRepository {
+
+    private static final String TAG = "BookRepository";
+
+    // 内存缓存的大小按内容的字符数计算
+    private static final int DEFAULT_BOOK_CACHE_CHARS = 4 * 1024 * 1024;
+    private static final int DEFAULT_CHAPTER_CACHE_CHARS = 1024 * 1024;
+    // 同时保留ChapterLoader的书数，一般只在读一两本
+    private static final int MAX_CHAPTER_LOADERS = 4;
+
+    private static volatile BookRepository sInstance;
+
+    private final getBook mApi;
+    private final Callable<BookStore> mStoreProvider;
+    private final Scheduler mScheduler;
+    private final Scheduler mShapeScheduler;
+    private final LruCache<String, Map<String, GetBook._$5Bean>> mBooks;
+    // 从磁盘读出的单独章节，网络加载的章节在ChapterLoader里
+    private final LruCache<String, GetBook._$5Bean> mChapters;
+    private final LruCache<String, ChapterLoader> mChapterLoaders;
+    private final Map<String, Observable<?>> mInFlight = new HashMap<>();
+    // invalidate()之后还没有重新保存的书，不再用磁盘上的旧内容
+    private final Set<String> mStaleBooks = Collections.synchronizedSet(new HashSet<String>());
+    private BookStore mStore;
+
+    public static BookRepository getInstance() {
+        if (sInstance == null) {
+            synchronized (BookRepository.class) {
+                if (sInstance == null) {
+                    // 数据库在第一次读写时才在io线程上打开，这里可能是主线程
+                    sInstance = new BookRepository(RetrofitHelper.getbook(), BookStore::getInstance,
+                            DEFAULT_BOOK_CACHE_CHARS, DEFAULT_CHAPTER_CACHE_CHARS,
+                            AppSchedulers.io(), AppSchedulers.cpu());
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param api            图书接口
+     * @param storeProvider  打开磁盘缓存，在scheduler上调用一次，测试时可以传null，只用内存和网络
+     * @param bookChars      内存中整本书的最大字符数
+     * @param chapterChars   内存中单独加载的章节的最大字符数
+     * @param scheduler      读写磁盘和请求网络的线程
+     * @param shapeScheduler 保存前转换字形的线程
+     */
+    public BookRepository(getBook api, Callable<BookStore> storeProvider, int bookChars,
+                          int chapterChars, Scheduler scheduler, Scheduler shapeScheduler) {
+        mApi = api;
+        mStoreProvider = storeProvider;
+        mScheduler = scheduler;
+        mShapeScheduler = shapeScheduler;
+        mBooks = new LruCache<String, Map<String, GetBook._$5Bean>>(bookChars) {
+            @Override
+            protected int sizeOf(String key, Map<String, GetBook._$5Bean> value) {
+                int size = 1;
+                for (GetBook._$5Bean chapter : value.values()) {
+                    size += BookRepository.sizeOf(chapter);
+                }
+                return size;
+            }
+        };
+        mChapters = new LruCache<String, GetBook._$5Bean>(chapterChars) {
+            @Override
+            protected int sizeOf(String key, GetBook._$5Bean value) {
+                return 1 + BookRepository.sizeOf(value);
+            }
+        };
+        mChapterLoaders = new LruCache<String, ChapterLoader>(MAX_CHAPTER_LOADERS) {
+            @Override
+            protected void entryRemoved(boolean evicted, String key, ChapterLoader oldValue,
+                                        ChapterLoader newValue) {
+                oldValue.cancel();
+            }
+        };
+    }
+
+    /**
+     * 整本书，key是章节序号
+     * 内存中有时在调用的线程上直接返回
+     */
+    public Observable<Map<String, GetBook._$5Bean>> getBook(final String ebookName) {
+        return Observable.defer(() -> {
+            Map<String, GetBook._$5Bean> book = mBooks.get(ebookName);
+            if (book != null) {
+                return Observable.just(book);
+            }
+            return singleFlight("book:" + ebookName, () -> loadBook(ebookName, false), false);
+        });
+    }
+
+    /**
+     * 一章，不在内存和磁盘中时由ChapterLoader请求这一章所在的几章，不下载整本书
+     */
+    public Observable<GetBook._$5Bean> getChapter(final String ebookName, final int index) {
+        return Observable.defer(() -> {
+            GetBook._$5Bean chapter = getCachedChapter(ebookName, index);
+            if (chapter != null) {
+                return Observable.just(chapter);
+            }
+            final Observable<GetBook._$5Bean> network = getChapterLoader(ebookName).getChapter(index);
+            if (mStoreProvider == null || mStaleBooks.contains(ebookName)) {
+                return network;
+            }
+            return Maybe.fromCallable(() -> readChapter(ebookName, index))
+                    .subscribeOn(mScheduler)
+                    .toObservable()
+                    .switchIfEmpty(network);
+        });
+    }
+
+    /**
+     * 阅读到某一章时调用，在后台预取后面的章节，预取的章节也会保存到磁盘
+     */
+    public void onChapterVisible(String ebookName, int index) {
+        if (mBooks.get(ebookName) == null) {
+            getChapterLoader(ebookName).onChapterVisible(index);
+        }
+    }
+
+    /**
+     * 只查内存，没有时返回null
+     */
+    public GetBook._$5Bean getCachedChapter(String ebookName, int index) {
+        Map<String, GetBook._$5Bean> book = mBooks.get(ebookName);
+        if (book != null) {
+            return book.get(String.valueOf(index));
+        }
+        GetBook._$5Bean chapter = mChapters.get(chapterKey(ebookName, index));
+        if (chapter != null) {
+            return chapter;
+        }
+        ChapterLoader loader = mChapterLoaders.get(ebookName);
+        return loader != null ? loader.getCachedChapter(index) : null;
+    }
+
+    /**
+     * 跳过内存和磁盘重新请求整本书，结果会替换缓存
+     */
+    public Observable<Map<String, GetBook._$5Bean>> refreshBook(final String ebookName) {
+        return Observable.defer(() -> {
+            invalidate(ebookName);
+            // 替换正在进行的加载，它可能正在读磁盘上的旧内容
+            return singleFlight("book:" + ebookName, () -> loadBook(ebookName, true), true);
+        });
+    }
+
+    /**
+     * 清除一本书在内存中的缓存，磁盘上的内容标记为未下载完成，
+     * 下次getBook()时从网络加载
+     */
+    public void invalidate(final String ebookName) {
+        mStaleBooks.add(ebookName);
+        mBooks.remove(ebookName);
+        mChapterLoaders.remove(ebookName);
+        final String prefix = ebookName + "#";
+        for (String key : mChapters.snapshot().keySet()) {
+            if (key.startsWith(prefix)) {
+                mChapters.remove(key);
+            }
+        }
+        if (mStoreProvider != null) {
+            mScheduler.scheduleDirect(() -> {
+                try {
+                    getStore().setDownloaded(ebookName, false);
+                } catch (Exception e) {
+                    LogUtils.e(TAG, "invalidate " + ebookName + ": " + e);
+                }
+            });
+        }
+    }
+
+    /**
+     * 清除所有内存缓存，比如内存不足时
+     */
+    public void trimMemory() {
+        mBooks.evictAll();
+        mChapters.evictAll();
+        mChapterLoaders.evictAll();
+    }
+
+    // 同一个key正在加载时返回同一个Observable，所有订阅者都取消后才取消加载；
+    // replace时总是开始新的加载，之前的订阅者不受影响
+    @SuppressWarnings("unchecked")
+    private synchronized <T> Observable<T> singleFlight(final String key,
+                                                        final Callable<Observable<T>> loader,
+                                                        boolean replace) {
+        Observable<T> request = replace ? null : (Observable<T>) mInFlight.get(key);
+        if (request == null) {
+            final AtomicReference<Observable<T>> self = new AtomicReference<>();
+            request = Observable.defer(loader)
+                    .doFinally(() -> removeInFlight(key, self.get()))
+                    .replay(1)
+                    .refCount();
+            self.set(request);
+            mInFlight.put(key, request);
+        }
+        return request;
+    }
+
+    private synchronized void removeInFlight(String key, Observable<?> request) {
+        if (mInFlight.get(key) == request) {
+            mInFlight.remove(key);
+        }
+    }
+
+    private synchronized ChapterLoader getChapterLoader(final String ebookName) {
+        ChapterLoader loader = mChapterLoaders.get(ebookName);
+        if (loader == null) {
+            loader = new ChapterLoader(mApi, ebookName, ChapterLoader.DEFAULT_CHUNK_SIZE,
+                    ChapterLoader.DEFAULT_PREFETCH_COUNT, ChapterLoader.DEFAULT_MAX_CONCURRENCY,
+                    mScheduler);
+            loader.setOnChunkLoadedListener(chapters -> saveChaptersAsync(ebookName, chapters));
+            mChapterLoaders.put(ebookName, loader);
+        }
+        return loader;
+    }
+
+    // 只在mScheduler上调用，第一次调用时打开数据库
+    private synchronized BookStore getStore() throws Exception {
+        if (mStore == null) {
+            mStore = mStoreProvider.call();
+        }
+        return mStore;
+    }
+
+    private Observable<Map<String, GetBook._$5Bean>> loadBook(final String ebookName,
+                                                              boolean skipDisk) {
+        Observable<Map<String, GetBook._$5Bean>> network = mApi.getBook(ebookName)
+                .subscribeOn(mScheduler)
+                .map(BookRepository::getData)
+                .doOnNext(book -> {
+                    mBooks.put(ebookName, book);
+                    saveBookAsync(ebookName, book);
+                });
+        if (skipDisk || mStoreProvider == null) {
+            return network;
+        }
+        return Observable.fromCallable(() -> readBook(ebookName))
+                .subscribeOn(mScheduler)
+                .flatMap(book -> {
+                    if (book.isEmpty() || mStaleBooks.contains(ebookName)) {
+                        return network;
+                    }
+                    mBooks.put(ebookName, book);
+                    return Observable.just(book);
+                });
+    }
+
+    // 在磁盘线程上调用，没有下载完成时返回空Map
+    private Map<String, GetBook._$5Bean> readBook(String ebookName) throws Exception {
+        BookStore store = getStore();
+        BookEntity book = store.getBook(ebookName);
+        if (book == null || !book.getDownloaded()) {
+            return Collections.emptyMap();
+        }
+        return toBeans(book.getAuthor(), store.getChapters(ebookName, 0, Integer.MAX_VALUE));
+    }
+
+    // 在磁盘线程上调用，没有时返回null
+    private GetBook._$5Bean readChapter(String ebookName, int index) throws Exception {
+        BookStore store = getStore();
+        ChapterEntity chapter = store.getChapter(ebookName, index);
+        if (chapter == null) {
+            return null;
+        }
+        BookEntity book = store.getBook(ebookName);
+        GetBook._$5Bean bean = toBean(book != null ? book.getAuthor() : null, chapter);
+        mChapters.put(chapterKey(ebookName, index), bean);
+        return bean;
+    }
+
+    private static Map<String, GetBook._$5Bean> toBeans(String author, List<ChapterEntity> chapters) {
+        Map<String, GetBook._$5Bean> beans = new LinkedHashMap<>(chapters.size() * 4 / 3 + 1);
+        for (ChapterEntity chapter : chapters) {
+            beans.put(String.valueOf(chapter.getOrdinal()), toBean(author, chapter));
+        }
+        return beans;
+    }
+
+    private static GetBook._$5Bean toBean(String author, ChapterEntity chapter) {
+        GetBook._$5Bean bean = new GetBook._$5Bean();
+        bean.setName(chapter.getName());
+        bean.setAuthor(author);
+        bean.setContent(chapter.getContent());
+        bean.setAddDate(chapter.getAddDate());
+        // 保存时已经转换过字形，显示时不用再转换
+        bean.setGlyphContent(chapter.getGlyphContent());
+        return bean;
+    }
+
+    // 订阅者不等保存；转换字形在计算线程上，写数据库在io线程上
+    private void saveBookAsync(final String ebookName, final Map<String, GetBook._$5Bean> book) {
+        if (mStoreProvider == null) {
+            return;
+        }
+        Single.fromCallable(() -> BookStore.toChapters(ebookName, book))
+                .subscribeOn(mShapeScheduler)
+                .observeOn(mScheduler)
+                .subscribe(chapters -> {
+                    String author = null;
+                    long length = 0;
+                    for (ChapterEntity chapter : chapters) {
+                        if (author == null) {
+                            author = book.get(String.valueOf(chapter.getOrdinal())).getAuthor();
+                        }
+                        length += chapter.getContent().length();
+                    }
+                    BookStore store = getStore();
+                    store.saveBook(new BookEntity(null, ebookName, ebookName, author, chapters.size(),
+                            length, false, System.currentTimeMillis()));
+                    store.saveChapters(chapters);
+                    store.setDownloaded(ebookName, true);
+                    mStaleBooks.remove(ebookName);
+                }, throwable -> LogUtils.e(TAG, "save " + ebookName + ": " + throwable));
+    }
+
+    private void saveChaptersAsync(final String ebookName, final Map<String, GetBook._$5Bean> chapters) {
+        if (mStoreProvider == null) {
+            return;
+        }
+        Single.fromCallable(() -> BookStore.toChapters(ebookName, chapters))
+                .subscribeOn(mShapeScheduler)
+                .observeOn(mScheduler)
+                .subscribe(entities -> getStore().saveChapters(entities),
+                        throwable -> LogUtils.e(TAG, "save " + ebookName + ": " + throwable));
+    }
+
+    private static Map<String, GetBook._$5Bean> getData(BaseResponse<Map<String, GetBook._$5Bean>> response)
+            throws NoDataExceptionException {
+        if (response.getData() == null) {
+            throw new NoDataExceptionException();
+        }
+        return response.getData();
+    }
+
+    private static String chapterKey(String ebookName, Object index) {
+        return ebookName + "#" + index;
+    }
+
+    private static int sizeOf(GetBook._$5Bean chapter) {
+        if (chapter == null) {
+            return 0;
+        }
+        return (chapter.getContent() != null ? chapter.getContent().length() : 0)
+                + (chapter.getGlyphContent() != null ? chapter.getGlyphContent().length() : 0);
+    }
+}
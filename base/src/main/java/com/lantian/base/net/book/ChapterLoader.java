@@ -0,0 +1,258 @@
+package com.lantian.base.net.book;
+
+import com.lantian.base.common.BaseResponse;
+import com.lantian.base.common.bean.GetBook;
+import com.lantian.base.net.retrofit.RetrofitHelper;
+import com.lantian.base.net.retrofit.api.book.getBook;
+import com.lantian.base.net.retrofit.exception.NoDataExceptionException;
+import com.lantian.base.utils.AppSchedulers;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.subjects.CompletableSubject;
+import io.reactivex.subjects.PublishSubject;
+import io.reactivex.subjects.Subject;
+
+/**
+ * 按章节分段加载一本书
+ * 每次请求连续的chunkSize章，不再一次下载整本书。
+ * 阅读时调用onChapterVisible()，后台预取后面prefetchCount章，
+ * 预取最多同时有maxConcurrency个请求；离开这本书时调用cancel()，
+ * 没完成的请求都会被取消。
+ * <p>
+ * 测试时用mockwebserver的地址创建getBook传进来，scheduler传Schedulers.trampoline()
+ */
+public class ChapterLoader {
+
+    public static final int DEFAULT_CHUNK_SIZE = 4;
+    public static final int DEFAULT_PREFETCH_COUNT = 8;
+    public static final int DEFAULT_MAX_CONCURRENCY = 2;
+
+    private final getBook mApi;
+    private final String mBookName;
+    private final int mChunkSize;
+    private final int mPrefetchCount;
+    private final Scheduler mScheduler;
+
+    // 已加载的章节，key是章节序号
+    private final Map<Integer, GetBook._$5Bean> mChapters = new ConcurrentHashMap<>();
+    // 已加载的段，key是段的第一章
+    private final Set<Integer> mLoadedChunks = Collections.synchronizedSet(new HashSet<>());
+    // 请求中的段，同一段只请求一次
+    private final Map<Integer, Observable<Map<String, GetBook._$5Bean>>> mInFlight = new HashMap<>();
+
+    private final Subject<Integer> mPrefetchQueue = PublishSubject.<Integer>create().toSerialized();
+    private final CompletableSubject mCancelSignal = CompletableSubject.create();
+    private final CompositeDisposable mDisposables = new CompositeDisposable();
+
+    // 最后一章之后的序号，知道之前是Integer.MAX_VALUE
+    private volatile int mEndIndex = Integer.MAX_VALUE;
+    private volatile boolean mCancelled;
+    private volatile OnChunkLoadedListener mOnChunkLoadedListener;
+
+    /**
+     * 一段章节加载完成，包括预取的，在请求的线程上调用
+     */
+    public interface OnChunkLoadedListener {
+        /**
+         * @param chapters 接口返回的data，key是章节序号
+         */
+        void onChunkLoaded(Map<String, GetBook._$5Bean> chapters);
+    }
+
+    public ChapterLoader(String ebookName) {
+        this(RetrofitHelper.getbook(), ebookName, DEFAULT_CHUNK_SIZE, DEFAULT_PREFETCH_COUNT,
+                DEFAULT_MAX_CONCURRENCY, AppSchedulers.io());
+    }
+
+    /**
+     * @param api            图书接口
+     * @param ebookName      书名
+     * @param chunkSize      每次请求的章数
+     * @param prefetchCount  当前章后面预取的章数
+     * @param maxConcurrency 预取的最大并发请求数
+     * @param scheduler      发请求的线程
+     */
+    public ChapterLoader(getBook api, String ebookName, int chunkSize, int prefetchCount,
+                         int maxConcurrency, Scheduler scheduler) {
+        if (chunkSize < 1 || prefetchCount < 0 || maxConcurrency < 1) {
+            throw new IllegalArgumentException("chunkSize " + chunkSize + ", prefetchCount "
+                    + prefetchCount + ", maxConcurrency " + maxConcurrency);
+        }
+        mApi = api;
+        mBookName = ebookName;
+        mChunkSize = chunkSize;
+        mPrefetchCount = prefetchCount;
+        mScheduler = scheduler;
+
+        // 预取失败不用处理，真正打开那一章时会重新请求
+        mDisposables.add(mPrefetchQueue
+                .flatMap(start -> loadChunk(start).onErrorResumeNext(Observable.empty()), maxConcurrency)
+                .subscribe(chapters -> {
+                }, throwable -> {
+                }));
+    }
+
+    /**
+     * 获取一章，已加载的直接返回，否则请求它所在的段
+     * 没有这一章时抛出NoDataExceptionException
+     *
+     * @param index 章节序号
+     */
+    public Observable<GetBook._$5Bean> getChapter(final int index) {
+        return Observable.defer(() -> {
+            GetBook._$5Bean chapter = mChapters.get(index);
+            if (chapter != null) {
+                return Observable.just(chapter);
+            }
+            if (index >= mEndIndex) {
+                return Observable.error(new NoDataExceptionException());
+            }
+            return loadChunk(getChunkStart(index))
+                    .ignoreElements()
+                    .andThen(Observable.defer(() -> {
+                        GetBook._$5Bean loaded = mChapters.get(index);
+                        return loaded != null
+                                ? Observable.just(loaded)
+                                : Observable.<GetBook._$5Bean>error(new NoDataExceptionException());
+                    }));
+        });
+    }
+
+    /**
+     * 已加载的章节，没有时返回null
+     */
+    public GetBook._$5Bean getCachedChapter(int index) {
+        return mChapters.get(index);
+    }
+
+    /**
+     * 阅读到某一章时调用，在后台预取后面的章节
+     *
+     * @param index 当前章节序号
+     */
+    public void onChapterVisible(int index) {
+        if (mCancelled) {
+            return;
+        }
+        final long last = Math.min((long) index + mPrefetchCount, (long) mEndIndex - 1);
+        for (long start = getChunkStart(index + 1); start <= last; start += mChunkSize) {
+            final int chunk = (int) start;
+            if (!mLoadedChunks.contains(chunk) && !isInFlight(chunk)) {
+                mPrefetchQueue.onNext(chunk);
+            }
+        }
+    }
+
+    /**
+     * 离开这本书时调用，取消所有请求，之后不再预取
+     * 已加载的章节仍然可以用getCachedChapter()获取
+     */
+    public void cancel() {
+        mCancelled = true;
+        mCancelSignal.onComplete();
+        mDisposables.dispose();
+        synchronized (this) {
+            mInFlight.clear();
+        }
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * 比如用来把加载的章节保存到磁盘
+     */
+    public void setOnChunkLoadedListener(OnChunkLoadedListener listener) {
+        mOnChunkLoadedListener = listener;
+    }
+
+    private int getChunkStart(int index) {
+        return index - index % mChunkSize;
+    }
+
+    private synchronized boolean isInFlight(int start) {
+        return mInFlight.containsKey(start);
+    }
+
+    private synchronized Observable<Map<String, GetBook._$5Bean>> loadChunk(final int start) {
+        if (mCancelled || mLoadedChunks.contains(start)) {
+            return Observable.empty();
+        }
+        Observable<Map<String, GetBook._$5Bean>> request = mInFlight.get(start);
+        if (request == null) {
+            // share()：所有订阅者都取消后才取消网络请求
+            request = mApi.getChapters(mBookName, start, mChunkSize)
+                    .subscribeOn(mScheduler)
+                    .map(ChapterLoader::getData)
+                    .doOnNext(chapters -> onChunkLoaded(start, chapters))
+                    .doFinally(() -> removeInFlight(start))
+                    .takeUntil(mCancelSignal.toObservable())
+                    .share();
+            mInFlight.put(start, request);
+        }
+        return request;
+    }
+
+    // data为null时也当作没有数据，不让null进入流里
+    private static Map<String, GetBook._$5Bean> getData(BaseResponse<Map<String, GetBook._$5Bean>> response)
+            throws NoDataExceptionException {
+        if (response.getData() == null) {
+            throw new NoDataExceptionException();
+        }
+        return response.getData();
+    }
+
+    private synchronized void removeInFlight(int start) {
+        mInFlight.remove(start);
+    }
+
+    private void onChunkLoaded(int start, Map<String, GetBook._$5Bean> chapters) {
+        OnChunkLoadedListener listener = mOnChunkLoadedListener;
+        if (listener != null) {
+            listener.onChunkLoaded(chapters);
+        }
+        final int end = start + mChunkSize;
+        int lastInChunk = start - 1;
+        int last = -1;
+        for (Map.Entry<String, GetBook._$5Bean> entry : chapters.entrySet()) {
+            final int index;
+            try {
+                index = Integer.parseInt(entry.getKey());
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (index < 0 || entry.getValue() == null) {
+                continue;
+            }
+            mChapters.put(index, entry.getValue());
+            last = Math.max(last, index);
+            if (index < end) {
+                lastInChunk = Math.max(lastInChunk, index);
+            }
+        }
+
+        if (last >= end) {
+            // 服务器不支持范围，返回了整本书
+            for (int chunk = 0; chunk <= last; chunk += mChunkSize) {
+                mLoadedChunks.add(chunk);
+            }
+            mEndIndex = Math.min(mEndIndex, last + 1);
+        } else {
+            mLoadedChunks.add(start);
+            if (lastInChunk < end - 1) {
+                // 这一段不满，书到这里结束
+                mEndIndex = Math.min(mEndIndex, lastInChunk + 1);
+            }
+        }
+    }
+}
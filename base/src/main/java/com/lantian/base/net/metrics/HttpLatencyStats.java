@@ -0,0 +1,105 @@
+package com.lantian.base.net.metrics;
+
+import com.lantian.base.utils.LatencyHistogram;
+import com.lantian.base.utils.MetricsSink;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HttpMetrics的默认实现，LoggingInterceptor默认记到这里
+ * 按接口路径记录发出请求到收到响应头的耗时，以及错误状态码、失败和响应字节数；
+ * 记录时不分配对象，publish()时才发到MetricsSink
+ * <p>
+ * 用法：
+ * <pre>
+ * HttpLatencyStats.getInstance().publish(new MetricsSink.LogSink("Http"));
+ * </pre>
+ */
+public final class HttpLatencyStats implements HttpMetrics {
+
+    private static final HttpLatencyStats sInstance = new HttpLatencyStats();
+
+    private final ConcurrentHashMap<String, Endpoint> mEndpoints = new ConcurrentHashMap<>();
+
+    public static HttpLatencyStats getInstance() {
+        return sInstance;
+    }
+
+    @Override
+    public void onResponse(String method, String path, int code, long tookNanos, long responseBytes) {
+        Endpoint endpoint = getEndpoint(path);
+        endpoint.latency.record(tookNanos);
+        if (code >= 400) {
+            endpoint.errors.incrementAndGet();
+        }
+        if (responseBytes > 0) {
+            endpoint.responseBytes.addAndGet(responseBytes);
+        }
+    }
+
+    @Override
+    public void onFailure(String method, String path, long tookNanos, IOException e) {
+        getEndpoint(path).failures.incrementAndGet();
+    }
+
+    public List<String> getPaths() {
+        List<String> paths = new ArrayList<>(mEndpoints.keySet());
+        Collections.sort(paths);
+        return paths;
+    }
+
+    /**
+     * @return 没有记录时返回null
+     */
+    public LatencyHistogram.Snapshot getLatency(String path) {
+        Endpoint endpoint = mEndpoints.get(path);
+        return endpoint != null ? endpoint.latency.snapshot() : null;
+    }
+
+    /**
+     * 把所有接口的统计发到sink，计时器的名字是接口路径，
+     * 计数器是"接口路径 errors"、"接口路径 failures"和"接口路径 received"
+     */
+    public void publish(MetricsSink sink) {
+        for (String path : getPaths()) {
+            Endpoint endpoint = mEndpoints.get(path);
+            sink.onTimer(path, endpoint.latency.snapshot());
+            sink.onCounter(path + " errors", endpoint.errors.get());
+            sink.onCounter(path + " failures", endpoint.failures.get());
+            sink.onCounter(path + " received", endpoint.responseBytes.get());
+        }
+    }
+
+    public void reset() {
+        for (Endpoint endpoint : mEndpoints.values()) {
+            endpoint.latency.reset();
+            endpoint.errors.set(0);
+            endpoint.failures.set(0);
+            endpoint.responseBytes.set(0);
+        }
+    }
+
+    private Endpoint getEndpoint(String path) {
+        Endpoint endpoint = mEndpoints.get(path);
+        if (endpoint == null) {
+            Endpoint created = new Endpoint();
+            endpoint = mEndpoints.putIfAbsent(path, created);
+            if (endpoint == null) {
+                endpoint = created;
+            }
+        }
+        return endpoint;
+    }
+
+    private static final class Endpoint {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong responseBytes = new AtomicLong();
+    }
+}
@@ -0,0 +1,27 @@
+package com.lantian.base.net.metrics;
+
+import java.io.IOException;
+
+/**
+ * 网络请求的统计
+ * 每个请求结束时调用，只传原始数值，不拼接字符串；
+ * 在OkHttp的线程上调用，实现要线程安全并且尽快返回
+ */
+public interface HttpMetrics {
+
+    /**
+     * 收到响应头
+     *
+     * @param method        请求方法
+     * @param path          接口路径，不含参数
+     * @param code          HTTP状态码
+     * @param tookNanos     从发出请求到收到响应头的时间
+     * @param responseBytes 响应体的长度，未知时是-1
+     */
+    void onResponse(String method, String path, int code, long tookNanos, long responseBytes);
+
+    /**
+     * 请求失败，没有收到响应
+     */
+    void onFailure(String method, String path, long tookNanos, IOException e);
+}
@@ -0,0 +1,178 @@
+package com.lantian.base.net.metrics;
+
+import com.lantian.base.utils.LatencyHistogram;
+import com.lantian.base.utils.MetricsSink;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按接口统计请求各阶段的耗时
+ * 由TimingEventListener和GsonResponseBodyConverter记录，接口用URL的路径区分；
+ * dump()输出每个接口每个阶段的直方图，可以看出MGetBook/的时间花在DNS、连接、
+ * 等待服务器、下载还是解析上
+ * <p>
+ * 用法：
+ * <pre>
+ * LogUtils.d("NetworkTimings", NetworkTimings.getInstance().dump());
+ * // 或者和MongolMetrics发到同一个sink
+ * NetworkTimings.getInstance().publish(sink);
+ * </pre>
+ */
+public final class NetworkTimings {
+
+    public enum Phase {
+        /** DNS查询 */
+        DNS,
+        /** 建立连接，包括TLS握手 */
+        CONNECT,
+        /** TLS握手 */
+        TLS,
+        /** 发送请求头和请求体 */
+        REQUEST,
+        /** 请求发完到收到响应头，服务器的处理时间 */
+        WAIT,
+        /** 读取响应体，边读边解析时包含解析的时间 */
+        BODY,
+        /** 转换器把响应体解析成对象 */
+        PARSE,
+        /** 整个请求 */
+        TOTAL,
+        /** 没有发出请求的调用，比如缓存命中 */
+        CACHED
+    }
+
+    private static final NetworkTimings sInstance = new NetworkTimings();
+
+    private final ConcurrentHashMap<String, Endpoint> mEndpoints = new ConcurrentHashMap<>();
+
+    public static NetworkTimings getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * @param path 接口路径，HttpUrl.encodedPath()
+     */
+    public void record(String path, Phase phase, long nanos) {
+        getEndpoint(path).histograms[phase.ordinal()].record(nanos);
+    }
+
+    void recordCall(String path, long requestBytes, long responseBytes, boolean failed) {
+        Endpoint endpoint = getEndpoint(path);
+        if (requestBytes > 0) {
+            endpoint.requestBytes.addAndGet(requestBytes);
+        }
+        if (responseBytes > 0) {
+            endpoint.responseBytes.addAndGet(responseBytes);
+        }
+        if (failed) {
+            endpoint.failures.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return 没有记录时返回null
+     */
+    public LatencyHistogram getHistogram(String path, Phase phase) {
+        Endpoint endpoint = mEndpoints.get(path);
+        return endpoint != null ? endpoint.histograms[phase.ordinal()] : null;
+    }
+
+    public List<String> getPaths() {
+        List<String> paths = new ArrayList<>(mEndpoints.keySet());
+        Collections.sort(paths);
+        return paths;
+    }
+
+    public long getRequestBytes(String path) {
+        Endpoint endpoint = mEndpoints.get(path);
+        return endpoint != null ? endpoint.requestBytes.get() : 0;
+    }
+
+    public long getResponseBytes(String path) {
+        Endpoint endpoint = mEndpoints.get(path);
+        return endpoint != null ? endpoint.responseBytes.get() : 0;
+    }
+
+    public long getFailureCount(String path) {
+        Endpoint endpoint = mEndpoints.get(path);
+        return endpoint != null ? endpoint.failures.get() : 0;
+    }
+
+    public void reset() {
+        for (Endpoint endpoint : mEndpoints.values()) {
+            for (LatencyHistogram histogram : endpoint.histograms) {
+                histogram.reset();
+            }
+            endpoint.requestBytes.set(0);
+            endpoint.responseBytes.set(0);
+            endpoint.failures.set(0);
+        }
+    }
+
+    /**
+     * 所有接口的统计，没有记录的阶段不输出
+     */
+    public String dump() {
+        StringBuilder out = new StringBuilder(512);
+        for (String path : getPaths()) {
+            Endpoint endpoint = mEndpoints.get(path);
+            out.append(path)
+                    .append(" sent=").append(endpoint.requestBytes.get()).append('B')
+                    .append(" received=").append(endpoint.responseBytes.get()).append('B')
+                    .append(" failed=").append(endpoint.failures.get())
+                    .append('\n');
+            for (Phase phase : Phase.values()) {
+                LatencyHistogram histogram = endpoint.histograms[phase.ordinal()];
+                if (histogram.getCount() > 0) {
+                    out.append("  ").append(phase).append(' ').append(histogram).append('\n');
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * 把所有接口的统计发到sink，计时器的名字是"接口路径 阶段"，
+     * 计数器是"接口路径 sent"、"接口路径 received"和"接口路径 failed"
+     */
+    public void publish(MetricsSink sink) {
+        for (String path : getPaths()) {
+            Endpoint endpoint = mEndpoints.get(path);
+            for (Phase phase : Phase.values()) {
+                sink.onTimer(path + ' ' + phase, endpoint.histograms[phase.ordinal()].snapshot());
+            }
+            sink.onCounter(path + " sent", endpoint.requestBytes.get());
+            sink.onCounter(path + " received", endpoint.responseBytes.get());
+            sink.onCounter(path + " failed", endpoint.failures.get());
+        }
+    }
+
+    private Endpoint getEndpoint(String path) {
+        Endpoint endpoint = mEndpoints.get(path);
+        if (endpoint == null) {
+            Endpoint created = new Endpoint();
+            endpoint = mEndpoints.putIfAbsent(path, created);
+            if (endpoint == null) {
+                endpoint = created;
+            }
+        }
+        return endpoint;
+    }
+
+    private static final class Endpoint {
+        final LatencyHistogram[] histograms = new LatencyHistogram[Phase.values().length];
+        final AtomicLong requestBytes = new AtomicLong();
+        final AtomicLong responseBytes = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+
+        Endpoint() {
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i] = new LatencyHistogram();
+            }
+        }
+    }
+}
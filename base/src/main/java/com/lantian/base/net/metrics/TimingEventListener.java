@@ -0,0 +1,159 @@
+package com.lantian.base.net.metrics;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 记录每个请求各阶段的耗时和字节数，请求结束时汇总到NetworkTimings
+ * 每个Call一个实例，同一个Call的事件是依次发生的，不需要同步；
+ * 重试和重定向时各阶段的时间累加；
+ * 没有用到网络的调用（比如StaleWhileRevalidateInterceptor的缓存命中）记到CACHED，不算进TOTAL
+ * <p>
+ * 用法：
+ * <pre>
+ * new OkHttpClient.Builder().eventListenerFactory(TimingEventListener.FACTORY)
+ * </pre>
+ */
+public final class TimingEventListener extends EventListener {
+
+    public static final EventListener.Factory FACTORY = call -> new TimingEventListener();
+
+    private long mCallStart;
+    private long mDnsStart;
+    private long mConnectStart;
+    private long mSecureConnectStart;
+    private long mRequestStart;
+    private long mRequestEnd;
+    private long mResponseBodyStart;
+
+    private long mDnsNanos;
+    private long mConnectNanos;
+    private long mTlsNanos;
+    private long mRequestNanos;
+    private long mWaitNanos;
+    private long mBodyNanos;
+    private long mRequestBytes;
+    private long mResponseBytes;
+    // 查过DNS、建过连接或者发过请求
+    private boolean mUsedNetwork;
+
+    @Override
+    public void callStart(Call call) {
+        mCallStart = System.nanoTime();
+    }
+
+    @Override
+    public void dnsStart(Call call, String domainName) {
+        mDnsStart = System.nanoTime();
+        mUsedNetwork = true;
+    }
+
+    @Override
+    public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+        mDnsNanos += System.nanoTime() - mDnsStart;
+    }
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+        mConnectStart = System.nanoTime();
+        mUsedNetwork = true;
+    }
+
+    @Override
+    public void secureConnectStart(Call call) {
+        mSecureConnectStart = System.nanoTime();
+    }
+
+    @Override
+    public void secureConnectEnd(Call call, Handshake handshake) {
+        mTlsNanos += System.nanoTime() - mSecureConnectStart;
+    }
+
+    @Override
+    public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+                           Protocol protocol) {
+        mConnectNanos += System.nanoTime() - mConnectStart;
+    }
+
+    @Override
+    public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+                              Protocol protocol, IOException ioe) {
+        mConnectNanos += System.nanoTime() - mConnectStart;
+    }
+
+    @Override
+    public void requestHeadersStart(Call call) {
+        mRequestStart = System.nanoTime();
+        mUsedNetwork = true;
+    }
+
+    @Override
+    public void requestHeadersEnd(Call call, Request request) {
+        mRequestEnd = System.nanoTime();
+    }
+
+    @Override
+    public void requestBodyEnd(Call call, long byteCount) {
+        mRequestEnd = System.nanoTime();
+        mRequestBytes += byteCount;
+    }
+
+    @Override
+    public void responseHeadersStart(Call call) {
+        final long now = System.nanoTime();
+        if (mRequestStart != 0) {
+            mRequestNanos += mRequestEnd - mRequestStart;
+            mWaitNanos += now - mRequestEnd;
+            mRequestStart = 0;
+        }
+    }
+
+    @Override
+    public void responseBodyStart(Call call) {
+        mResponseBodyStart = System.nanoTime();
+    }
+
+    @Override
+    public void responseBodyEnd(Call call, long byteCount) {
+        mBodyNanos += System.nanoTime() - mResponseBodyStart;
+        mResponseBytes += byteCount;
+    }
+
+    @Override
+    public void callEnd(Call call) {
+        report(call, false);
+    }
+
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+        report(call, true);
+    }
+
+    private void report(Call call, boolean failed) {
+        final long totalNanos = System.nanoTime() - mCallStart;
+        final String path = call.request().url().encodedPath();
+        final NetworkTimings timings = NetworkTimings.getInstance();
+        // 连接复用或者缓存命中时没有这些阶段，不记录0
+        if (mDnsNanos > 0) timings.record(path, NetworkTimings.Phase.DNS, mDnsNanos);
+        if (mConnectNanos > 0) timings.record(path, NetworkTimings.Phase.CONNECT, mConnectNanos);
+        if (mTlsNanos > 0) timings.record(path, NetworkTimings.Phase.TLS, mTlsNanos);
+        if (mRequestNanos > 0) timings.record(path, NetworkTimings.Phase.REQUEST, mRequestNanos);
+        if (mWaitNanos > 0) timings.record(path, NetworkTimings.Phase.WAIT, mWaitNanos);
+        if (mBodyNanos > 0) timings.record(path, NetworkTimings.Phase.BODY, mBodyNanos);
+        // 没有网络往返的调用只有几毫秒，混进TOTAL会把网络的耗时拉低
+        final boolean cached = !mUsedNetwork && !failed;
+        timings.record(path, cached ? NetworkTimings.Phase.CACHED : NetworkTimings.Phase.TOTAL,
+                totalNanos);
+        timings.recordCall(path, mRequestBytes, mResponseBytes, failed);
+    }
+}
@@ -1,5 +1,6 @@
 package com.lantian.base.net.retrofit;
 
+import okhttp3.OkHttpClient;
 import retrofit2.Retrofit;
 
 /**
@@ -10,4 +11,14 @@ public class ApiHelper {
         Retrofit retrofit = RetrofitUtils.getRetrofitBuilder(baseUrl).build();
         return retrofit.create(cls);
     }
+
+    /**
+     * 使用单独配置的OkHttpClient
+     *
+     * @param client 用RetrofitUtils.getOkHttpClientBuilder()派生，共用连接池和缓存
+     */
+    public static <T> T getApi(Class<T> cls, String baseUrl, OkHttpClient client){
+        Retrofit retrofit = RetrofitUtils.getRetrofitBuilder(baseUrl, client).build();
+        return retrofit.create(cls);
+    }
 }
@@ -0,0 +1,171 @@
+package com.lantian.base.net.retrofit;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import io.reactivex.Observable;
+import io.reactivex.Single;
+
+/**
+ * 合并相同的请求
+ * 包装Retrofit接口，同一个方法、同样参数（即同一个接口、同样的表单字段）的请求
+ * 在完成之前只发一次，所有订阅者共用一个网络请求和解析结果；
+ * 所有订阅者都取消后才取消网络请求。
+ * cacheMillis大于0时，成功的结果在内存里保留这么长时间，期间相同的请求直接返回结果，
+ * 过期的结果在下次请求时清除
+ * <p>
+ * 只处理返回Observable和Single的方法，其它方法直接调用原接口
+ */
+public final class RequestCoalescer implements InvocationHandler {
+
+    private final Object mApi;
+    private final long mCacheMillis;
+    private final Map<Key, Entry> mEntries = new HashMap<>();
+
+    private RequestCoalescer(Object api, long cacheMillis) {
+        mApi = api;
+        mCacheMillis = cacheMillis;
+    }
+
+    /**
+     * @param service     Retrofit接口
+     * @param api         ApiHelper.getApi()创建的接口
+     * @param cacheMillis 结果的缓存时间，0表示只合并请求中的调用
+     */
+    public static <T> T wrap(Class<T> service, T api, long cacheMillis) {
+        Object proxy = Proxy.newProxyInstance(service.getClassLoader(), new Class<?>[]{service},
+                new RequestCoalescer(api, cacheMillis));
+        return service.cast(proxy);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            return method.invoke(this, args);
+        }
+        Class<?> returnType = method.getReturnType();
+        if (returnType != Observable.class && returnType != Single.class) {
+            return method.invoke(mApi, args);
+        }
+        final Key key = new Key(method, args);
+        Observable<Object> observable = Observable.defer(() -> getOrRequest(key));
+        return returnType == Single.class ? observable.singleOrError() : observable;
+    }
+
+    /**
+     * 清除缓存的结果，请求中的调用不受影响
+     */
+    public static void clearCache(Object api) {
+        if (Proxy.isProxyClass(api.getClass())
+                && Proxy.getInvocationHandler(api) instanceof RequestCoalescer) {
+            RequestCoalescer coalescer = (RequestCoalescer) Proxy.getInvocationHandler(api);
+            synchronized (coalescer) {
+                Iterator<Entry> iterator = coalescer.mEntries.values().iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().request == null) {
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    private synchronized Observable<Object> getOrRequest(final Key key) throws Exception {
+        purgeExpired(System.currentTimeMillis());
+        Entry entry = mEntries.get(key);
+        if (entry != null) {
+            if (entry.request != null) {
+                return entry.request;
+            }
+            return Observable.just(entry.result);
+        }
+
+        final Entry newEntry = new Entry();
+        Observable<Object> source = toObservable(key.method.invoke(mApi, key.args()));
+        // replay(1)：在结果发出和请求结束之间订阅的也能收到结果
+        newEntry.request = source
+                .doOnNext(result -> onResult(key, newEntry, result))
+                .doFinally(() -> onFinished(key, newEntry))
+                .replay(1)
+                .refCount();
+        mEntries.put(key, newEntry);
+        return newEntry.request;
+    }
+
+    // 只清除已完成的，请求中的不受影响
+    private void purgeExpired(long now) {
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.request == null && now >= entry.expireTime) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private synchronized void onResult(Key key, Entry entry, Object result) {
+        if (mCacheMillis > 0 && mEntries.get(key) == entry) {
+            entry.result = result;
+            entry.expireTime = System.currentTimeMillis() + mCacheMillis;
+        }
+    }
+
+    private synchronized void onFinished(Key key, Entry entry) {
+        if (mEntries.get(key) != entry) {
+            return;
+        }
+        entry.request = null;
+        if (entry.result == null) {
+            mEntries.remove(key);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Observable<Object> toObservable(Object call) {
+        if (call instanceof Single) {
+            return ((Single<Object>) call).toObservable();
+        }
+        return (Observable<Object>) call;
+    }
+
+    private static final class Entry {
+        // 请求中时不为null
+        Observable<Object> request;
+        Object result;
+        long expireTime;
+    }
+
+    private static final class Key {
+        final Method method;
+        final List<Object> args;
+
+        Key(Method method, Object[] args) {
+            this.method = method;
+            this.args = args != null ? Arrays.asList(args.clone()) : Collections.emptyList();
+        }
+
+        Object[] args() {
+            return args.toArray();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return method.equals(key.method) && args.equals(key.args);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * method.hashCode() + args.hashCode();
+        }
+    }
+}
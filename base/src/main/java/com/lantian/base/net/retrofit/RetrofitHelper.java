@@ -3,27 +3,40 @@ package com.lantian.base.net.retrofit;
 import com.lantian.base.common.Constants;
 import com.lantian.base.net.retrofit.api.book.getBook;
 import com.lantian.base.net.retrofit.api.user.Login;
+import com.lantian.base.net.retrofit.interceptor.CachePolicy;
+
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by Sherlock·Holmes on 2020/5/27
  */
 public class RetrofitHelper {
 
+    static {
+        // 图书：5分钟内直接用缓存，一天内先显示缓存再在后台验证，没有网络时缓存可以用30天；
+        // 失败的响应也是HTTP 200，不缓存
+        CachePolicy.register("MGetBook/", new CachePolicy(5, 24 * 60, 30 * 24 * 60, TimeUnit.MINUTES,
+                CachePolicy.BASE_RESPONSE_SUCCESS));
+    }
+
     //登录
     private static Login loginapi;
     //获取图书
     private static getBook getbook;
     //登录
-    public static Login getlogin(){
+    public static synchronized Login getlogin(){
         if (loginapi ==null){
-            loginapi = ApiHelper.getApi(Login.class, Constants.BASE_URL);
+            loginapi = RequestCoalescer.wrap(Login.class,
+                    ApiHelper.getApi(Login.class, Constants.BASE_URL), 0);
         }
         return loginapi;
     }
     //获取图书
-    public static getBook getbook(){
+    public static synchronized getBook getbook(){
         if (getbook == null) {
-            getbook = ApiHelper.getApi(getBook.class,Constants.BASE_URL);
+            // 只合并请求中的调用，图书内容在内存里由BookRepository缓存
+            getbook = RequestCoalescer.wrap(getBook.class,
+                    ApiHelper.getApi(getBook.class,Constants.BASE_URL), 0);
         }
         return getbook;
     }
@@ -1,41 +1,110 @@
 package com.lantian.base.net.retrofit;
 
 import com.lantian.base.common.Constants;
+import com.lantian.base.net.metrics.TimingEventListener;
 import com.lantian.base.net.retrofit.converter.MyGsonConverterFactory;
 import com.lantian.base.net.retrofit.interceptor.HttpCacheInterceptor;
 import com.lantian.base.net.retrofit.interceptor.HttpHeaderInterceptor;
 import com.lantian.base.net.retrofit.interceptor.LoggingInterceptor;
+import com.lantian.base.net.retrofit.interceptor.StaleWhileRevalidateInterceptor;
 import com.lantian.base.utils.GetApplicationContext;
 
 import java.io.File;
+import java.util.Iterator;
 import java.util.concurrent.TimeUnit;
 
 import okhttp3.Cache;
+import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
 import retrofit2.Retrofit;
 import retrofit2.adapter.rxjava2.RxJava2CallAdapterFactory;
 
 public class RetrofitUtils {
 
+    private static final long CACHE_SIZE = 1024 * 1024 * 100;
+    private static final long RESPONSE_CACHE_SIZE = 1024 * 1024 * 50;
+
+    private static final MyGsonConverterFactory CONVERTER_FACTORY = MyGsonConverterFactory.create();
+    private static final RxJava2CallAdapterFactory CALL_ADAPTER_FACTORY = RxJava2CallAdapterFactory.create();
+
+    private static volatile OkHttpClient sSharedClient;
+
+    /**
+     * 全局共享的OkHttpClient
+     * 所有API共用一个连接池、一个调度器和一个磁盘缓存，
+     * 同一个缓存目录只能有一个Cache实例
+     *
+     * @return OkHttpClient
+     */
+    public static OkHttpClient getSharedClient() {
+        if (sSharedClient == null) {
+            synchronized (RetrofitUtils.class) {
+                if (sSharedClient == null) {
+                    File cacheDir = GetApplicationContext.getContext().getExternalCacheDir();
+                    File cacheFile = new File(cacheDir, "net_cache");
+                    sSharedClient = new OkHttpClient.Builder()
+                            .readTimeout(Constants.DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS)
+                            .connectTimeout(Constants.DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS)
+                            .retryOnConnectionFailure(true)
+                            .eventListenerFactory(TimingEventListener.FACTORY)
+                            .addInterceptor(new LoggingInterceptor())
+                            .addInterceptor(new HttpHeaderInterceptor())
+                            .addInterceptor(new StaleWhileRevalidateInterceptor(new File(cacheDir, "response_cache"),
+                                    RESPONSE_CACHE_SIZE, RetrofitUtils::getSharedClient))
+                            .addNetworkInterceptor(new HttpCacheInterceptor())
+                            .cache(new Cache(cacheFile, CACHE_SIZE))
+                            .build();
+                }
+            }
+        }
+        return sSharedClient;
+    }
+
+    /**
+     * 由共享的OkHttpClient派生
+     * 可以修改超时、拦截器等，连接池和缓存仍然共用
+     *
+     * @return OkHttpClient.Builder
+     */
     public static OkHttpClient.Builder getOkHttpClientBuilder(){
-        File cacheFile = new File(GetApplicationContext.getContext().getExternalCacheDir(), "net_cache");
-        Cache cache = new Cache(cacheFile, 1024 * 1024 * 100);
-        return new OkHttpClient.Builder()
-                .readTimeout(Constants.DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS)
-                .connectTimeout(Constants.DEFAULT_TIMEOUT,TimeUnit.MILLISECONDS)
-                .retryOnConnectionFailure(true)
-                .addInterceptor(new LoggingInterceptor())
-                .addInterceptor(new HttpHeaderInterceptor())
-                .addNetworkInterceptor(new HttpCacheInterceptor())
-                .cache(cache);
+        return getSharedClient().newBuilder();
+    }
+
+    /**
+     * 由共享的OkHttpClient派生，去掉磁盘缓存和缓存拦截器
+     * 下载大文件时用，响应体不再写一份到缓存目录；连接池和调度器仍然共用
+     *
+     * @return OkHttpClient.Builder
+     */
+    public static OkHttpClient.Builder getUncachedOkHttpClientBuilder(){
+        OkHttpClient.Builder builder = getOkHttpClientBuilder().cache(null);
+        Iterator<Interceptor> interceptors = builder.interceptors().iterator();
+        while (interceptors.hasNext()) {
+            if (interceptors.next() instanceof StaleWhileRevalidateInterceptor) {
+                interceptors.remove();
+            }
+        }
+        Iterator<Interceptor> networkInterceptors = builder.networkInterceptors().iterator();
+        while (networkInterceptors.hasNext()) {
+            if (networkInterceptors.next() instanceof HttpCacheInterceptor) {
+                networkInterceptors.remove();
+            }
+        }
+        return builder;
     }
 
     public static Retrofit.Builder getRetrofitBuilder(String baseUrl){
-        OkHttpClient okHttpClient = getOkHttpClientBuilder().build();
+        return getRetrofitBuilder(baseUrl, getSharedClient());
+    }
+
+    /**
+     * @param client 由getOkHttpClientBuilder()派生的OkHttpClient
+     */
+    public static Retrofit.Builder getRetrofitBuilder(String baseUrl, OkHttpClient client){
         return  new Retrofit.Builder()
-                .client(okHttpClient)
-                .addConverterFactory(MyGsonConverterFactory.create())
-                .addCallAdapterFactory(RxJava2CallAdapterFactory.create())
+                .client(client)
+                .addConverterFactory(CONVERTER_FACTORY)
+                .addCallAdapterFactory(CALL_ADAPTER_FACTORY)
                 .baseUrl(baseUrl);
     }
 
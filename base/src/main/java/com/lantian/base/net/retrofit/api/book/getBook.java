@@ -4,6 +4,8 @@ import com.google.gson.internal.LinkedTreeMap;
 import com.lantian.base.common.BaseResponse;
 import com.lantian.base.common.bean.GetBook;
 
+import java.util.Map;
+
 import io.reactivex.Observable;
 import retrofit2.http.Field;
 import retrofit2.http.FormUrlEncoded;
@@ -15,7 +17,20 @@ import retrofit2.http.POST;
  * author:lantian
  */
 public interface getBook {
+    /**
+     * data是以章节序号为key的内容
+     */
+    @FormUrlEncoded
+    @POST("MGetBook/")
+    Observable<BaseResponse<Map<String, GetBook._$5Bean>>> getBook(@Field("ebookName") String userPhoneNum);
+
+    /**
+     * 按章节范围获取，data同getBook，只包含[start, start + count)的章节
+     * 不支持范围的服务器会忽略start和count，返回整本书
+     */
     @FormUrlEncoded
     @POST("MGetBook/")
-    Observable<BaseResponse<GetBook>> getBook(@Field("ebookName") String userPhoneNum);
+    Observable<BaseResponse<Map<String, GetBook._$5Bean>>> getChapters(@Field("ebookName") String ebookName,
+                                                                    @Field("start") int start,
+                                                                    @Field("count") int count);
 }
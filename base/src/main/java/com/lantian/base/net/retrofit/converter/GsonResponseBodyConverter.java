@@ -1,17 +1,13 @@
 package com.lantian.base.net.retrofit.converter;
 
-import android.util.Log;
-
 import com.google.gson.Gson;
 import com.google.gson.JsonIOException;
 import com.google.gson.TypeAdapter;
-import com.google.gson.internal.LinkedTreeMap;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonToken;
-import com.lantian.base.BuildConfig;
 import com.lantian.base.common.BaseResponse;
 import com.lantian.base.common.ResponseStatus;
-import com.lantian.base.net.retrofit.exception.ApiException;
+import com.lantian.base.net.metrics.NetworkTimings;
 import com.lantian.base.net.retrofit.exception.NoDataExceptionException;
 import com.lantian.base.net.retrofit.exception.ServerResponseException;
 
@@ -20,33 +16,89 @@ import java.io.IOException;
 import okhttp3.ResponseBody;
 import retrofit2.Converter;
 
+/**
+ * 边读边解析响应体
+ * BaseResponse的data直接用它的类型解析，不再先读成String或LinkedTreeMap，
+ * 状态码在解析过程中检查，失败的响应不解析data
+ * 这里不打印日志，请求的日志由LoggingInterceptor负责
+ */
 final class GsonResponseBodyConverter<T> implements Converter<ResponseBody, Object> {
     private final Gson gson;
+    // BaseResponse时是data的adapter，否则是整个响应的adapter
     private final TypeAdapter<T> adapter;
+    private final boolean isBaseResponse;
+    // 统计解析时间用，不知道接口路径时是null
+    private final String path;
 
-    GsonResponseBodyConverter(Gson gson, TypeAdapter<T> adapter) {
+    GsonResponseBodyConverter(Gson gson, TypeAdapter<T> adapter, boolean isBaseResponse, String path) {
         this.gson = gson;
         this.adapter = adapter;
+        this.isBaseResponse = isBaseResponse;
+        this.path = path;
     }
 
     @Override
     public Object convert(ResponseBody value) throws IOException {
+        final long startNanos = System.nanoTime();
+        JsonReader jsonReader = gson.newJsonReader(value.charStream());
         try {
-            String response = value.string();
-            if (BuildConfig.DEBUG){
-                Log.e(BuildConfig.APPLICATION_ID, response);
-            }
-            BaseResponse basicResponse = gson.fromJson(response,BaseResponse.class);
-            Log.e("basicResponse",basicResponse.getStatus()+basicResponse.getMessage());
-            if (basicResponse.getStatus() == ResponseStatus.SUCCESS ){
-                 return basicResponse;
-            }else if (basicResponse.getData() ==null){
-                throw new NoDataExceptionException();
-            }else{
-                throw new ServerResponseException(basicResponse.getStatus(),basicResponse.getMessage());
+            Object result = isBaseResponse ? readBaseResponse(jsonReader) : adapter.read(jsonReader);
+            if (jsonReader.peek() != JsonToken.END_DOCUMENT) {
+                throw new JsonIOException("JSON document was not fully consumed.");
             }
+            return result;
         } finally {
             value.close();
+            if (path != null) {
+                NetworkTimings.getInstance().record(path, NetworkTimings.Phase.PARSE,
+                        System.nanoTime() - startNanos);
+            }
+        }
+    }
+
+    private BaseResponse<T> readBaseResponse(JsonReader in) throws IOException {
+        BaseResponse<T> response = new BaseResponse<>();
+        boolean hasStatus = false;
+        boolean hasData = false;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "status":
+                    response.setStatus(in.nextInt());
+                    hasStatus = true;
+                    break;
+                case "message":
+                    if (in.peek() == JsonToken.NULL) {
+                        in.nextNull();
+                    } else {
+                        response.setMessage(in.nextString());
+                    }
+                    break;
+                case "data":
+                    if (in.peek() == JsonToken.NULL) {
+                        in.nextNull();
+                    } else if (hasStatus && response.getStatus() != ResponseStatus.SUCCESS) {
+                        // 失败的响应不需要data
+                        in.skipValue();
+                        hasData = true;
+                    } else {
+                        response.setData(adapter.read(in));
+                        hasData = true;
+                    }
+                    break;
+                default:
+                    in.skipValue();
+                    break;
+            }
+        }
+        in.endObject();
+
+        if (response.getStatus() == ResponseStatus.SUCCESS) {
+            return response;
+        } else if (!hasData) {
+            throw new NoDataExceptionException();
+        } else {
+            throw new ServerResponseException(response.getStatus(), response.getMessage());
         }
     }
-}
\ No newline at end of file
+}
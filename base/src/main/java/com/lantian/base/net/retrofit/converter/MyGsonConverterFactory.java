@@ -3,14 +3,23 @@ package com.lantian.base.net.retrofit.converter;
 import com.google.gson.Gson;
 import com.google.gson.TypeAdapter;
 import com.google.gson.reflect.TypeToken;
+import com.lantian.base.common.BaseResponse;
 
 import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 
+import okhttp3.HttpUrl;
 import okhttp3.RequestBody;
 import okhttp3.ResponseBody;
 import retrofit2.Converter;
 import retrofit2.Retrofit;
+import retrofit2.http.DELETE;
+import retrofit2.http.GET;
+import retrofit2.http.HTTP;
+import retrofit2.http.PATCH;
+import retrofit2.http.POST;
+import retrofit2.http.PUT;
 
 
 public final class MyGsonConverterFactory extends Converter.Factory {
@@ -40,8 +49,43 @@ public final class MyGsonConverterFactory extends Converter.Factory {
 
     @Override
     public Converter<ResponseBody, ?> responseBodyConverter(Type type, Annotation[] annotations, Retrofit retrofit) {
+        if (TypeToken.get(type).getRawType() == BaseResponse.class) {
+            // BaseResponse<T>的data直接解析成T
+            Type dataType = (type instanceof ParameterizedType)
+                    ? ((ParameterizedType) type).getActualTypeArguments()[0] : Object.class;
+            TypeAdapter<?> dataAdapter = gson.getAdapter(TypeToken.get(dataType));
+            return new GsonResponseBodyConverter<>(gson, dataAdapter, true, pathOf(annotations, retrofit));
+        }
         TypeAdapter<?> adapter = gson.getAdapter(TypeToken.get(type));
-        return new GsonResponseBodyConverter<>(gson, adapter);
+        return new GsonResponseBodyConverter<>(gson, adapter, false, pathOf(annotations, retrofit));
+    }
+
+    /**
+     * 接口的完整路径，和TimingEventListener记录的HttpUrl.encodedPath()一样，
+     * 路径里有{参数}或者是@Url时不知道实际路径，返回null
+     */
+    private static String pathOf(Annotation[] annotations, Retrofit retrofit) {
+        String relativePath = null;
+        for (Annotation annotation : annotations) {
+            if (annotation instanceof GET) {
+                relativePath = ((GET) annotation).value();
+            } else if (annotation instanceof POST) {
+                relativePath = ((POST) annotation).value();
+            } else if (annotation instanceof PUT) {
+                relativePath = ((PUT) annotation).value();
+            } else if (annotation instanceof DELETE) {
+                relativePath = ((DELETE) annotation).value();
+            } else if (annotation instanceof PATCH) {
+                relativePath = ((PATCH) annotation).value();
+            } else if (annotation instanceof HTTP) {
+                relativePath = ((HTTP) annotation).path();
+            }
+        }
+        if (relativePath == null || relativePath.isEmpty() || relativePath.indexOf('{') >= 0) {
+            return null;
+        }
+        HttpUrl url = retrofit.baseUrl().resolve(relativePath);
+        return url != null ? url.encodedPath() : null;
     }
 
     @Override
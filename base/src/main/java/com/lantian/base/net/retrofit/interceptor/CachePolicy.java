@@ -0,0 +1,128 @@
+package com.lantian.base.net.retrofit.interceptor;
+
+import com.google.gson.stream.JsonReader;
+import com.lantian.base.common.ResponseStatus;
+import com.lantian.base.utils.CloseUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.HttpUrl;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * 接口的缓存策略，由StaleWhileRevalidateInterceptor执行
+ * 缓存的时间在maxAge以内直接返回缓存，不请求网络；
+ * 超过maxAge但在maxAge + staleWhileRevalidate以内，先返回缓存，同时在后台用
+ * If-None-Match/If-Modified-Since重新验证，内容有变化时通过
+ * StaleWhileRevalidateInterceptor.updates()通知；
+ * 没有网络时maxStale以内的缓存都可以用。
+ * HTTP 200的响应体还要通过BodyFilter才会缓存，比如BaseResponse的status不是成功时不缓存
+ */
+public final class CachePolicy {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * 判断HTTP 200的响应体能不能缓存
+     */
+    public interface BodyFilter {
+        /**
+         * @param body 已下载的响应体，不需要关闭
+         */
+        boolean isCacheable(BufferedSource body) throws IOException;
+    }
+
+    /**
+     * 只缓存status是ResponseStatus.SUCCESS的BaseResponse，读到status就返回，不解析data
+     */
+    public static final BodyFilter BASE_RESPONSE_SUCCESS = body -> {
+        JsonReader reader = new JsonReader(new InputStreamReader(body.inputStream(), UTF_8));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("status".equals(reader.nextName())) {
+                return reader.nextInt() == ResponseStatus.SUCCESS;
+            }
+            reader.skipValue();
+        }
+        return false;
+    };
+
+    // key是接口路径，比如"MGetBook/"
+    private static final Map<String, CachePolicy> sPolicies = new ConcurrentHashMap<>();
+
+    final long maxAgeMillis;
+    final long staleWhileRevalidateMillis;
+    final long maxStaleMillis;
+    private final BodyFilter mBodyFilter;
+
+    /**
+     * 缓存所有HTTP 200的响应
+     */
+    public CachePolicy(long maxAge, long staleWhileRevalidate, long maxStale, TimeUnit unit) {
+        this(maxAge, staleWhileRevalidate, maxStale, unit, null);
+    }
+
+    /**
+     * @param bodyFilter 为null时缓存所有HTTP 200的响应
+     */
+    public CachePolicy(long maxAge, long staleWhileRevalidate, long maxStale, TimeUnit unit,
+                       BodyFilter bodyFilter) {
+        if (maxAge < 0 || staleWhileRevalidate < 0 || maxStale < 0) {
+            throw new IllegalArgumentException("maxAge " + maxAge + ", staleWhileRevalidate "
+                    + staleWhileRevalidate + ", maxStale " + maxStale);
+        }
+        this.maxAgeMillis = unit.toMillis(maxAge);
+        this.staleWhileRevalidateMillis = unit.toMillis(staleWhileRevalidate);
+        this.maxStaleMillis = unit.toMillis(maxStale);
+        this.mBodyFilter = bodyFilter;
+    }
+
+    /**
+     * 设置接口的缓存策略，没有设置的接口不缓存
+     *
+     * @param path 接口路径，和Retrofit接口注解里的一样
+     */
+    public static void register(String path, CachePolicy policy) {
+        sPolicies.put(path, policy);
+    }
+
+    public static void unregister(String path) {
+        sPolicies.remove(path);
+    }
+
+    static CachePolicy forUrl(HttpUrl url) {
+        if (sPolicies.isEmpty()) {
+            return null;
+        }
+        final String path = url.encodedPath();
+        for (Map.Entry<String, CachePolicy> entry : sPolicies.entrySet()) {
+            if (path.endsWith(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    // 读不了或者格式不对时不缓存
+    boolean isCacheable(File body) {
+        if (mBodyFilter == null) {
+            return true;
+        }
+        BufferedSource source = null;
+        try {
+            source = Okio.buffer(Okio.source(body));
+            return mBodyFilter.isCacheable(source);
+        } catch (IOException | RuntimeException e) {
+            return false;
+        } finally {
+            CloseUtils.closeIOQuietly(source);
+        }
+    }
+}
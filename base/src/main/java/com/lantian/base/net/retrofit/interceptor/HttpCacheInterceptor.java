@@ -2,7 +2,7 @@ package com.lantian.base.net.retrofit.interceptor;
 
 import android.util.Log;
 
-import com.lantian.base.utils.NetworkUtils;
+import com.lantian.base.utils.ConnectivityMonitor;
 import java.io.IOException;
 
 import okhttp3.CacheControl;
@@ -18,8 +18,10 @@ public class HttpCacheInterceptor implements Interceptor {
     public Response intercept(Chain chain) throws IOException {
         //获取请求
         Request request = chain.request();
+        //网络状态由ConnectivityMonitor推送更新，这里只读一次
+        final boolean connected = ConnectivityMonitor.getInstance().isConnected();
         //这里就是说判读我们的网络条件，要是有网络的话我么就直接获取网络上面的数据，要是没有网络的话我么就去缓存里面取数据
-        if (!NetworkUtils.isConnected()) {
+        if (!connected) {
             request = request.newBuilder()
                     //这个的话内容有点多啊，大家记住这么写就是只从缓存取，想要了解这个东西我等下在
                     // 给大家写连接吧。大家可以去看下，获取大家去找拦截器资料的时候就可以看到这个方面的东西反正也就是缓存策略。
@@ -28,7 +30,7 @@ public class HttpCacheInterceptor implements Interceptor {
             Log.d("CacheInterceptor", "no network");
         }
         Response originalResponse = chain.proceed(request);
-        if (NetworkUtils.isConnected()) {
+        if (connected) {
             //这里大家看点开源码看看.header .removeHeader做了什么操作很简答，就是的加字段和减字段的。
             String cacheControl = request.cacheControl().toString();
             return originalResponse.newBuilder()
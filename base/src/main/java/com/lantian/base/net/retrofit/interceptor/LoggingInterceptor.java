@@ -1,44 +1,141 @@
 package com.lantian.base.net.retrofit.interceptor;
 
+import com.lantian.base.BuildConfig;
+import com.lantian.base.net.metrics.HttpLatencyStats;
+import com.lantian.base.net.metrics.HttpMetrics;
 import com.lantian.base.utils.LogUtils;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import okhttp3.Interceptor;
+import okhttp3.MediaType;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
 
 /**
- * Created by Sherlock·Holmes on 2020/5/27
+ * 网络日志和统计
+ * 统计默认记到HttpLatencyStats，关闭日志并且setMetrics(null)时直接放行请求，不做任何事；
+ * 日志按比例抽样，只有BODY级别会读取响应体，最多读取maxBodyBytes字节，
+ * 并且只读取文本类型的响应体，下载书的时候不会再多复制一份
  */
 public class LoggingInterceptor implements Interceptor {
-    @Override
-    public Response intercept(Interceptor.Chain chain) throws IOException {
-        //这个chain里面包含了request和response，所以你要什么都可以从这里拿
-        Request request = chain.request();
 
-        //请求发起的时间
-        long t1 = System.nanoTime();
+    private static final String TAG = "Http";
+
+    public enum Level {
+        // 不打印日志
+        NONE,
+        // 方法、地址、状态码、用时和长度
+        BASIC,
+        // 再加上请求头和响应头
+        HEADERS,
+        // 再加上响应体
+        BODY
+    }
+
+    private static volatile Level sLevel = BuildConfig.DEBUG ? Level.BASIC : Level.NONE;
+    private static volatile int sSampleEvery = 1;
+    private static volatile long sMaxBodyBytes = 4 * 1024;
+    private static volatile HttpMetrics sMetrics = HttpLatencyStats.getInstance();
+
+    private final AtomicInteger mCount = new AtomicInteger();
+
+    public static void setLevel(Level level) {
+        sLevel = level;
+    }
+
+    /**
+     * @param sampleEvery 每多少个请求打印一次日志，1表示全部打印
+     */
+    public static void setSampleEvery(int sampleEvery) {
+        if (sampleEvery < 1) {
+            throw new IllegalArgumentException("sampleEvery " + sampleEvery);
+        }
+        sSampleEvery = sampleEvery;
+    }
 
-        LogUtils.e(String.format("请求URL------%s on %s%n请求头------%s",
-                request.url(), chain.connection(), request.headers(),request.body()));
-        Response response = chain.proceed(request);
+    /**
+     * @param maxBodyBytes BODY级别时最多打印的响应体字节数
+     */
+    public static void setMaxBodyBytes(long maxBodyBytes) {
+        sMaxBodyBytes = maxBodyBytes;
+    }
 
-        //收到响应的时间
-        long t2 = System.nanoTime();
+    /**
+     * @param metrics 记录每个请求的用时，默认是HttpLatencyStats，null表示不记录
+     */
+    public static void setMetrics(HttpMetrics metrics) {
+        sMetrics = metrics;
+    }
 
-        //这里不能直接使用response.body().string()的方式输出日志
-        //因为response.body().string()之后，response中的流会被关闭，程序会报错，我们需要创建出一
-        //个新的response给应用层处理
-        ResponseBody responseBody = response.peekBody(1024 * 1024);
+    @Override
+    public Response intercept(Interceptor.Chain chain) throws IOException {
+        final Request request = chain.request();
+        final Level level = sLevel;
+        final HttpMetrics metrics = sMetrics;
+        if (level == Level.NONE && metrics == null) {
+            return chain.proceed(request);
+        }
+        final boolean sampled = level != Level.NONE
+                && mCount.getAndIncrement() % sSampleEvery == 0;
 
-        LogUtils.e(String.format("响应URL-------: %s %n响应数据------%s 请求用时--------%.1fms%n%s",
-                response.request().url(),
-                responseBody.string(),
-                (t2 - t1) / 1e6d,
-                response.headers()));
+        final long startNanos = System.nanoTime();
+        final Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException e) {
+            final long tookNanos = System.nanoTime() - startNanos;
+            if (metrics != null) {
+                metrics.onFailure(request.method(), request.url().encodedPath(), tookNanos, e);
+            }
+            if (sampled) {
+                LogUtils.w(TAG, request.method() + " " + request.url() + " failed after "
+                        + tookNanos / 1000000 + "ms: " + e);
+            }
+            throw e;
+        }
+        final long tookNanos = System.nanoTime() - startNanos;
+        final ResponseBody body = response.body();
+        final long contentLength = body != null ? body.contentLength() : -1;
 
+        if (metrics != null) {
+            metrics.onResponse(request.method(), request.url().encodedPath(), response.code(),
+                    tookNanos, contentLength);
+        }
+        if (sampled) {
+            log(level, request, response, tookNanos, contentLength);
+        }
         return response;
     }
+
+    private static void log(Level level, Request request, Response response, long tookNanos,
+                            long contentLength) throws IOException {
+        StringBuilder message = new StringBuilder(128)
+                .append(request.method()).append(' ').append(request.url())
+                .append(" -> ").append(response.code())
+                .append(' ').append(tookNanos / 1000000).append("ms ")
+                .append(contentLength).append('B');
+        if (level.compareTo(Level.HEADERS) >= 0) {
+            message.append("\n").append(request.headers())
+                    .append("\n").append(response.headers());
+        }
+        if (level == Level.BODY && isText(response.body())) {
+            // peekBody最多复制maxBodyBytes字节，不影响后面读取
+            message.append("\n").append(response.peekBody(sMaxBodyBytes).string());
+        }
+        LogUtils.d(TAG, message.toString());
+    }
+
+    private static boolean isText(ResponseBody body) {
+        if (body == null) {
+            return false;
+        }
+        MediaType contentType = body.contentType();
+        if (contentType == null) {
+            return false;
+        }
+        return "text".equals(contentType.type()) || "json".equals(contentType.subtype());
+    }
 }
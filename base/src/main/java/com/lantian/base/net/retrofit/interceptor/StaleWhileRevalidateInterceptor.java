@@ -0,0 +1,416 @@
+package com.lantian.base.net.retrofit.interceptor;
+
+import com.lantian.base.utils.CloseUtils;
+import com.lantian.base.utils.ConnectivityMonitor;
+import com.lantian.base.utils.LogUtils;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.reactivex.Observable;
+import io.reactivex.subjects.PublishSubject;
+import io.reactivex.subjects.Subject;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.HashingSink;
+import okio.Okio;
+
+/**
+ * 按CachePolicy缓存接口的响应，先返回缓存再后台重新验证
+ * OkHttp的Cache只缓存GET，这里的接口都是POST，所以缓存由这个拦截器自己保存，
+ * key是请求方法、地址和请求体；响应体边下载边写入缓存文件，不会整个读进内存。
+ * 超过缓存大小的响应体和CachePolicy不允许缓存的响应体只返回给这一次请求
+ * <p>
+ * 后台验证发现内容变化时，updates()发出接口路径，界面收到后重新请求即可拿到新内容
+ */
+public class StaleWhileRevalidateInterceptor implements Interceptor {
+
+    private static final String TAG = "SwrCache";
+    // 后台验证的请求带这个头，直接请求网络
+    private static final String HEADER_REVALIDATE = "X-Cache-Revalidate";
+    private static final String BODY_SUFFIX = ".body";
+    private static final String META_SUFFIX = ".meta";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Subject<String> sUpdates = PublishSubject.<String>create().toSerialized();
+
+    private final File mDir;
+    private final long mMaxSize;
+    private final Callable<? extends Call.Factory> mCallFactory;
+    private final Map<String, Entry> mEntries = new ConcurrentHashMap<>();
+    private final Set<String> mRevalidating =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * @param dir         缓存目录
+     * @param maxSize     缓存的最大字节数
+     * @param callFactory 发后台验证请求的OkHttpClient，就是添加了这个拦截器的client
+     */
+    public StaleWhileRevalidateInterceptor(File dir, long maxSize, Callable<? extends Call.Factory> callFactory) {
+        mDir = dir;
+        mMaxSize = maxSize;
+        mCallFactory = callFactory;
+    }
+
+    /**
+     * 后台验证后内容有变化的接口路径，在OkHttp的线程上发出
+     */
+    public static Observable<String> updates() {
+        return sUpdates;
+    }
+
+    @NotNull
+    @Override
+    public Response intercept(@NotNull Chain chain) throws IOException {
+        Request request = chain.request();
+        final boolean revalidate = request.header(HEADER_REVALIDATE) != null;
+        if (revalidate) {
+            request = request.newBuilder().removeHeader(HEADER_REVALIDATE).build();
+        }
+        final CachePolicy policy = CachePolicy.forUrl(request.url());
+        if (policy == null) {
+            return chain.proceed(request);
+        }
+
+        final String key = getKey(request);
+        final Entry entry = getEntry(key);
+        if (entry != null && !revalidate) {
+            final long age = System.currentTimeMillis() - entry.fetchedAt;
+            final boolean connected = ConnectivityMonitor.getInstance().isConnected();
+            Response cached = null;
+            if (age < policy.maxAgeMillis || (!connected && age < policy.maxStaleMillis)) {
+                cached = entry.toResponse(request);
+            } else if (age < policy.maxAgeMillis + policy.staleWhileRevalidateMillis) {
+                cached = entry.toResponse(request);
+                if (cached != null) {
+                    revalidateInBackground(request, key);
+                }
+            }
+            if (cached != null) {
+                return cached;
+            }
+        }
+        return fetch(chain, request, policy, key, entry);
+    }
+
+    private Response fetch(Chain chain, Request request, CachePolicy policy, String key, Entry entry)
+            throws IOException {
+        Request.Builder builder = request.newBuilder();
+        if (entry != null) {
+            if (entry.etag != null) {
+                builder.header("If-None-Match", entry.etag);
+            }
+            if (entry.lastModified != null) {
+                builder.header("If-Modified-Since", entry.lastModified);
+            }
+        }
+        Response response = chain.proceed(builder.build());
+
+        if (response.code() == 304 && entry != null) {
+            response.close();
+            Entry refreshed = entry.refreshed(System.currentTimeMillis());
+            writeMeta(refreshed);
+            mEntries.put(key, refreshed);
+            Response cached = refreshed.toResponse(request);
+            if (cached != null) {
+                return cached;
+            }
+            // 缓存文件被删除了，重新请求
+            return chain.proceed(request);
+        }
+        if (response.code() != 200 || response.body() == null) {
+            return response;
+        }
+        if (response.body().contentLength() > mMaxSize) {
+            // 存下来也会马上被trimToSize()删除
+            return response;
+        }
+
+        final ResponseBody body = response.body();
+        final File tempFile = File.createTempFile(key, ".tmp", getDir());
+        final String sha256 = download(body, tempFile);
+        if (tempFile.length() > mMaxSize || !policy.isCacheable(tempFile)) {
+            return response.newBuilder().body(readOnce(tempFile, body.contentType())).build();
+        }
+
+        Entry stored = store(key, response, tempFile, sha256);
+        mEntries.put(key, stored);
+        if (entry != null && !entry.sha256.equals(stored.sha256)) {
+            sUpdates.onNext(request.url().encodedPath());
+        }
+        Response cached = stored.toResponse(request);
+        if (cached == null) {
+            throw new IOException("Can't read cache file " + stored.bodyFile);
+        }
+        return response.newBuilder().body(cached.body()).build();
+    }
+
+    private void revalidateInBackground(Request request, final String key) {
+        if (!mRevalidating.add(key)) {
+            return;
+        }
+        final Call call;
+        try {
+            call = mCallFactory.call().newCall(request.newBuilder().header(HEADER_REVALIDATE, "1").build());
+        } catch (Exception e) {
+            mRevalidating.remove(key);
+            return;
+        }
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                mRevalidating.remove(key);
+            }
+
+            @Override
+            public void onResponse(@NotNull Call call, @NotNull Response response) {
+                mRevalidating.remove(key);
+                response.close();
+            }
+        });
+    }
+
+    private static String getKey(Request request) throws IOException {
+        Buffer buffer = new Buffer();
+        buffer.writeUtf8(request.method()).writeByte(' ').writeUtf8(request.url().toString());
+        if (request.body() != null) {
+            buffer.writeByte('\n');
+            request.body().writeTo(buffer);
+        }
+        return buffer.sha256().hex();
+    }
+
+    private Entry getEntry(String key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            entry = readMeta(key);
+            if (entry != null) {
+                mEntries.put(key, entry);
+            }
+        }
+        return entry;
+    }
+
+    private File getDir() throws IOException {
+        if (!mDir.isDirectory() && !mDir.mkdirs() && !mDir.isDirectory()) {
+            throw new IOException("Can't create " + mDir);
+        }
+        return mDir;
+    }
+
+    // 把响应体写到tempFile，返回它的sha256；失败时删除tempFile
+    private static String download(ResponseBody body, File tempFile) throws IOException {
+        HashingSink hashingSink = HashingSink.sha256(Okio.sink(tempFile));
+        BufferedSink sink = Okio.buffer(hashingSink);
+        try {
+            sink.writeAll(body.source());
+            sink.close();
+        } catch (IOException e) {
+            CloseUtils.closeIOQuietly(sink);
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+            throw e;
+        } finally {
+            body.close();
+        }
+        return hashingSink.hash().hex();
+    }
+
+    // 不缓存的响应体：打开后就删除文件，读完关闭时空间被回收
+    private static ResponseBody readOnce(File tempFile, MediaType contentType) throws IOException {
+        final long length = tempFile.length();
+        final BufferedSource source;
+        try {
+            source = Okio.buffer(Okio.source(tempFile));
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+        }
+        return ResponseBody.create(source, contentType, length);
+    }
+
+    private Entry store(String key, Response response, File tempFile, String sha256) throws IOException {
+        final File bodyFile = new File(mDir, key + BODY_SUFFIX);
+        if (!tempFile.renameTo(bodyFile)) {
+            // 有的系统renameTo不会替换已有的文件
+            //noinspection ResultOfMethodCallIgnored
+            bodyFile.delete();
+            if (!tempFile.renameTo(bodyFile)) {
+                //noinspection ResultOfMethodCallIgnored
+                tempFile.delete();
+                throw new IOException("Can't write " + bodyFile);
+            }
+        }
+
+        MediaType contentType = response.body().contentType();
+        Entry entry = new Entry(bodyFile, response.header("ETag"), response.header("Last-Modified"),
+                contentType != null ? contentType.toString() : null,
+                sha256, System.currentTimeMillis());
+        writeMeta(entry);
+        trimToSize(key);
+        return entry;
+    }
+
+    private Entry readMeta(String key) {
+        final File metaFile = new File(mDir, key + META_SUFFIX);
+        final File bodyFile = new File(mDir, key + BODY_SUFFIX);
+        if (!metaFile.exists() || !bodyFile.exists()) {
+            return null;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(metaFile), UTF_8));
+            String etag = emptyToNull(reader.readLine());
+            String lastModified = emptyToNull(reader.readLine());
+            String contentType = emptyToNull(reader.readLine());
+            String sha256 = reader.readLine();
+            String fetchedAt = reader.readLine();
+            if (sha256 == null || fetchedAt == null) {
+                return null;
+            }
+            return new Entry(bodyFile, etag, lastModified, contentType, sha256, Long.parseLong(fetchedAt));
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        } finally {
+            CloseUtils.closeIOQuietly(reader);
+        }
+    }
+
+    private void writeMeta(Entry entry) {
+        final String name = entry.bodyFile.getName();
+        final File metaFile = new File(mDir, name.substring(0, name.length() - BODY_SUFFIX.length()) + META_SUFFIX);
+        final File tempFile = new File(mDir, metaFile.getName() + ".tmp");
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(tempFile), UTF_8);
+            writer.write(nullToEmpty(entry.etag) + "\n" + nullToEmpty(entry.lastModified) + "\n"
+                    + nullToEmpty(entry.contentType) + "\n" + entry.sha256 + "\n" + entry.fetchedAt + "\n");
+            writer.close();
+            writer = null;
+            //noinspection ResultOfMethodCallIgnored
+            metaFile.delete();
+            if (!tempFile.renameTo(metaFile)) {
+                //noinspection ResultOfMethodCallIgnored
+                tempFile.delete();
+            }
+        } catch (IOException e) {
+            LogUtils.w(TAG, "Can't write " + metaFile + ": " + e);
+        } finally {
+            CloseUtils.closeIOQuietly(writer);
+        }
+    }
+
+    // 超过maxSize时删除最久没有更新的缓存，不删除keepKey，它正要返回给请求
+    private synchronized void trimToSize(String keepKey) {
+        File[] files = mDir.listFiles((dir, name) -> name.endsWith(BODY_SUFFIX));
+        if (files == null) {
+            return;
+        }
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= mMaxSize) {
+            return;
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (size <= mMaxSize) {
+                break;
+            }
+            final String name = file.getName();
+            final String key = name.substring(0, name.length() - BODY_SUFFIX.length());
+            if (key.equals(keepKey)) {
+                continue;
+            }
+            size -= file.length();
+            mEntries.remove(key);
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            //noinspection ResultOfMethodCallIgnored
+            new File(mDir, key + META_SUFFIX).delete();
+        }
+    }
+
+    private static String emptyToNull(String s) {
+        return s == null || s.isEmpty() ? null : s;
+    }
+
+    private static String nullToEmpty(String s) {
+        return s == null ? "" : s;
+    }
+
+    private static final class Entry {
+        final File bodyFile;
+        final String etag;
+        final String lastModified;
+        final String contentType;
+        final String sha256;
+        final long fetchedAt;
+
+        Entry(File bodyFile, String etag, String lastModified, String contentType, String sha256,
+              long fetchedAt) {
+            this.bodyFile = bodyFile;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.contentType = contentType;
+            this.sha256 = sha256;
+            this.fetchedAt = fetchedAt;
+        }
+
+        Entry refreshed(long now) {
+            return new Entry(bodyFile, etag, lastModified, contentType, sha256, now);
+        }
+
+        // 缓存文件已被删除时返回null
+        Response toResponse(Request request) {
+            final BufferedSource source;
+            try {
+                source = Okio.buffer(Okio.source(bodyFile));
+            } catch (IOException e) {
+                return null;
+            }
+            MediaType mediaType = contentType != null ? MediaType.parse(contentType) : null;
+            Response.Builder builder = new Response.Builder()
+                    .request(request)
+                    .protocol(Protocol.HTTP_1_1)
+                    .code(200)
+                    .message("OK")
+                    .body(ResponseBody.create(source, mediaType, bodyFile.length()));
+            if (contentType != null) {
+                builder.header("Content-Type", contentType);
+            }
+            if (etag != null) {
+                builder.header("ETag", etag);
+            }
+            if (lastModified != null) {
+                builder.header("Last-Modified", lastModified);
+            }
+            return builder.build();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.lantian.base.utils;
+
+import android.os.Process;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * 有名字、线程数有上限的Scheduler
+ * cpu()用于蒙文整形、JSON解析和排版，线程数和CPU核数一样；
+ * io()用于网络和磁盘，线程数固定上限，不像Schedulers.io()那样无限创建线程；
+ * 每个Scheduler统计排队数、排队时间和执行时间
+ * <p>
+ * 用法：
+ * <pre>
+ * api.getBook(name)
+ *         .subscribeOn(AppSchedulers.io())
+ *         .observeOn(AppSchedulers.cpu())
+ *         .map(this::shape)
+ *         .observeOn(AndroidSchedulers.mainThread())
+ * </pre>
+ */
+public final class AppSchedulers {
+
+    private static final int CPU_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final int IO_THREADS = 16;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final MeteredExecutor CPU_EXECUTOR = new MeteredExecutor("AppCpu", CPU_THREADS,
+            Process.THREAD_PRIORITY_BACKGROUND);
+    private static final MeteredExecutor IO_EXECUTOR = new MeteredExecutor("AppIo", IO_THREADS,
+            Process.THREAD_PRIORITY_DEFAULT);
+
+    private static final Scheduler CPU = Schedulers.from(CPU_EXECUTOR);
+    private static final Scheduler IO = Schedulers.from(IO_EXECUTOR);
+
+    private static volatile SchedulerMetrics sMetrics;
+
+    private AppSchedulers() {
+        throw new UnsupportedOperationException("u can't instantiate me...");
+    }
+
+    /**
+     * 计算用，不要在上面做阻塞的网络和磁盘操作
+     */
+    public static Scheduler cpu() {
+        return CPU;
+    }
+
+    /**
+     * 网络和磁盘用
+     */
+    public static Scheduler io() {
+        return IO;
+    }
+
+    public static Stats getCpuStats() {
+        return CPU_EXECUTOR.getStats();
+    }
+
+    public static Stats getIoStats() {
+        return IO_EXECUTOR.getStats();
+    }
+
+    /**
+     * 设置统计的接收者，null表示不统计
+     */
+    public static void setMetrics(SchedulerMetrics metrics) {
+        sMetrics = metrics;
+    }
+
+    /**
+     * 每个任务执行完后调用，在执行任务的线程上，实现要线程安全并且尽快返回
+     */
+    public interface SchedulerMetrics {
+        /**
+         * @param name       Scheduler的名字
+         * @param queueDepth 任务开始时还在排队的任务数
+         * @param waitNanos  任务排队的时间
+         * @param runNanos   任务执行的时间
+         */
+        void onTaskFinished(String name, int queueDepth, long waitNanos, long runNanos);
+    }
+
+    /**
+     * 某一时刻的统计
+     */
+    public static final class Stats {
+        public final String name;
+        public final int poolSize;
+        public final int activeCount;
+        public final int queueDepth;
+        public final int maxQueueDepth;
+        public final long completedCount;
+        public final long averageWaitMillis;
+        public final long maxWaitMillis;
+        public final long averageRunMillis;
+
+        Stats(String name, int poolSize, int activeCount, int queueDepth, int maxQueueDepth,
+              long completedCount, long averageWaitMillis, long maxWaitMillis, long averageRunMillis) {
+            this.name = name;
+            this.poolSize = poolSize;
+            this.activeCount = activeCount;
+            this.queueDepth = queueDepth;
+            this.maxQueueDepth = maxQueueDepth;
+            this.completedCount = completedCount;
+            this.averageWaitMillis = averageWaitMillis;
+            this.maxWaitMillis = maxWaitMillis;
+            this.averageRunMillis = averageRunMillis;
+        }
+
+        @Override
+        public String toString() {
+            return name + " threads=" + poolSize + " active=" + activeCount
+                    + " queued=" + queueDepth + " maxQueued=" + maxQueueDepth
+                    + " completed=" + completedCount + " wait=" + averageWaitMillis
+                    + "ms maxWait=" + maxWaitMillis + "ms run=" + averageRunMillis + "ms";
+        }
+    }
+
+    private static final class MeteredExecutor extends ThreadPoolExecutor {
+
+        private final String mName;
+        private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+        private final AtomicLong mCompleted = new AtomicLong();
+        private final AtomicLong mTotalWaitNanos = new AtomicLong();
+        private final AtomicLong mMaxWaitNanos = new AtomicLong();
+        private final AtomicLong mTotalRunNanos = new AtomicLong();
+
+        // 队列不设上限，线程数到上限后任务排队而不是创建新线程
+        MeteredExecutor(String name, int threads, int priority) {
+            super(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), newThreadFactory(name, priority));
+            mName = name;
+            allowCoreThreadTimeOut(true);
+        }
+
+        private static ThreadFactory newThreadFactory(final String name, final int priority) {
+            final AtomicInteger count = new AtomicInteger();
+            return runnable -> {
+                Thread thread = new Thread(() -> {
+                    Process.setThreadPriority(priority);
+                    runnable.run();
+                }, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            super.execute(new TimedTask(command, System.nanoTime()));
+            final int depth = getQueue().size();
+            int max;
+            while (depth > (max = mMaxQueueDepth.get())) {
+                if (mMaxQueueDepth.compareAndSet(max, depth)) {
+                    break;
+                }
+            }
+        }
+
+        void onTaskFinished(int queueDepth, long waitNanos, long runNanos) {
+            mCompleted.incrementAndGet();
+            mTotalWaitNanos.addAndGet(waitNanos);
+            mTotalRunNanos.addAndGet(runNanos);
+            long max;
+            while (waitNanos > (max = mMaxWaitNanos.get())) {
+                if (mMaxWaitNanos.compareAndSet(max, waitNanos)) {
+                    break;
+                }
+            }
+            SchedulerMetrics metrics = sMetrics;
+            if (metrics != null) {
+                metrics.onTaskFinished(mName, queueDepth, waitNanos, runNanos);
+            }
+        }
+
+        Stats getStats() {
+            final long completed = mCompleted.get();
+            final long divisor = Math.max(completed, 1) * 1000000L;
+            return new Stats(mName, getPoolSize(), getActiveCount(), getQueue().size(),
+                    mMaxQueueDepth.get(), completed,
+                    mTotalWaitNanos.get() / divisor,
+                    mMaxWaitNanos.get() / 1000000L,
+                    mTotalRunNanos.get() / divisor);
+        }
+
+        private final class TimedTask implements Runnable {
+            private final Runnable mTask;
+            private final long mQueuedAt;
+
+            TimedTask(Runnable task, long queuedAt) {
+                mTask = task;
+                mQueuedAt = queuedAt;
+            }
+
+            @Override
+            public void run() {
+                final long startedAt = System.nanoTime();
+                final int queueDepth = getQueue().size();
+                try {
+                    mTask.run();
+                } finally {
+                    onTaskFinished(queueDepth, startedAt - mQueuedAt, System.nanoTime() - startedAt);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.lantian.base.utils;
+
+import android.annotation.TargetApi;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.net.NetworkRequest;
+import android.os.Build;
+
+import androidx.core.net.ConnectivityManagerCompat;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 监听网络状态
+ * 网络变化时由系统回调更新状态，isConnected()和isMetered()只读取volatile字段，
+ * 每个请求都可以调用，不会像NetworkUtils.isConnected()那样每次都跨进程查询
+ * <p>
+ * API 24以上监听默认网络，21到23监听所有网络，21以下监听CONNECTIVITY_ACTION广播
+ * <p>需添加权限 {@code <uses-permission android:name="android.permission.ACCESS_NETWORK_STATE"/>}</p>
+ */
+public final class ConnectivityMonitor {
+
+    public interface OnConnectivityChangedListener {
+        /**
+         * 网络状态变化时在系统回调的线程上调用
+         *
+         * @param connected 是否连接
+         * @param metered   是否按流量计费，比如移动数据
+         */
+        void onConnectivityChanged(boolean connected, boolean metered);
+    }
+
+    private static volatile ConnectivityMonitor sInstance;
+
+    private final ConnectivityManager mManager;
+    private final List<OnConnectivityChangedListener> mListeners = new CopyOnWriteArrayList<>();
+    private volatile boolean mConnected;
+    private volatile boolean mMetered;
+
+    /**
+     * 第一次调用时开始监听，应用启动时调用一次
+     */
+    public static ConnectivityMonitor getInstance() {
+        if (sInstance == null) {
+            synchronized (ConnectivityMonitor.class) {
+                if (sInstance == null) {
+                    sInstance = new ConnectivityMonitor(GetApplicationContext.getContext());
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    private ConnectivityMonitor(Context context) {
+        mManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        update();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            registerDefaultNetworkCallback();
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            registerNetworkCallback();
+        } else {
+            context.getApplicationContext().registerReceiver(new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    update();
+                }
+            }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        }
+    }
+
+    /**
+     * 网络是否连接
+     */
+    public boolean isConnected() {
+        return mConnected;
+    }
+
+    /**
+     * 当前网络是否按流量计费，没有连接时返回false
+     */
+    public boolean isMetered() {
+        return mMetered;
+    }
+
+    /**
+     * 是否连接了不计流量的网络，比如WiFi，适合预取和下载整本书
+     */
+    public boolean isUnmetered() {
+        return mConnected && !mMetered;
+    }
+
+    public void addListener(OnConnectivityChangedListener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(OnConnectivityChangedListener listener) {
+        mListeners.remove(listener);
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    private void registerDefaultNetworkCallback() {
+        mManager.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+                setState(capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET),
+                        !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED));
+            }
+
+            @Override
+            public void onLost(Network network) {
+                setState(false, false);
+            }
+        });
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void registerNetworkCallback() {
+        NetworkRequest request = new NetworkRequest.Builder()
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                .build();
+        // 不知道哪个是默认网络，变化时查询一次
+        mManager.registerNetworkCallback(request, new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                update();
+            }
+
+            @Override
+            public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+                update();
+            }
+
+            @Override
+            public void onLost(Network network) {
+                update();
+            }
+        });
+    }
+
+    private void update() {
+        NetworkInfo info = mManager.getActiveNetworkInfo();
+        final boolean connected = info != null && info.isConnected();
+        setState(connected, connected && ConnectivityManagerCompat.isActiveNetworkMetered(mManager));
+    }
+
+    private synchronized void setState(boolean connected, boolean metered) {
+        if (connected == mConnected && metered == mMetered) {
+            return;
+        }
+        mConnected = connected;
+        mMetered = metered;
+        for (OnConnectivityChangedListener listener : mListeners) {
+            listener.onConnectivityChanged(connected, metered);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.lantian.base.utils;
+
+/**
+ * 统计数值的出口，MongolMetrics、NetworkTimings和HttpLatencyStats共用
+ * publish()时每个计时器和计数器各调用一次，可以转发到日志或者上报
+ */
+public interface MetricsSink {
+
+    /**
+     * @param name     计时器的名字，比如"MongolLayout.breakLines"或者"/MGetBook/ WAIT"
+     * @param snapshot 计时器当前的直方图
+     */
+    void onTimer(String name, LatencyHistogram.Snapshot snapshot);
+
+    void onCounter(String name, long value);
+
+    /**
+     * 打印到日志，没有记录的计时器不打印
+     */
+    final class LogSink implements MetricsSink {
+        private final String mTag;
+
+        public LogSink(String tag) {
+            mTag = tag;
+        }
+
+        @Override
+        public void onTimer(String name, LatencyHistogram.Snapshot snapshot) {
+            if (snapshot.count == 0) {
+                return;
+            }
+            LogUtils.d(mTag, name + ": " + snapshot);
+        }
+
+        @Override
+        public void onCounter(String name, long value) {
+            LogUtils.d(mTag, name + ": " + value);
+        }
+    }
+}
@@ -19,6 +19,8 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
+import io.reactivex.Single;
+
 /**
  * Created by Sherlock·Holmes on 2020/5/27
  */
@@ -76,7 +78,9 @@ public class NetworkUtils {
      * <p>需添加权限 {@code <uses-permission android:name="android.permission.INTERNET"/>}</p>
      *
      * @return {@code true}: 可用<br>{@code false}: 不可用
+     * @deprecated 会启动ping进程并阻塞最多1秒，用 {@link ReachabilityProbe#check()}
      */
+    @Deprecated
     public static boolean isAvailableByPing() {
         ShellUtils.CommandResult result = ShellUtils.execCmd("ping -c 1 -w 1 223.5.5.5", false);
         boolean ret = result.result == 0;
@@ -185,9 +189,25 @@ public class NetworkUtils {
      * <p>需添加权限 {@code <uses-permission android:name="android.permission.INTERNET"/>}</p>
      *
      * @return {@code true}: 是<br>{@code false}: 否
+     * @deprecated 会阻塞到 {@link ReachabilityProbe} 检查完，用 {@link #isWifiAvailableAsync()}
      */
+    @Deprecated
     public static boolean isWifiAvailable() {
-        return getWifiEnabled() && isAvailableByPing();
+        return getWifiEnabled() && ReachabilityProbe.getInstance().check().blockingGet();
+    }
+
+    /**
+     * 判断wifi数据是否可用，不阻塞调用的线程
+     * <p>需添加权限 {@code <uses-permission android:name="android.permission.ACCESS_WIFI_STATE"/>}</p>
+     * <p>需添加权限 {@code <uses-permission android:name="android.permission.INTERNET"/>}</p>
+     *
+     * @return wifi打开并且 {@link ReachabilityProbe} 可以访问服务器时发出true
+     */
+    public static Single<Boolean> isWifiAvailableAsync() {
+        if (!getWifiEnabled()) {
+            return Single.just(false);
+        }
+        return ReachabilityProbe.getInstance().check();
     }
 
     /**
@@ -0,0 +1,155 @@
+package com.lantian.base.utils;
+
+import com.lantian.base.common.Constants;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.subjects.BehaviorSubject;
+import okhttp3.HttpUrl;
+
+/**
+ * 检查接口服务器是否可以访问
+ * 在后台线程上用TCP连接服务器的端口，不启动ping进程，也不阻塞调用的线程；
+ * 结果在ttl内有效，同时只会有一个检查在进行
+ * <p>
+ * 用法：
+ * <pre>
+ * ReachabilityProbe.getInstance().check()
+ *         .observeOn(AndroidSchedulers.mainThread())
+ *         .subscribe(reachable -> ...);
+ * </pre>
+ */
+public final class ReachabilityProbe {
+
+    private static final long DEFAULT_TTL_MILLIS = 30 * 1000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 3000;
+
+    private static volatile ReachabilityProbe sInstance;
+
+    private final String mHost;
+    private final int mPort;
+    private final long mTtlMillis;
+    private final Scheduler mScheduler;
+    private final BehaviorSubject<Boolean> mState = BehaviorSubject.create();
+
+    private volatile long mCheckedAt;
+    private Single<Boolean> mInFlight;
+
+    /**
+     * 检查Constants.BASE_URL的服务器，网络变化时重新检查
+     */
+    public static ReachabilityProbe getInstance() {
+        if (sInstance == null) {
+            synchronized (ReachabilityProbe.class) {
+                if (sInstance == null) {
+                    HttpUrl url = HttpUrl.get(Constants.BASE_URL);
+                    ReachabilityProbe probe = new ReachabilityProbe(url.host(), url.port(),
+                            DEFAULT_TTL_MILLIS, AppSchedulers.io());
+                    ConnectivityMonitor.getInstance().addListener(
+                            (connected, metered) -> probe.onConnectivityChanged(connected));
+                    sInstance = probe;
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param host      服务器
+     * @param port      端口
+     * @param ttlMillis 结果的有效时间
+     * @param scheduler 连接服务器的线程
+     */
+    public ReachabilityProbe(String host, int port, long ttlMillis, Scheduler scheduler) {
+        mHost = host;
+        mPort = port;
+        mTtlMillis = ttlMillis;
+        mScheduler = scheduler;
+    }
+
+    /**
+     * 结果在有效期内时直接返回，否则在后台检查一次
+     */
+    public synchronized Single<Boolean> check() {
+        Boolean last = mState.getValue();
+        if (last != null && System.currentTimeMillis() - mCheckedAt < mTtlMillis) {
+            return Single.just(last);
+        }
+        if (mInFlight == null) {
+            mInFlight = Single.fromCallable(this::probe)
+                    .subscribeOn(mScheduler)
+                    .doOnSuccess(this::setReachable)
+                    .doFinally(this::onProbeFinished)
+                    .cache();
+        }
+        return mInFlight;
+    }
+
+    /**
+     * 服务器是否可以访问，订阅时检查一次，之后只在结果变化时发出
+     */
+    public Observable<Boolean> observe() {
+        return Observable.defer(() -> {
+            check().subscribe(reachable -> {
+            }, throwable -> {
+            });
+            return mState.distinctUntilChanged();
+        });
+    }
+
+    /**
+     * 上次检查的结果，不管是否过期，还没检查过时返回null
+     */
+    public Boolean getLastResult() {
+        return mState.getValue();
+    }
+
+    /**
+     * 使上次的结果失效，下次check()时重新检查
+     */
+    public void invalidate() {
+        mCheckedAt = 0;
+    }
+
+    private void onConnectivityChanged(boolean connected) {
+        if (connected) {
+            invalidate();
+            check().subscribe(reachable -> {
+            }, throwable -> {
+            });
+        } else {
+            // 没有网络就不用连接了
+            setReachable(false);
+        }
+    }
+
+    private boolean probe() {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(mHost, mPort), CONNECT_TIMEOUT_MILLIS);
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            // API 19以下Socket没有实现Closeable
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private synchronized void setReachable(boolean reachable) {
+        mCheckedAt = System.currentTimeMillis();
+        mState.onNext(reachable);
+    }
+
+    private synchronized void onProbeFinished() {
+        mInFlight = null;
+    }
+}
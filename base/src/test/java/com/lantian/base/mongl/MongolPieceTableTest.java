@@ -0,0 +1,199 @@
+package com.lantian.base.mongl;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Local tests of MongolPieceTable. The text is compared with a StringBuilder
+ * that gets the same edits. subSequence() is not tested here because it
+ * returns a SpannableStringBuilder.
+ */
+public class MongolPieceTableTest {
+
+    private static final int DOCUMENT_SIZE = 1024 * 1024;
+    private static final int EDIT_COUNT = 5000;
+
+    @Test
+    public void randomEdits_onOneMegabyteDocument_matchStringBuilder() {
+        final Random random = new Random(42);
+        final String original = randomText(random, DOCUMENT_SIZE);
+        final StringBuilder expected = new StringBuilder(original);
+        final MongolPieceTable table = new MongolPieceTable(original);
+
+        for (int i = 0; i < EDIT_COUNT; i++) {
+            final int length = expected.length();
+            final int st = random.nextInt(length + 1);
+            switch (random.nextInt(3)) {
+                case 0: {
+                    String text = randomText(random, 1 + random.nextInt(64));
+                    table.insert(st, text);
+                    expected.insert(st, text);
+                    break;
+                }
+                case 1: {
+                    int en = Math.min(length, st + random.nextInt(256));
+                    table.delete(st, en);
+                    expected.delete(st, en);
+                    break;
+                }
+                default: {
+                    int en = Math.min(length, st + random.nextInt(32));
+                    String text = randomText(random, random.nextInt(32));
+                    table.replace(st, en, text);
+                    expected.replace(st, en, text);
+                    break;
+                }
+            }
+            assertEquals(expected.length(), table.length());
+            if (expected.length() > 0) {
+                // around the edit and somewhere else
+                int around = Math.min(st, expected.length() - 1);
+                assertEquals(expected.charAt(around), table.charAt(around));
+                int index = random.nextInt(expected.length());
+                assertEquals(expected.charAt(index), table.charAt(index));
+            }
+        }
+
+        // every edit adds at most two pieces
+        assertTrue(table.getPieceCount() <= 1 + 2 * EDIT_COUNT);
+        assertEquals(expected.toString(), table.toString());
+
+        final int start = random.nextInt(expected.length() / 2);
+        final int end = start + random.nextInt(expected.length() / 2);
+        char[] chars = new char[end - start + 2];
+        table.getChars(start, end, chars, 2);
+        assertEquals(expected.substring(start, end), new String(chars, 2, end - start));
+    }
+
+    @Test
+    public void sequentialCharAt_acrossManyPieces() {
+        final String original = randomText(new Random(7), DOCUMENT_SIZE);
+        final MongolPieceTable table = new MongolPieceTable(original);
+        for (int i = 0; i < 1000; i++) {
+            table.insert(i * 1000, "x");
+        }
+        StringBuilder expected = new StringBuilder(original);
+        for (int i = 0; i < 1000; i++) {
+            expected.insert(i * 1000, "x");
+        }
+        for (int i = 0; i < table.length(); i++) {
+            if (table.charAt(i) != expected.charAt(i)) {
+                fail("charAt " + i);
+            }
+        }
+    }
+
+    @Test
+    public void edits_splitAndMergePieces() {
+        MongolPieceTable table = new MongolPieceTable("abcdef");
+        assertEquals(1, table.getPieceCount());
+
+        // inserting in the middle splits the original piece
+        table.insert(3, "XY");
+        assertEquals("abcXYdef", table.toString());
+        assertEquals(3, table.getPieceCount());
+
+        table.insert(0, ">");
+        table.append("!");
+        assertEquals(">abcXYdef!", table.toString());
+        assertEquals(5, table.getPieceCount());
+
+        // deleting whole pieces removes them
+        table.delete(0, 1);
+        table.delete(3, 5);
+        assertEquals("abcdef!", table.toString());
+        assertEquals(3, table.getPieceCount());
+
+        // deleting across pieces keeps the outer parts
+        table.delete(2, 5);
+        assertEquals("abf!", table.toString());
+        assertEquals(3, table.getPieceCount());
+
+        table.replace(1, 3, "ZZZ");
+        assertEquals("aZZZ!", table.toString());
+
+        table.clear();
+        assertEquals(0, table.length());
+        assertEquals(0, table.getPieceCount());
+        table.append("z");
+        assertEquals("z", table.toString());
+        assertEquals(1, table.getPieceCount());
+    }
+
+    @Test
+    public void typing_extendsTheLastInsertedPiece() {
+        MongolPieceTable table = new MongolPieceTable("abcdef");
+        table.insert(3, "X");
+        table.insert(4, "Y");
+        table.insert(5, "Z");
+        assertEquals("abcXYZdef", table.toString());
+        assertEquals(3, table.getPieceCount());
+
+        // backspace then type: the add buffer has moved on, so a new piece is needed
+        table.delete(5, 6);
+        table.insert(5, "W");
+        assertEquals("abcXYWdef", table.toString());
+        assertEquals(4, table.getPieceCount());
+
+        // typing somewhere else does not touch the earlier piece
+        table.insert(0, "<");
+        table.insert(1, "<");
+        assertEquals("<<abcXYWdef", table.toString());
+        assertEquals(5, table.getPieceCount());
+    }
+
+    @Test
+    public void insert_copiesFromStringBuilderAndCharSequence() {
+        MongolPieceTable table = new MongolPieceTable(new StringBuilder("ace"));
+        table.insert(1, new StringBuilder("b"));
+        table.insert(3, new MongolPieceTable("d"));
+        assertEquals("abcde", table.toString());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void delete_pastEnd_throws() {
+        new MongolPieceTable("abc").delete(1, 4);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void charAt_pastEnd_throws() {
+        new MongolPieceTable("abc").charAt(3);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getChars_endBeforeStart_throws() {
+        new MongolPieceTable("abc").getChars(2, 1, new char[4], 0);
+    }
+
+    @Test
+    public void spans_moveWithEdits() {
+        MongolPieceTable table = new MongolPieceTable("0123456789");
+        Object span = new Object();
+        table.setSpan(span, 2, 5, MongolSpanTreeTest.EXCLUSIVE_EXCLUSIVE);
+
+        table.insert(0, "ab");
+        assertEquals(4, table.getSpanStart(span));
+        assertEquals(7, table.getSpanEnd(span));
+
+        table.delete(8, 12);
+        assertEquals(4, table.getSpanStart(span));
+        assertEquals(7, table.getSpanEnd(span));
+
+        table.delete(3, 8);
+        assertEquals(-1, table.getSpanStart(span));
+    }
+
+    private static String randomText(Random random, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            // Mongolian letters and spaces
+            chars[i] = random.nextInt(8) == 0 ? ' ' : (char) (0x1820 + random.nextInt(0x43));
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,248 @@
+package com.lantian.base.mongl;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Local tests of MongolSpanTree. The expected values are what
+ * SpannableStringBuilder does for the same spans and edits.
+ */
+public class MongolSpanTreeTest {
+
+    // the values of the Spanned flags
+    static final int INCLUSIVE_EXCLUSIVE = 0x11;
+    static final int INCLUSIVE_INCLUSIVE = 0x12;
+    static final int EXCLUSIVE_EXCLUSIVE = 0x21;
+    static final int EXCLUSIVE_INCLUSIVE = 0x22;
+    private static final int PRIORITY_SHIFT = 16;
+
+    @Test
+    public void insertAtStart_movesPointsOnly() {
+        assertAfterReplace(EXCLUSIVE_EXCLUSIVE, 2, 2, 2, 4, 7);
+        assertAfterReplace(EXCLUSIVE_INCLUSIVE, 2, 2, 2, 4, 7);
+        assertAfterReplace(INCLUSIVE_EXCLUSIVE, 2, 2, 2, 2, 7);
+        assertAfterReplace(INCLUSIVE_INCLUSIVE, 2, 2, 2, 2, 7);
+    }
+
+    @Test
+    public void insertAtEnd_movesPointsOnly() {
+        assertAfterReplace(EXCLUSIVE_EXCLUSIVE, 5, 5, 2, 2, 5);
+        assertAfterReplace(EXCLUSIVE_INCLUSIVE, 5, 5, 2, 2, 7);
+        assertAfterReplace(INCLUSIVE_EXCLUSIVE, 5, 5, 2, 2, 5);
+        assertAfterReplace(INCLUSIVE_INCLUSIVE, 5, 5, 2, 2, 7);
+    }
+
+    @Test
+    public void editsInsideAndAround_resizeTheSpan() {
+        // before the span
+        assertAfterReplace(EXCLUSIVE_EXCLUSIVE, 0, 1, 3, 4, 7);
+        // after the span
+        assertAfterReplace(EXCLUSIVE_EXCLUSIVE, 6, 8, 0, 2, 5);
+        // inside the span
+        assertAfterReplace(EXCLUSIVE_EXCLUSIVE, 3, 4, 3, 2, 7);
+        // over the start
+        assertAfterReplace(EXCLUSIVE_EXCLUSIVE, 1, 3, 0, 1, 3);
+        // over the end
+        assertAfterReplace(INCLUSIVE_INCLUSIVE, 4, 7, 0, 2, 4);
+        // a mark at the end of the replaced text stays at the end of the new text
+        assertAfterReplace(INCLUSIVE_EXCLUSIVE, 3, 5, 4, 2, 7);
+    }
+
+    @Test
+    public void deletingTheWholeSpan_removesOnlyExclusiveSpans() {
+        MongolSpanTree tree = new MongolSpanTree();
+        Object exclusive = new Object();
+        Object inclusive = new Object();
+        Object markMark = new Object();
+        tree.setSpan(exclusive, 2, 5, EXCLUSIVE_EXCLUSIVE);
+        tree.setSpan(inclusive, 2, 5, INCLUSIVE_INCLUSIVE);
+        tree.setSpan(markMark, 2, 5, INCLUSIVE_EXCLUSIVE);
+
+        tree.replace(0, 10, 0);
+
+        assertEquals(-1, tree.getSpanStart(exclusive));
+        assertEquals(2, tree.size());
+        assertEquals(0, tree.getSpanStart(inclusive));
+        assertEquals(0, tree.getSpanEnd(inclusive));
+        assertEquals(0, tree.getSpanStart(markMark));
+        assertEquals(0, tree.getSpanEnd(markMark));
+    }
+
+    @Test
+    public void spansAfterTheEdit_shiftTogether() {
+        MongolSpanTree tree = new MongolSpanTree();
+        Object[] spans = new Object[100];
+        for (int i = 0; i < spans.length; i++) {
+            spans[i] = new Object();
+            tree.setSpan(spans[i], 10 + i, 20 + i, EXCLUSIVE_EXCLUSIVE);
+        }
+        tree.replace(0, 0, 5);
+        tree.replace(1, 3, 0);
+        for (int i = 0; i < spans.length; i++) {
+            assertEquals(13 + i, tree.getSpanStart(spans[i]));
+            assertEquals(23 + i, tree.getSpanEnd(spans[i]));
+        }
+    }
+
+    @Test
+    public void getSpans_followsSpannableStringBuilder() {
+        MongolSpanTree tree = new MongolSpanTree();
+        Object a = "a";
+        Object b = "b";
+        Object empty = "empty";
+        tree.setSpan(a, 2, 5, EXCLUSIVE_EXCLUSIVE);
+        tree.setSpan(b, 5, 8, EXCLUSIVE_EXCLUSIVE);
+        tree.setSpan(empty, 5, 5, EXCLUSIVE_EXCLUSIVE);
+
+        // spans that only touch a non-empty query are left out, empty spans are not
+        assertArrayEquals(new Object[]{b, empty}, tree.getSpans(5, 8, Object.class));
+        assertArrayEquals(new Object[]{a, empty}, tree.getSpans(0, 5, Object.class));
+        // an empty query gets everything that touches it
+        assertArrayEquals(new Object[]{a, b, empty}, tree.getSpans(5, 5, Object.class));
+        // only spans of the requested type
+        Object number = 6;
+        tree.setSpan(number, 6, 7, EXCLUSIVE_EXCLUSIVE);
+        assertArrayEquals(new Object[]{b, empty}, tree.getSpans(5, 8, String.class));
+        assertArrayEquals(new Object[]{number}, tree.getSpans(0, 10, Integer.class));
+    }
+
+    @Test
+    public void getSpans_ordersByPriorityThenInsertion() {
+        MongolSpanTree tree = new MongolSpanTree();
+        Object first = "first";
+        Object second = "second";
+        Object important = "important";
+        tree.setSpan(first, 0, 5, EXCLUSIVE_EXCLUSIVE);
+        tree.setSpan(second, 0, 5, EXCLUSIVE_EXCLUSIVE);
+        tree.setSpan(important, 0, 5, EXCLUSIVE_EXCLUSIVE | (1 << PRIORITY_SHIFT));
+        assertArrayEquals(new Object[]{important, first, second}, tree.getSpans(0, 5, Object.class));
+
+        // setting a span again moves it but keeps its place in the order
+        tree.setSpan(first, 1, 2, EXCLUSIVE_EXCLUSIVE);
+        assertArrayEquals(new Object[]{important, first, second}, tree.getSpans(0, 5, Object.class));
+    }
+
+    @Test
+    public void nextSpanTransition_findsStartsAndEnds() {
+        MongolSpanTree tree = new MongolSpanTree();
+        tree.setSpan("a", 2, 5, EXCLUSIVE_EXCLUSIVE);
+        tree.setSpan("b", 4, 8, EXCLUSIVE_EXCLUSIVE);
+        tree.setSpan(1, 6, 7, EXCLUSIVE_EXCLUSIVE);
+        assertEquals(2, tree.nextSpanTransition(0, 10, Object.class));
+        assertEquals(4, tree.nextSpanTransition(2, 10, Object.class));
+        assertEquals(5, tree.nextSpanTransition(4, 10, Object.class));
+        assertEquals(6, tree.nextSpanTransition(5, 10, Object.class));
+        assertEquals(8, tree.nextSpanTransition(5, 10, String.class));
+        assertEquals(10, tree.nextSpanTransition(8, 10, Object.class));
+    }
+
+    @Test
+    public void randomEdits_matchFlatList() {
+        final Random random = new Random(1);
+        final int textLength = 1024 * 1024;
+        final int[] flags = {INCLUSIVE_EXCLUSIVE, INCLUSIVE_INCLUSIVE, EXCLUSIVE_EXCLUSIVE, EXCLUSIVE_INCLUSIVE};
+        MongolSpanTree tree = new MongolSpanTree();
+        List<FlatSpan> expected = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            FlatSpan span = new FlatSpan();
+            span.start = random.nextInt(textLength);
+            span.end = Math.min(textLength, span.start + random.nextInt(2000));
+            span.flags = flags[random.nextInt(flags.length)];
+            expected.add(span);
+            tree.setSpan(span, span.start, span.end, span.flags);
+        }
+
+        int length = textLength;
+        for (int i = 0; i < 3000; i++) {
+            final int st = random.nextInt(length + 1);
+            final int en = Math.min(length, st + (random.nextBoolean() ? 0 : random.nextInt(500)));
+            final int insertLength = random.nextInt(3) == 0 ? 0 : random.nextInt(200);
+            tree.replace(st, en, insertLength);
+            FlatSpan.replace(expected, st, en, insertLength);
+            length += insertLength - (en - st);
+
+            if (i % 100 == 0) {
+                assertSameSpans(tree, expected, random, length);
+            }
+        }
+        assertSameSpans(tree, expected, random, length);
+    }
+
+    private static void assertSameSpans(MongolSpanTree tree, List<FlatSpan> expected, Random random,
+                                        int length) {
+        assertEquals(expected.size(), tree.size());
+        for (FlatSpan span : expected) {
+            assertEquals(span.start, tree.getSpanStart(span));
+            assertEquals(span.end, tree.getSpanEnd(span));
+        }
+        for (int q = 0; q < 20; q++) {
+            final int queryStart = random.nextInt(length + 1);
+            final int queryEnd = Math.min(length, queryStart + random.nextInt(5000));
+            Set<Object> found = new HashSet<Object>(Arrays.asList(
+                    tree.getSpans(queryStart, queryEnd, Object.class)));
+            Set<Object> brute = new HashSet<>();
+            for (FlatSpan span : expected) {
+                if (span.start > queryEnd || span.end < queryStart) continue;
+                if (span.start != span.end && queryStart != queryEnd
+                        && (span.start == queryEnd || span.end == queryStart)) continue;
+                brute.add(span);
+            }
+            assertEquals(brute, found);
+        }
+    }
+
+    private static void assertAfterReplace(int flags, int st, int en, int insertLength,
+                                           int expectedStart, int expectedEnd) {
+        MongolSpanTree tree = new MongolSpanTree();
+        Object span = new Object();
+        tree.setSpan(span, 2, 5, flags);
+        tree.replace(st, en, insertLength);
+        String edit = "flags 0x" + Integer.toHexString(flags) + " replace " + st + "..." + en
+                + " with " + insertLength;
+        assertEquals(edit, expectedStart, tree.getSpanStart(span));
+        assertEquals(edit, expectedEnd, tree.getSpanEnd(span));
+    }
+
+    /**
+     * A span in a plain list, moved one by one like SpannableStringBuilder does.
+     */
+    private static final class FlatSpan {
+        int start;
+        int end;
+        int flags;
+
+        static void replace(List<FlatSpan> spans, int st, int en, int insertLength) {
+            final boolean textIsRemoved = en > st;
+            for (int i = spans.size() - 1; i >= 0; i--) {
+                FlatSpan span = spans.get(i);
+                final boolean wasEmpty = span.start == span.end;
+                final boolean startIsPoint = (span.flags & 0xF0) == 0x20;
+                final boolean endIsPoint = (span.flags & 0x0F) == 0x02;
+                span.start = move(span.start, st, en, insertLength, startIsPoint, textIsRemoved);
+                span.end = Math.max(span.start,
+                        move(span.end, st, en, insertLength, endIsPoint, textIsRemoved));
+                if (!wasEmpty && span.start == span.end && textIsRemoved
+                        && span.flags == EXCLUSIVE_EXCLUSIVE) {
+                    spans.remove(i);
+                }
+            }
+        }
+
+        private static int move(int offset, int st, int en, int insertLength, boolean isPoint,
+                                boolean textIsRemoved) {
+            if (offset < st) return offset;
+            if (offset > en) return offset + insertLength - (en - st);
+            if (isPoint) return (offset == st && textIsRemoved) ? st : st + insertLength;
+            return (offset == en && textIsRemoved) ? st + insertLength : st;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.lantian.base.net.book;
+
+import com.lantian.base.common.bean.GetBook;
+import com.lantian.base.net.retrofit.api.book.getBook;
+import com.lantian.base.net.retrofit.converter.MyGsonConverterFactory;
+import com.lantian.base.net.retrofit.exception.NoDataExceptionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.Schedulers;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava2.RxJava2CallAdapterFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ChapterLoader的本地测试，用MockWebServer模拟MGetBook/接口
+ */
+public class ChapterLoaderTest {
+
+    private static final Pattern START = Pattern.compile("start=(\\d+)");
+    private static final Pattern COUNT = Pattern.compile("count=(\\d+)");
+
+    private MockWebServer mServer;
+    private getBook mApi;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.start();
+        mApi = new Retrofit.Builder()
+                .baseUrl(mServer.url("/"))
+                .addConverterFactory(MyGsonConverterFactory.create())
+                .addCallAdapterFactory(RxJava2CallAdapterFactory.create())
+                .build()
+                .create(getBook.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void getChapter_requestsOnlyItsChunk() throws Exception {
+        mServer.setDispatcher(new BookDispatcher(10, true, 0));
+        ChapterLoader loader = new ChapterLoader(mApi, "book", 4, 0, 1, Schedulers.trampoline());
+
+        assertEquals("c5", loader.getChapter(5).blockingFirst().getName());
+        RecordedRequest request = mServer.takeRequest();
+        assertEquals(4, paramOf(START, request.getBody().readUtf8()));
+
+        // 同一段的章节不再请求
+        assertEquals("c7", loader.getChapter(7).blockingFirst().getName());
+        assertEquals("c4", loader.getCachedChapter(4).getName());
+        assertNull(loader.getCachedChapter(8));
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void getChapter_shortChunkEndsTheBook() throws Exception {
+        mServer.setDispatcher(new BookDispatcher(10, true, 0));
+        ChapterLoader loader = new ChapterLoader(mApi, "book", 4, 0, 1, Schedulers.trampoline());
+
+        assertEquals("c9", loader.getChapter(9).blockingFirst().getName());
+        loader.getChapter(10).test().assertError(NoDataExceptionException.class);
+        loader.getChapter(20).test().assertError(NoDataExceptionException.class);
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void getChapter_fallsBackToWholeBook() throws Exception {
+        // 服务器忽略start和count，返回整本书
+        mServer.setDispatcher(new BookDispatcher(10, false, 0));
+        ChapterLoader loader = new ChapterLoader(mApi, "book", 4, 8, 1, Schedulers.trampoline());
+
+        assertEquals("c1", loader.getChapter(1).blockingFirst().getName());
+        assertEquals("c9", loader.getChapter(9).blockingFirst().getName());
+        loader.onChapterVisible(1);
+        loader.getChapter(10).test().assertError(NoDataExceptionException.class);
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void getChapter_nullDataIsNoData() {
+        mServer.enqueue(new MockResponse().setBody("{\"status\":200,\"message\":\"ok\",\"data\":null}"));
+        ChapterLoader loader = new ChapterLoader(mApi, "book", 4, 0, 1, Schedulers.trampoline());
+
+        loader.getChapter(0).test().assertError(NoDataExceptionException.class);
+    }
+
+    @Test
+    public void onChapterVisible_prefetchesWithinLimits() throws Exception {
+        BookDispatcher dispatcher = new BookDispatcher(100, true, 50);
+        mServer.setDispatcher(dispatcher);
+        ChapterLoader loader = new ChapterLoader(mApi, "book", 2, 12, 2, Schedulers.io());
+
+        // 第0章可见时预取第1到12章，即从0开始的7段
+        loader.onChapterVisible(0);
+        int lastStart = 0;
+        for (int i = 0; i < 7; i++) {
+            RecordedRequest request = mServer.takeRequest(5, TimeUnit.SECONDS);
+            lastStart = Math.max(lastStart, paramOf(START, request.getBody().readUtf8()));
+        }
+        assertNull(mServer.takeRequest(200, TimeUnit.MILLISECONDS));
+        assertEquals(12, lastStart);
+        assertTrue("concurrent requests " + dispatcher.maxActive.get(), dispatcher.maxActive.get() <= 2);
+
+        // 已加载和请求中的段不再请求
+        waitForChapter(loader, 13);
+        loader.onChapterVisible(0);
+        assertNull(mServer.takeRequest(200, TimeUnit.MILLISECONDS));
+        assertEquals(7, mServer.getRequestCount());
+    }
+
+    @Test
+    public void cancel_stopsRequestsAndPrefetch() throws Exception {
+        mServer.setDispatcher(new BookDispatcher(100, true, 1000));
+        ChapterLoader loader = new ChapterLoader(mApi, "book", 4, 8, 2, Schedulers.io());
+
+        TestObserver<GetBook._$5Bean> observer = loader.getChapter(0).test();
+        mServer.takeRequest(5, TimeUnit.SECONDS);
+        loader.cancel();
+
+        assertTrue(loader.isCancelled());
+        observer.awaitTerminalEvent(5, TimeUnit.SECONDS);
+        observer.assertNoValues();
+        assertNull(loader.getCachedChapter(0));
+
+        loader.onChapterVisible(0);
+        loader.getChapter(8).test().assertError(NoDataExceptionException.class);
+        assertNull(mServer.takeRequest(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    private static void waitForChapter(ChapterLoader loader, int index) throws InterruptedException {
+        for (int i = 0; i < 100 && loader.getCachedChapter(index) == null; i++) {
+            Thread.sleep(50);
+        }
+        assertFalse(loader.getCachedChapter(index) == null);
+    }
+
+    private static int paramOf(Pattern pattern, String body) {
+        Matcher matcher = pattern.matcher(body);
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) : -1;
+    }
+
+    /**
+     * 一本chapters章的书，章节名是c加序号
+     */
+    private static final class BookDispatcher extends Dispatcher {
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        private final int mChapters;
+        private final boolean mSupportsRange;
+        private final long mDelayMillis;
+
+        BookDispatcher(int chapters, boolean supportsRange, long delayMillis) {
+            mChapters = chapters;
+            mSupportsRange = supportsRange;
+            mDelayMillis = delayMillis;
+        }
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+            final int now = active.incrementAndGet();
+            int max;
+            while (now > (max = maxActive.get()) && !maxActive.compareAndSet(max, now)) {
+            }
+            try {
+                if (mDelayMillis > 0) {
+                    Thread.sleep(mDelayMillis);
+                }
+                String body = request.getBody().clone().readUtf8();
+                int start = 0;
+                int end = mChapters;
+                if (mSupportsRange && paramOf(START, body) >= 0) {
+                    start = paramOf(START, body);
+                    end = Math.min(mChapters, start + paramOf(COUNT, body));
+                }
+                StringBuilder json = new StringBuilder("{\"status\":200,\"message\":\"ok\",\"data\":{");
+                for (int i = start; i < end; i++) {
+                    if (i > start) {
+                        json.append(',');
+                    }
+                    json.append('"').append(i).append("\":{\"name\":\"c").append(i)
+                            .append("\",\"content\":\"text ").append(i).append("\"}");
+                }
+                return new MockResponse().setBody(json.append("}}").toString());
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+    }
+}
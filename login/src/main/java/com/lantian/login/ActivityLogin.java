@@ -15,9 +15,6 @@ import com.lantian.base.dialog.RxUtil;
 import com.lantian.base.net.retrofit.ResponseObserver;
 import com.lantian.base.net.retrofit.RetrofitHelper;
 
-import io.reactivex.android.schedulers.AndroidSchedulers;
-import io.reactivex.schedulers.Schedulers;
-
 public class ActivityLogin extends BaseActivity implements View.OnClickListener {
 
     private EditText mPhone;
@@ -65,8 +62,6 @@ public class ActivityLogin extends BaseActivity implements View.OnClickListener
         RetrofitHelper.getlogin()
                 .loginSystem(mPhone.getText().toString(),mPassword.getText().toString())
                 .compose(RxUtil.rxSchedulerHelper(this,true))
-                .subscribeOn(Schedulers.io())
-                .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(new ResponseObserver<BaseResponse<LinkedTreeMap>>() {
                     @Override
                     public void onSuccess(BaseResponse<LinkedTreeMap> response) {
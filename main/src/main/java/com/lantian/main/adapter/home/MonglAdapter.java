@@ -11,6 +11,7 @@ import android.widget.TextView;
 
 import com.chad.library.adapter.base.listener.OnItemClickListener;
 import com.lantian.base.common.bean.LeftMenuBean;
+import com.lantian.base.mongl.MongolLayoutCache;
 import com.lantian.base.mongl.MongolTextView;
 import com.lantian.main.R;
 
@@ -66,6 +67,8 @@ public class MonglAdapter extends RecyclerView.Adapter<MonglAdapter.MonglHolder>
         public MonglHolder(@NonNull View itemView) {
             super(itemView);
             mongolTextView = itemView.findViewById(R.id.mongl);
+            // 相同的标题只排版一次
+            mongolTextView.setLayoutCache(MongolLayoutCache.getInstance());
             mongolTextView.setOnClickListener(this);
         }
 
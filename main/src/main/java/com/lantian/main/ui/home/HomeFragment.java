@@ -8,11 +8,7 @@ import android.view.ViewGroup;
 import android.widget.FrameLayout;
 
 import com.alibaba.fastjson.JSON;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.internal.LinkedTreeMap;
 import com.lantian.base.activity.BaseFragment;
-import com.lantian.base.common.BaseResponse;
 import com.lantian.base.common.bean.GetBook;
 import com.lantian.base.common.bean.LeftMenuBean;
 import com.lantian.base.mongl.MongolTextView;
@@ -27,6 +23,8 @@ import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 import androidx.annotation.NonNull;
 import androidx.fragment.app.Fragment;
@@ -40,6 +38,8 @@ import androidx.recyclerview.widget.RecyclerView;
 public class HomeFragment extends BaseFragment {
 
     private static final String TAG =BaseFragment.class.getName();
+    /**章节排版线程**/
+    private static final Executor TEXT_EXECUTOR = Executors.newSingleThreadExecutor();
     private HomeViewModel homeViewModel;
     private LeftmenuAdapter leftmenuAdapter;
     private LinearLayoutManager linearLayoutManager;
@@ -70,15 +70,14 @@ public class HomeFragment extends BaseFragment {
 
             }
         });
-        homeViewModel.getBookData().observe(getViewLifecycleOwner(), new Observer<BaseResponse>() {
+        homeViewModel.getBookData().observe(getViewLifecycleOwner(), new Observer<Map<String, GetBook._$5Bean>>() {
             @Override
-            public void onChanged(BaseResponse baseResponse) {
-                Gson gson = new GsonBuilder().create();
-                LinkedTreeMap<String,LinkedTreeMap> map = (LinkedTreeMap<String, LinkedTreeMap>) baseResponse.getData();
-                for (Object o:map.keySet()){
-                    String json =gson.toJson(map.get(o));
-                    GetBook._$5Bean getBooks = gson.fromJson(json, GetBook._$5Bean.class);
-                    book.setText(getBooks.getContent());
+            public void onChanged(Map<String, GetBook._$5Bean> chapters) {
+                if (chapters == null) {
+                    return;
+                }
+                for (GetBook._$5Bean getBooks : chapters.values()){
+                    book.setShapedTextAsync(getBooks.getContent(), getBooks.getGlyphContent(), TEXT_EXECUTOR);
                 }
             }
         });
@@ -1,49 +1,44 @@
 package com.lantian.main.ui.home;
 
 import android.annotation.SuppressLint;
-import android.os.Handler;
-import android.os.Message;
 
-import androidx.annotation.NonNull;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.ViewModel;
-import io.reactivex.Scheduler;
-import io.reactivex.android.schedulers.AndroidSchedulers;
-import io.reactivex.schedulers.Schedulers;
+import io.reactivex.Observable;
+import io.reactivex.disposables.Disposable;
 
-import com.lantian.base.common.BaseResponse;
 import com.lantian.base.common.bean.GetBook;
 import com.lantian.base.common.bean.LeftMenuBean;
 import com.lantian.base.dialog.RxUtil;
+import com.lantian.base.net.book.BookRepository;
 import com.lantian.base.net.retrofit.ResponseObserver;
-import com.lantian.base.net.retrofit.RetrofitHelper;
+import com.lantian.base.net.retrofit.interceptor.StaleWhileRevalidateInterceptor;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import java.util.logging.LogRecord;
 
 public class HomeViewModel extends ViewModel {
 
-    private Handler handler;
+    private static final String BOOK_NAME = "20200531";
+
     private HomeFragment homeFragment;
-    private MutableLiveData<BaseResponse> getBookMutableLiveData;
+    private MutableLiveData<Map<String, GetBook._$5Bean>> getBookMutableLiveData;
     private MutableLiveData<List<LeftMenuBean>> mutableLiveData;
+    private Disposable updatesDisposable;
     public HomeViewModel() {
         mutableLiveData = new MutableLiveData<>();
         getBookMutableLiveData = new MutableLiveData<>();
         homeFragment = new HomeFragment();
-        getApiData();
-        handler = new Handler(){
-            @Override
-            public void handleMessage(@NonNull Message msg) {
-                super.handleMessage(msg);
-                if (msg.what ==1){
-                    getBookMutableLiveData.postValue((BaseResponse) msg.obj);
-                }
-            }
-        };
+        //切换页面或旋转屏幕后重新创建时从内存返回
+        loadBook(BookRepository.getInstance().getBook(BOOK_NAME));
+        //先显示的是缓存，后台验证发现内容变了再请求一次
+        updatesDisposable = StaleWhileRevalidateInterceptor.updates()
+                .filter(path -> path.endsWith("MGetBook/"))
+                .subscribe(path -> loadBook(BookRepository.getInstance().refreshBook(BOOK_NAME)));
         List<LeftMenuBean> leftMenuBeans = new ArrayList<>();
         LeftMenuBean leftMenuBean = new LeftMenuBean();
         for (int i=0;i<20;i++){
@@ -54,25 +49,25 @@ public class HomeViewModel extends ViewModel {
 
     }
 
-    private void getApiData() {
-        RetrofitHelper.getbook()
-                .getBook("20200531")
-                .compose(RxUtil.rxSchedulerHelper(homeFragment,false))
-                .subscribeOn(Schedulers.io())
-                .subscribeOn(AndroidSchedulers.mainThread())
-                .subscribe(new ResponseObserver<BaseResponse<GetBook>>() {
+    private void loadBook(Observable<Map<String, GetBook._$5Bean>> book) {
+        book.compose(RxUtil.rxSchedulerHelper(homeFragment,false))
+                .subscribe(new ResponseObserver<Map<String, GetBook._$5Bean>>() {
                     @Override
-                    public void onSuccess(BaseResponse<GetBook> response) {
-                        Message message = new Message();
-                        message.what = 1;
-                        message.obj = response;
-                        handler.sendMessage(message);
+                    public void onSuccess(Map<String, GetBook._$5Bean> response) {
+                        //已经在主线程上了
+                        getBookMutableLiveData.setValue(response);
                     }
                 });
 
     }
 
-    public LiveData<BaseResponse> getBookData() {
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        updatesDisposable.dispose();
+    }
+
+    public LiveData<Map<String, GetBook._$5Bean>> getBookData() {
         return getBookMutableLiveData;
     }
 
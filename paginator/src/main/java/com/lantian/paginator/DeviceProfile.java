@@ -0,0 +1,106 @@
+package com.lantian.paginator;
+
+// The page geometry and font settings of a kind of device. Together with a book
+// id and the checksum of its text this is a MongolPageIndex.Key, so the values
+// have to be the ones that the app uses for its reading view (the content size
+// without padding, in pixels).
+//
+// A profile file has one profile per line:
+//
+//     # font              pageWidth pageHeight textSize [spacingMult spacingAdd]
+//     fonts/MQG8F02.ttf   720       1184       36       1.2         0
+
+import com.lantian.base.mongl.MongolPageIndex;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+final class DeviceProfile {
+
+    private static final String QAGAN = "fonts/MQG8F02.ttf"; // MongolFont.QAGAN
+
+    // common phone and tablet screens at the default text size
+    static final List<DeviceProfile> DEFAULTS = Arrays.asList(
+            new DeviceProfile(QAGAN, 480, 760, 24, 1, 0),     // hdpi phone
+            new DeviceProfile(QAGAN, 720, 1184, 36, 1, 0),    // xhdpi phone
+            new DeviceProfile(QAGAN, 1080, 1776, 54, 1, 0),   // xxhdpi phone
+            new DeviceProfile(QAGAN, 1440, 2392, 72, 1, 0),   // xxxhdpi phone
+            new DeviceProfile(QAGAN, 1200, 1824, 40, 1, 0));  // tablet
+
+    final String fontName;
+    final int pageWidth;
+    final int pageHeight;
+    final float textSize;
+    final float spacingMult;
+    final float spacingAdd;
+
+    DeviceProfile(String fontName, int pageWidth, int pageHeight, float textSize,
+                  float spacingMult, float spacingAdd) {
+        if (pageWidth <= 0 || pageHeight <= 0 || textSize <= 0) {
+            throw new IllegalArgumentException("Invalid profile: " + pageWidth + "x" + pageHeight
+                    + " " + textSize);
+        }
+        this.fontName = fontName;
+        this.pageWidth = pageWidth;
+        this.pageHeight = pageHeight;
+        this.textSize = textSize;
+        this.spacingMult = spacingMult;
+        this.spacingAdd = spacingAdd;
+    }
+
+    MongolPageIndex.Key getKey(String bookId, long textChecksum) {
+        return new MongolPageIndex.Key(bookId, textChecksum, pageWidth, pageHeight, fontName,
+                textSize, spacingMult, spacingAdd);
+    }
+
+    static List<DeviceProfile> readFrom(File file) throws IOException {
+        List<DeviceProfile> profiles = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8));
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                final int comment = line.indexOf('#');
+                if (comment >= 0) line = line.substring(0, comment);
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                try {
+                    profiles.add(parse(line.split("\\s+")));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(file + ":" + lineNumber + ": " + e.getMessage(), e);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        if (profiles.isEmpty()) throw new IOException(file + " has no profiles");
+        return profiles;
+    }
+
+    private static DeviceProfile parse(String[] fields) {
+        if (fields.length != 4 && fields.length != 6) {
+            throw new IllegalArgumentException("Expected 4 or 6 fields but got " + fields.length);
+        }
+        return new DeviceProfile(fields[0],
+                Integer.parseInt(fields[1]),
+                Integer.parseInt(fields[2]),
+                Float.parseFloat(fields[3]),
+                (fields.length == 6) ? Float.parseFloat(fields[4]) : 1,
+                (fields.length == 6) ? Float.parseFloat(fields[5]) : 0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s %dx%d %.1fpx", fontName, pageWidth, pageHeight, textSize);
+    }
+}
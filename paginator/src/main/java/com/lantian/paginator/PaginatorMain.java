@@ -0,0 +1,259 @@
+package com.lantian.paginator;
+
+// Paginates a catalogue of books for the common device profiles, so that the app
+// can download the page indexes instead of laying out a book when it is opened
+// for the first time. Each book is shaped once with MongolCode and then broken
+// into lines and pages with MongolLayout for every profile, measuring with the
+// advances of the font files. All cores are used.
+//
+// Usage:
+//
+//     paginator --fonts base/src/main/assets --out indexes [--profiles profiles.txt]
+//               [--threads 8] books/
+//
+// The books are UTF-8 .txt files and the book id is the file name without the
+// extension. An index is written to <out>/<book id>/<key file name>, which is
+// where MongolPageIndexer.load() looks for it in the book directory.
+
+import com.lantian.base.mongl.MongolPageIndex;
+import com.lantian.base.mongl.MongolPaginator;
+import com.lantian.base.mongl.TextMeasurer;
+import com.lantian.base.mongl.TtfMetrics;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class PaginatorMain {
+
+    private static final String BOOK_EXTENSION = ".txt";
+    private static final int BOOKS_IN_FLIGHT_PER_THREAD = 2;
+
+    private final File mOutDir;
+    private final List<DeviceProfile> mProfiles;
+    private final TextMeasurer[] mMeasurers; // by profile, they are immutable
+    private final int mThreads;
+
+    private final AtomicInteger mBooksDone = new AtomicInteger();
+    private final AtomicInteger mBooksFailed = new AtomicInteger();
+    private final AtomicLong mCharsShaped = new AtomicLong();
+    private final AtomicLong mCharsPaginated = new AtomicLong();
+    private final AtomicLong mPages = new AtomicLong();
+
+    private PaginatorMain(File fontDir, File outDir, List<DeviceProfile> profiles, int threads)
+            throws IOException {
+        mOutDir = outDir;
+        mProfiles = profiles;
+        mThreads = threads;
+        mMeasurers = new TextMeasurer[profiles.size()];
+        Map<String, TtfMetrics> fonts = new HashMap<>();
+        for (int i = 0; i < profiles.size(); i++) {
+            final DeviceProfile profile = profiles.get(i);
+            TtfMetrics metrics = fonts.get(profile.fontName);
+            if (metrics == null) {
+                metrics = TtfMetrics.read(new File(fontDir, profile.fontName));
+                fonts.put(profile.fontName, metrics);
+            }
+            mMeasurers[i] = metrics.newMeasurer(profile.textSize);
+        }
+    }
+
+    public static void main(String[] args) {
+        File fontDir = null;
+        File outDir = null;
+        File profileFile = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<File> inputs = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--fonts":
+                        fontDir = new File(args[++i]);
+                        break;
+                    case "--out":
+                        outDir = new File(args[++i]);
+                        break;
+                    case "--profiles":
+                        profileFile = new File(args[++i]);
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    default:
+                        if (args[i].startsWith("--")) throw new IllegalArgumentException(args[i]);
+                        inputs.add(new File(args[i]));
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            exitWithUsage();
+        }
+        if (fontDir == null || outDir == null || inputs.isEmpty() || threads < 1) {
+            exitWithUsage();
+        }
+
+        try {
+            List<DeviceProfile> profiles = (profileFile != null)
+                    ? DeviceProfile.readFrom(profileFile) : DeviceProfile.DEFAULTS;
+            List<File> books = findBooks(inputs);
+            PaginatorMain paginator = new PaginatorMain(fontDir, outDir, profiles, threads);
+            System.exit(paginator.run(books) ? 0 : 1);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    private static void exitWithUsage() {
+        System.err.println("Usage: paginator --fonts <assets dir> --out <dir>"
+                + " [--profiles <file>] [--threads <n>] <book.txt | dir>...");
+        System.exit(2);
+    }
+
+    private static List<File> findBooks(List<File> inputs) throws IOException {
+        List<File> books = new ArrayList<>();
+        for (File input : inputs) {
+            if (input.isDirectory()) {
+                File[] files = input.listFiles((dir, name) -> name.endsWith(BOOK_EXTENSION));
+                if (files == null) throw new IOException("Can't list " + input);
+                Arrays.sort(files);
+                books.addAll(Arrays.asList(files));
+            } else if (input.isFile()) {
+                books.add(input);
+            } else {
+                throw new IOException(input + " doesn't exist");
+            }
+        }
+        return books;
+    }
+
+    // returns false if any book failed
+    private boolean run(List<File> books) {
+        System.out.println(String.format(Locale.US, "Paginating %d books for %d profiles on %d threads",
+                books.size(), mProfiles.size(), mThreads));
+        final long startNanos = System.nanoTime();
+
+        // Shaping a book and paginating it for each profile are separate tasks, so
+        // a few big books still keep all the threads busy. The text of a book is
+        // held until all its profiles are done, so only a few books are let in at
+        // a time, otherwise the executor queue would shape the whole catalogue
+        // before paginating anything.
+        ExecutorService executor = Executors.newFixedThreadPool(mThreads);
+        Semaphore booksInFlight = new Semaphore(mThreads * BOOKS_IN_FLIGHT_PER_THREAD);
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (File book : books) {
+            booksInFlight.acquireUninterruptibly();
+            tasks.add(CompletableFuture
+                    .supplyAsync(() -> readAndShape(book), executor)
+                    .thenCompose(shaped -> paginateAll(book, shaped, executor))
+                    .handle((ignored, error) -> {
+                        booksInFlight.release();
+                        if (error != null) {
+                            mBooksFailed.incrementAndGet();
+                            Throwable cause = (error.getCause() != null) ? error.getCause() : error;
+                            System.err.println(book + ": " + cause);
+                        } else {
+                            mBooksDone.incrementAndGet();
+                        }
+                        return null;
+                    }));
+        }
+        CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0])).join();
+        executor.shutdown();
+
+        printThroughput(System.nanoTime() - startNanos);
+        return mBooksFailed.get() == 0;
+    }
+
+    private String[] readAndShape(File book) {
+        try {
+            final String text = new String(Files.readAllBytes(book.toPath()), StandardCharsets.UTF_8);
+            final String glyphText = MongolPaginator.shape(text);
+            mCharsShaped.addAndGet(text.length());
+            return new String[]{text, glyphText};
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private CompletableFuture<Void> paginateAll(File book, String[] shaped, ExecutorService executor) {
+        final String bookId = getBookId(book);
+        final long textChecksum = MongolPageIndex.checksum(shaped[0]);
+        CompletableFuture<?>[] profileTasks = new CompletableFuture[mProfiles.size()];
+        for (int i = 0; i < profileTasks.length; i++) {
+            final int profile = i;
+            profileTasks[i] = CompletableFuture.runAsync(
+                    () -> paginate(bookId, textChecksum, shaped[0], shaped[1], profile), executor);
+        }
+        return CompletableFuture.allOf(profileTasks);
+    }
+
+    private void paginate(String bookId, long textChecksum, String text, String glyphText,
+                          int profile) {
+        MongolPageIndex.Key key = mProfiles.get(profile).getKey(bookId, textChecksum);
+        MongolPageIndex index = MongolPaginator.paginate(key, text, glyphText, mMeasurers[profile]);
+        try {
+            write(index, new File(mOutDir, bookId));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        mCharsPaginated.addAndGet(text.length());
+        mPages.addAndGet(index.getPageCount());
+    }
+
+    private static String getBookId(File book) {
+        final String name = book.getName();
+        return name.endsWith(BOOK_EXTENSION)
+                ? name.substring(0, name.length() - BOOK_EXTENSION.length()) : name;
+    }
+
+    // the same file as MongolPageIndexer saves, written to a temp file first
+    private static void write(MongolPageIndex index, File bookDir) throws IOException {
+        if (!bookDir.isDirectory() && !bookDir.mkdirs() && !bookDir.isDirectory()) {
+            throw new IOException("Can't create " + bookDir);
+        }
+        File file = new File(bookDir, index.getKey().getFileName());
+        File tempFile = new File(bookDir, file.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            index.writeTo(out);
+        } finally {
+            out.close();
+        }
+        // renameTo doesn't replace an old index on every platform
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        if (!tempFile.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+            throw new IOException("Can't write " + file);
+        }
+    }
+
+    private void printThroughput(long elapsedNanos) {
+        final double seconds = Math.max(elapsedNanos, 1) / 1e9;
+        System.out.println(String.format(Locale.US,
+                "%d books done, %d failed, %d pages in %.2fs", mBooksDone.get(), mBooksFailed.get(),
+                mPages.get(), seconds));
+        System.out.println(String.format(Locale.US,
+                "%.1f books/s, shaped %.2f Mchars/s, paginated %.2f Mchars/s (all profiles), %.0f pages/s",
+                mBooksDone.get() / seconds, mCharsShaped.get() / seconds / 1e6,
+                mCharsPaginated.get() / seconds / 1e6, mPages.get() / seconds));
+    }
+}